@@ -0,0 +1,52 @@
+package com.medicationadherence.benchmarks;
+
+import com.medicationadherence.service.CohortAnalytics;
+import com.medicationadherence.service.CohortReport;
+import com.medicationadherence.service.PatientRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The cohort analytics pass over the whole registry, with 30 recorded doses per patient.
+ * java -jar target/benchmarks.jar CohortBenchmark -jvmArgs -Xmx8g
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CohortBenchmark {
+
+    private static final double[] QUANTILES = {0.1, 0.25, 0.5, 0.75, 0.9};
+
+    @Param({"1000", "100000", "1000000"})
+    public int patients;
+
+    private CohortAnalytics analytics;
+
+    @Setup
+    public void setUp() {
+        PatientRegistry registry = new PatientRegistry();
+        for (int id = 1; id <= patients; id++) {
+            registry.add(InProcessStorage.patient(id, 30));
+        }
+        analytics = new CohortAnalytics(registry);
+    }
+
+    @Benchmark
+    public CohortReport analyze() {
+        return analytics.analyze(10, 1, QUANTILES);
+    }
+}
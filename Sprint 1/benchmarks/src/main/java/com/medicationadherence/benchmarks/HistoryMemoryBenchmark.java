@@ -0,0 +1,64 @@
+package com.medicationadherence.benchmarks;
+
+import com.medicationadherence.model.AdherenceHistory;
+import com.medicationadherence.model.AdherenceRecord;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compares the retained heap of one patient's adherence history stored as an
+ * ArrayList of AdherenceRecord objects against the columnar AdherenceHistory.
+ * Run with a fixed heap for stable numbers, e.g.
+ * mvn package dependency:build-classpath -Dmdep.outputFile=target/classpath.txt
+ * java -Xms2g -Xmx2g -cp "target/classes:$(cat target/classpath.txt)" com.medicationadherence.benchmarks.HistoryMemoryBenchmark 1000000
+ */
+public class HistoryMemoryBenchmark {
+
+    private static final String[] MEDICATIONS = {"Tylenol", "Ibuprofen", "Naloxone", "Clonazepam"};
+
+    public static void main(String[] args) {
+        int records = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        long before = usedHeap();
+        List<AdherenceRecord> objects = buildObjects(records);
+        long objectBytes = usedHeap() - before;
+
+        before = usedHeap();
+        AdherenceHistory columnar = buildColumnar(records);
+        long columnarBytes = usedHeap() - before;
+
+        System.out.printf("records:            %,d%n", records);
+        System.out.printf("ArrayList<Record>:  %,d bytes (%.1f bytes/record)%n", objectBytes, (double) objectBytes / records);
+        System.out.printf("AdherenceHistory:   %,d bytes (%.1f bytes/record)%n", columnarBytes, (double) columnarBytes / records);
+        System.out.printf("ratio:              %.1fx%n", (double) objectBytes / columnarBytes);
+        //Keep both structures reachable until after the last measurement
+        System.out.println(objects.size() + columnar.size() > 0 ? "" : "empty");
+    }
+
+    private static List<AdherenceRecord> buildObjects(int records) {
+        List<AdherenceRecord> objects = new ArrayList<>();
+        LocalDateTime time = LocalDateTime.of(2020, 1, 1, 8, 0);
+        for (int i = 0; i < records; i++) {
+            objects.add(new AdherenceRecord(MEDICATIONS[i % MEDICATIONS.length], i % 7, time.plusHours(i * 6L)));
+        }
+        return objects;
+    }
+
+    private static AdherenceHistory buildColumnar(int records) {
+        AdherenceHistory history = new AdherenceHistory();
+        LocalDateTime time = LocalDateTime.of(2020, 1, 1, 8, 0);
+        for (int i = 0; i < records; i++) {
+            history.append(new AdherenceRecord(MEDICATIONS[i % MEDICATIONS.length], i % 7, time.plusHours(i * 6L)));
+        }
+        return history;
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 5; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
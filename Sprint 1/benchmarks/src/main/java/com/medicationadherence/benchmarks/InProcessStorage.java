@@ -0,0 +1,78 @@
+package com.medicationadherence.benchmarks;
+
+import com.medicationadherence.database.AdherenceWriteBehind;
+import com.medicationadherence.model.AdherenceRecord;
+import com.medicationadherence.model.Patient;
+import com.medicationadherence.storage.DurabilityMode;
+import com.medicationadherence.storage.InMemoryPatientStore;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * In-process stand-in for the database: the real write-behind stage, with a batch writer that
+ * discards every batch, so adherence records cost what they cost in production minus mysql
+ * without piling up in memory across iterations. Patients are rebuilt with Patient.restore,
+ * so nothing touches mysql and the benchmarks measure the application code only.
+ */
+final class InProcessStorage {
+
+    static final String[] MEDICATIONS = {"Tylenol", "Ibuprofen", "Naloxone", "Clonazepam"};
+
+    private InProcessStorage() {
+    }
+
+    /**
+     * Gets the adherence event store, created once per benchmark JVM. The queue is large enough
+     * that producers only block if the flusher genuinely falls behind.
+     * @return the write-behind stage with a discarding batch writer
+     */
+    static AdherenceWriteBehind adherenceEvents() {
+        return WriteBehindHolder.WRITE_BEHIND;
+    }
+
+    /**
+     * Creates an empty patient store
+     * @return the store
+     */
+    static InMemoryPatientStore patientStore() {
+        return new InMemoryPatientStore();
+    }
+
+    /**
+     * Builds a patient with the given number of stored records, one per hour, every fifth one missed
+     * @param id the patient's id
+     * @param records the number of records to restore
+     * @return the patient
+     */
+    static Patient patient(int id, int records) {
+        Patient patient = Patient.restore(adherenceEvents(), id, "Allison", "Dolores", 30 + id % 50, "doallison25@gmail.com");
+        patient.addMedication("Tylenol", "daily", 2);
+        patient.addMedication("Ibuprofen", "weekly", 1);
+        patient.restoreAdherenceRecords(records(records));
+        return patient;
+    }
+
+    /**
+     * Builds records one hour apart, every fifth one missed
+     * @param count the number of records
+     * @return the records, oldest first
+     */
+    static List<AdherenceRecord> records(int count) {
+        LocalDateTime start = LocalDateTime.of(2020, 1, 1, 8, 0);
+        List<AdherenceRecord> records = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            AdherenceRecord record = new AdherenceRecord(MEDICATIONS[i % MEDICATIONS.length], 1 + i % 3, start.plusHours(i));
+            record.setTaken(i % 5 != 0);
+            records.add(record);
+        }
+        return records;
+    }
+
+    //Created on first use by class initialization, without a lock on every call
+    private static final class WriteBehindHolder {
+        private static final AdherenceWriteBehind WRITE_BEHIND =
+                new AdherenceWriteBehind(batch -> { }, 1 << 16, 500, 1, 1000, DurabilityMode.ENQUEUE);
+    }
+}
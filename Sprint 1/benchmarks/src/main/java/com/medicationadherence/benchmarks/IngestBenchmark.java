@@ -0,0 +1,59 @@
+package com.medicationadherence.benchmarks;
+
+import com.medicationadherence.model.AdherenceRecord;
+import com.medicationadherence.model.Patient;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of Patient.addAdherenceRecord on a patient that already holds the given number of records:
+ * validation-free append to the history, counters, stats and the write-behind queue.
+ * Each benchmark thread owns its patient; run with -t to add concurrent producers.
+ * java -jar target/benchmarks.jar IngestBenchmark -prof gc
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class IngestBenchmark {
+
+    @Param({"1000", "100000", "1000000"})
+    public int records;
+
+    private List<AdherenceRecord> incoming;
+    private Patient patient;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUpTrial() {
+        incoming = InProcessStorage.records(1024);
+    }
+
+    //A fresh patient per iteration keeps the history at the parameterized size instead of growing without bound
+    @Setup(Level.Iteration)
+    public void setUpIteration() {
+        patient = InProcessStorage.patient(1, records);
+        next = 0;
+    }
+
+    @Benchmark
+    public int addAdherenceRecord() {
+        patient.addAdherenceRecord(incoming.get(next++ & 1023));
+        return patient.getMissedDoses();
+    }
+}
@@ -0,0 +1,159 @@
+package com.medicationadherence.benchmarks;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.SplittableRandom;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Closed-loop HTTP load test against a running application, for comparing Tomcat's platform-thread
+ * pool with the virtual-thread execution mode at a given number of concurrent connections.
+ * Each simulated client keeps one request in flight: 80% reads of a patient's latest adherence
+ * records, 20% new adherence records. Start the application twice, e.g.
+ * java -jar medication-adherence-1.0-SNAPSHOT-exec.jar --adherence.write-behind.durability=COMMIT
+ * java -jar medication-adherence-1.0-SNAPSHOT-exec.jar --adherence.write-behind.durability=COMMIT --spring.profiles.active=virtual-threads
+ * and run against each (raise the open files limit first, e.g. ulimit -n 65536):
+ * java -cp target/benchmarks.jar com.medicationadherence.benchmarks.LoadTest http://localhost:8080 10000 60 1000
+ * Arguments: base url, concurrent connections, measured seconds (after a warm-up of a fifth of that), patients.
+ */
+public final class LoadTest {
+
+    private static final ObjectMapper JSON = new ObjectMapper();
+    //Latency histogram: bucket i holds latencies up to 1.05^i microseconds
+    private static final double BUCKET_GROWTH = 1.05;
+    private static final int BUCKETS = 400;
+
+    private final HttpClient client = HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(30)).build();
+    private final String baseUrl;
+    private final int[] patientIds;
+    private final AtomicLongArray latencies = new AtomicLongArray(BUCKETS);
+    private final LongAdder completed = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private volatile boolean measuring;
+    private volatile long deadline;
+
+    private LoadTest(String baseUrl, int[] patientIds) {
+        this.baseUrl = baseUrl;
+        this.patientIds = patientIds;
+    }
+
+    public static void main(String[] args) throws Exception {
+        String baseUrl = args.length > 0 ? args[0] : "http://localhost:8080";
+        int connections = args.length > 1 ? Integer.parseInt(args[1]) : 10000;
+        int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 60;
+        int patients = args.length > 3 ? Integer.parseInt(args[3]) : 1000;
+
+        LoadTest test = new LoadTest(baseUrl, createPatients(baseUrl, patients));
+        System.out.printf("%d connections against %s, %d patients%n", connections, baseUrl, patients);
+        test.run(connections, seconds);
+    }
+
+    private void run(int connections, int seconds) throws InterruptedException {
+        long warmUpMillis = TimeUnit.SECONDS.toMillis(Math.max(1, seconds / 5));
+        deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(warmUpMillis) + TimeUnit.SECONDS.toNanos(seconds);
+        CompletableFuture<?>[] clients = new CompletableFuture<?>[connections];
+        for (int i = 0; i < connections; i++) {
+            clients[i] = new CompletableFuture<>();
+            next(new SplittableRandom(i), clients[i]);
+        }
+        Thread.sleep(warmUpMillis);
+        measuring = true;
+        long start = System.nanoTime();
+        CompletableFuture.allOf(clients).join();
+        double elapsed = (System.nanoTime() - start) / 1e9;
+        long count = completed.sum();
+        System.out.printf("%d requests in %.1f s: %.0f req/s, %d failed%n", count, elapsed, count / elapsed, failed.sum());
+        System.out.printf("latency p50 %s, p90 %s, p99 %s, p99.9 %s%n",
+                quantile(0.5), quantile(0.9), quantile(0.99), quantile(0.999));
+    }
+
+    //Sends one request and, once it completes, the client's next one until the deadline
+    private void next(SplittableRandom random, CompletableFuture<?> done) {
+        if (System.nanoTime() - deadline >= 0) {
+            done.complete(null);
+            return;
+        }
+        int patientId = patientIds[random.nextInt(patientIds.length)];
+        HttpRequest request = random.nextInt(5) == 0
+                ? post("/api/patients/" + patientId + "/adherence", "{\"medicationName\":\"Tylenol\",\"dosage\":1}")
+                : HttpRequest.newBuilder(URI.create(baseUrl + "/api/adherence/" + patientId + "?limit=20"))
+                        .timeout(Duration.ofSeconds(30)).GET().build();
+        long sent = System.nanoTime();
+        client.sendAsync(request, HttpResponse.BodyHandlers.discarding()).whenComplete((response, error) -> {
+            if (measuring) {
+                if (error != null || response.statusCode() != 200) {
+                    failed.increment();
+                } else {
+                    completed.increment();
+                    latencies.incrementAndGet(bucket(System.nanoTime() - sent));
+                }
+            }
+            next(random, done);
+        });
+    }
+
+    private HttpRequest post(String path, String body) {
+        return HttpRequest.newBuilder(URI.create(baseUrl + path))
+                .timeout(Duration.ofSeconds(30))
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString(body))
+                .build();
+    }
+
+    private static int[] createPatients(String baseUrl, int count) throws Exception {
+        LoadTest setup = new LoadTest(baseUrl, new int[0]);
+        //Names must be letters only and unique per run
+        String run = letters(System.currentTimeMillis());
+        int[] ids = new int[count];
+        for (int i = 0; i < count; i++) {
+            String body = "{\"firstName\":\"Load" + letters(i) + "\",\"lastName\":\"Run" + run
+                    + "\",\"age\":40,\"email\":\"load@example.com\"}";
+            HttpResponse<String> response = setup.client.send(setup.post("/api/patients", body), HttpResponse.BodyHandlers.ofString());
+            if (response.statusCode() != 200) {
+                throw new IllegalStateException("Creating patient failed with status " + response.statusCode());
+            }
+            JsonNode patient = JSON.readTree(response.body());
+            ids[i] = patient.get("id").asInt();
+        }
+        return ids;
+    }
+
+    private static String letters(long value) {
+        StringBuilder sb = new StringBuilder();
+        do {
+            sb.append((char) ('a' + value % 26));
+            value /= 26;
+        } while (value > 0);
+        return sb.toString();
+    }
+
+    private static int bucket(long nanos) {
+        double micros = Math.max(1, nanos / 1000.0);
+        return (int) Math.min(BUCKETS - 1, Math.ceil(Math.log(micros) / Math.log(BUCKET_GROWTH)));
+    }
+
+    private String quantile(double q) {
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            total += latencies.get(i);
+        }
+        long rank = Math.max(1, (long) Math.ceil(q * total));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += latencies.get(i);
+            if (seen >= rank) {
+                return String.format("%.1f ms", Math.pow(BUCKET_GROWTH, i) / 1000);
+            }
+        }
+        return "n/a";
+    }
+}
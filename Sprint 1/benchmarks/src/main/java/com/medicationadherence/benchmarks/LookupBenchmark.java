@@ -0,0 +1,75 @@
+package com.medicationadherence.benchmarks;
+
+import com.medicationadherence.model.Patient;
+import com.medicationadherence.service.PatientRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-request reads of PatientController: the patient lookup by id through the PatientRegistry
+ * (against the linear list scan it replaced) and the schedule map built by
+ * MedicationSchedule.getMedications() for every serialized patient.
+ * java -jar target/benchmarks.jar LookupBenchmark -prof gc
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class LookupBenchmark {
+
+    @Param({"1000", "100000", "1000000"})
+    public int patients;
+
+    private PatientRegistry registry;
+    private List<Patient> list;
+    private Patient scheduled;
+    private final SplittableRandom random = new SplittableRandom(42);
+
+    @Setup
+    public void setUp() {
+        registry = new PatientRegistry();
+        for (int id = 1; id <= patients; id++) {
+            registry.add(InProcessStorage.patient(id, 0));
+        }
+        list = registry.getAll();
+        scheduled = registry.find(1);
+    }
+
+    @Benchmark
+    public Patient registryFind() {
+        return registry.find(1 + random.nextInt(patients));
+    }
+
+    //The lookup PatientController did before the registry
+    @Benchmark
+    public Patient linearScan() {
+        int id = 1 + random.nextInt(patients);
+        for (Patient patient : list) {
+            if (patient.getId() == id) {
+                return patient;
+            }
+        }
+        return null;
+    }
+
+    @Benchmark
+    public Map<String, Map<String, Object>> scheduleMedications() {
+        return scheduled.getScheduleMedications();
+    }
+}
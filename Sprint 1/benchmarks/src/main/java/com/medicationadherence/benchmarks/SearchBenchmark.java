@@ -0,0 +1,100 @@
+package com.medicationadherence.benchmarks;
+
+import com.medicationadherence.model.Patient;
+import com.medicationadherence.service.PatientRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * GET /api/patients/search: top-20 prefix searches through the PatientRegistry's index, against
+ * filtering the full patient list the way the frontend dropdowns did before.
+ * Last names are random, so short prefixes match many patients and long ones a few.
+ * java -jar target/benchmarks.jar SearchBenchmark -prof gc
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgs = "-Xmx4g")
+@State(Scope.Benchmark)
+public class SearchBenchmark {
+
+    private static final String[] FIRST_NAMES = {"Allison", "Jacob", "Maria", "Noah", "Olivia", "Liam", "Emma",
+            "Lucas", "Sofia", "Ethan", "Chloe", "Mason", "Zoe", "Logan", "Grace", "Owen"};
+    private static final int RESULTS = 20;
+
+    @Param({"100000", "1000000"})
+    public int patients;
+
+    private PatientRegistry registry;
+    private List<Patient> list;
+    private String[] lastNames;
+    private final SplittableRandom random = new SplittableRandom(42);
+
+    @Setup
+    public void setUp() {
+        SplittableRandom names = new SplittableRandom(7);
+        registry = new PatientRegistry();
+        lastNames = new String[patients];
+        for (int id = 1; id <= patients; id++) {
+            char[] lastName = new char[8];
+            lastName[0] = (char) ('A' + names.nextInt(26));
+            for (int i = 1; i < lastName.length; i++) {
+                lastName[i] = (char) ('a' + names.nextInt(26));
+            }
+            lastNames[id - 1] = new String(lastName);
+            String firstName = FIRST_NAMES[id % FIRST_NAMES.length];
+            registry.add(Patient.restore(InProcessStorage.adherenceEvents(), id, firstName, lastNames[id - 1], 30 + id % 50,
+                    firstName.toLowerCase(Locale.ROOT) + id + "@example.com"));
+        }
+        list = registry.getAll();
+    }
+
+    //Thousands of matches, only the first 20 are read
+    @Benchmark
+    public List<Patient> searchShortPrefix() {
+        return registry.search(String.valueOf((char) ('a' + random.nextInt(26))), RESULTS);
+    }
+
+    @Benchmark
+    public List<Patient> searchLastNamePrefix() {
+        return registry.search(lastNames[random.nextInt(patients)].substring(0, 4), RESULTS);
+    }
+
+    @Benchmark
+    public List<Patient> searchFirstAndLastName() {
+        int id = 1 + random.nextInt(patients);
+        return registry.search(FIRST_NAMES[id % FIRST_NAMES.length] + " " + lastNames[id - 1].substring(0, 3), RESULTS);
+    }
+
+    //What the dropdowns did: every patient, filtered on the client
+    @Benchmark
+    public List<Patient> linearScan() {
+        String prefix = lastNames[random.nextInt(patients)].substring(0, 4).toLowerCase(Locale.ROOT);
+        List<Patient> found = new ArrayList<>(RESULTS);
+        for (Patient patient : list) {
+            if (patient.getLastName().toLowerCase(Locale.ROOT).startsWith(prefix)) {
+                found.add(patient);
+                if (found.size() == RESULTS) {
+                    break;
+                }
+            }
+        }
+        return found;
+    }
+}
@@ -0,0 +1,124 @@
+package com.medicationadherence.benchmarks;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.medicationadherence.alert.AlertEngine;
+import com.medicationadherence.controller.PatientController;
+import com.medicationadherence.schedule.ExpectedDoseScheduler;
+import com.medicationadherence.service.PatientRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.web.context.request.ServletWebRequest;
+import org.springframework.web.context.request.WebRequest;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import javax.servlet.http.HttpServletRequest;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.reflect.Proxy;
+import java.time.Clock;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Jackson serialization of the response bodies of GET /api/patients (the unpaged full list and a
+ * projected page) and GET /api/adherence/{id}, with the given total number of adherence records.
+ * The patients payload spreads them over one patient per 100 records; the adherence payload is a
+ * single patient holding all of them. Bodies are written to a discarding stream, so only
+ * serialization is measured.
+ * java -jar target/benchmarks.jar SerializationBenchmark -prof gc
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgs = {"-Xms4g", "-Xmx4g"})
+@State(Scope.Benchmark)
+public class SerializationBenchmark {
+
+    private static final int RECORDS_PER_PATIENT = 100;
+    private static final int HISTORY_PATIENT_ID = Integer.MAX_VALUE;
+
+    @Param({"1000", "100000", "1000000"})
+    public int records;
+
+    //Configured like the ObjectMapper Spring Boot builds for the application
+    private final ObjectMapper objectMapper = Jackson2ObjectMapperBuilder.json().build();
+    private PatientRegistry registry;
+    private PatientController controller;
+    //A GET without If-None-Match, so bodies are always built
+    private final WebRequest get = new ServletWebRequest((HttpServletRequest) Proxy.newProxyInstance(
+            HttpServletRequest.class.getClassLoader(), new Class<?>[]{HttpServletRequest.class},
+            (proxy, method, args) -> {
+                switch (method.getName()) {
+                    case "getMethod":
+                        return "GET";
+                    case "getHeaders":
+                        return Collections.emptyEnumeration();
+                    default:
+                        return null;
+                }
+            }));
+
+    @Setup
+    public void setUp() {
+        registry = new PatientRegistry();
+        for (int id = 1; id <= records / RECORDS_PER_PATIENT; id++) {
+            registry.add(InProcessStorage.patient(id, RECORDS_PER_PATIENT));
+        }
+        registry.add(InProcessStorage.patient(HISTORY_PATIENT_ID, records));
+        AlertEngine alerts = new AlertEngine(Collections.emptyList(), registry, Clock.systemDefaultZone(), 3, 72, 60, 10000, 1000);
+        controller = new PatientController(registry, InProcessStorage.patientStore(), InProcessStorage.adherenceEvents(),
+                alerts, new ExpectedDoseScheduler(alerts, Clock.systemDefaultZone(), 120, 15), Clock.systemDefaultZone(),
+                objectMapper, new SimpleMeterRegistry());
+    }
+
+    //What Spring's message converter does with the legacy unpaged response
+    @Benchmark
+    public long patientsFull() throws IOException {
+        CountingOutputStream out = new CountingOutputStream();
+        objectMapper.writeValue(out, registry.getAll());
+        return out.count;
+    }
+
+    @Benchmark
+    public long patientsPage() {
+        byte[] body = (byte[]) controller.getAllPatients(null, 1000, "id,firstName,lastName", null, get).getBody();
+        return body.length;
+    }
+
+    @Benchmark
+    public long adherenceHistory() throws IOException {
+        StreamingResponseBody body = controller.getAdherenceRecords(HISTORY_PATIENT_ID, null, null, null, null, get).getBody();
+        CountingOutputStream out = new CountingOutputStream();
+        body.writeTo(out);
+        return out.count;
+    }
+
+    /**
+     * Discards everything written, counting the bytes so the work can't be optimized away.
+     */
+    private static final class CountingOutputStream extends OutputStream {
+        private long count;
+
+        @Override
+        public void write(int b) {
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            count += len;
+        }
+    }
+}
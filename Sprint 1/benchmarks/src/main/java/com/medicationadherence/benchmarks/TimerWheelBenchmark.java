@@ -0,0 +1,60 @@
+package com.medicationadherence.benchmarks;
+
+import com.medicationadherence.schedule.TimerWheel;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Re-arming one expected dose (what the scheduler does for every reported dose) in a wheel
+ * already holding the given number of armed timers, one per scheduled medication.
+ * java -jar target/benchmarks.jar TimerWheelBenchmark -prof gc
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class TimerWheelBenchmark {
+
+    //A week of minutes, the longest schedule period
+    private static final int WEEK = 7 * 24 * 60;
+
+    @Param({"1000", "100000", "1000000"})
+    public int timers;
+
+    private TimerWheel<Dose> wheel;
+    private Dose[] doses;
+    private final SplittableRandom random = new SplittableRandom(42);
+
+    private static final class Dose extends TimerWheel.Timer {
+    }
+
+    @Setup
+    public void setUp() {
+        wheel = new TimerWheel<>(0);
+        doses = new Dose[timers];
+        for (int i = 0; i < timers; i++) {
+            doses[i] = new Dose();
+            wheel.arm(doses[i], 1 + random.nextInt(WEEK));
+        }
+    }
+
+    @Benchmark
+    public int rearm() {
+        wheel.arm(doses[random.nextInt(timers)], 1 + random.nextInt(WEEK));
+        return wheel.size();
+    }
+}
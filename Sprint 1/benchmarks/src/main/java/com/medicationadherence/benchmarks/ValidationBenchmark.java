@@ -0,0 +1,50 @@
+package com.medicationadherence.benchmarks;
+
+import com.medicationadherence.model.FieldValidators;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-record validation cost: the String.matches checks the setters used to run
+ * against the FieldValidators that replaced them. One invocation validates the fields
+ * of one patient plus one adherence record.
+ * java -jar target/benchmarks.jar ValidationBenchmark -prof gc
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ValidationBenchmark {
+
+    private final String firstName = "Allison";
+    private final String lastName = "O'Dolores-Smith";
+    private final String email = "doallison25@gmail.com";
+    private final String medicationName = "Vitamin D";
+
+    @Benchmark
+    public boolean regex() {
+        return firstName.matches("^[a-zA-Z'-]{1,50}$")
+                & lastName.matches("^[a-zA-Z'-]{1,50}$")
+                & email.matches("^[^@]+@[^@]+\\.[^@]+$")
+                & medicationName.matches("[a-zA-Z\\s]+");
+    }
+
+    @Benchmark
+    public boolean fieldValidators() {
+        return FieldValidators.isValidName(firstName)
+                & FieldValidators.isValidName(lastName)
+                & FieldValidators.isValidEmail(email)
+                & FieldValidators.isValidMedicationName(medicationName);
+    }
+}
@@ -0,0 +1,153 @@
+package com.medicationadherence;
+
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.io.Resource;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
+import org.springframework.util.StreamUtils;
+import org.springframework.web.context.request.ServletWebRequest;
+import org.springframework.web.servlet.HandlerInterceptor;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
+import org.springframework.web.servlet.config.annotation.ResourceHandlerRegistry;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+import org.springframework.web.servlet.resource.EncodedResourceResolver;
+import org.springframework.web.servlet.resource.ResourceTransformerChain;
+import org.springframework.web.servlet.resource.ResourceTransformerSupport;
+import org.springframework.web.servlet.resource.ResourceUrlProvider;
+import org.springframework.web.servlet.resource.TransformedResource;
+import org.springframework.web.servlet.resource.VersionResourceResolver;
+import org.springframework.web.util.UrlPathHelper;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Serves the frontend from classpath:/static/. Only top-level pages and assets are mapped, so
+ * API paths never go through resource resolution.
+ * Stylesheets and scripts are served under content-hashed names (styles-&lt;md5&gt;.css) that may be
+ * cached for a year. Under their plain names (styles.css), which keep their URL when the content
+ * changes, they are revalidated on every load against an ETag of the content hash. Their gzip and
+ * brotli variants are compressed at build time and picked by Accept-Encoding. Pages are
+ * revalidated on every load and link to the current hashed names; Tomcat compresses them on the
+ * fly (see server.compression in application.properties).
+ */
+@Configuration(proxyBeanMethods = false)
+public class StaticResourceConfiguration implements WebMvcConfigurer {
+
+    private static final String LOCATION = "classpath:/static/";
+    private static final String[] ASSETS = {"/*.css", "/*.js"};
+
+    //Resolved per request: the provider is built from the handlers registered here
+    private final ObjectProvider<ResourceUrlProvider> resourceUrls;
+
+    public StaticResourceConfiguration(ObjectProvider<ResourceUrlProvider> resourceUrls) {
+        this.resourceUrls = resourceUrls;
+    }
+
+    //Spring 5 has no immutable directive; the name changes whenever the content does
+    private static final CacheControl IMMUTABLE = new CacheControl() {
+        private final String headerValue = CacheControl.maxAge(365, TimeUnit.DAYS).cachePublic().getHeaderValue() + ", immutable";
+
+        @Override
+        public String getHeaderValue() {
+            return headerValue;
+        }
+    };
+
+    @Override
+    public void addResourceHandlers(ResourceHandlerRegistry registry) {
+        //Cache-Control and ETag depend on the name asked for, see AssetCacheInterceptor
+        registry.addResourceHandler(ASSETS)
+                .addResourceLocations(LOCATION)
+                .setUseLastModified(false)
+                .resourceChain(true)
+                .addResolver(new EncodedResourceResolver())
+                .addResolver(new VersionResourceResolver().addContentVersionStrategy("/**"));
+        //"/" is forwarded here by Spring Boot's welcome page mapping
+        registry.addResourceHandler("/*.html")
+                .addResourceLocations(LOCATION)
+                .setCacheControl(CacheControl.noCache())
+                .resourceChain(true)
+                .addResolver(new VersionResourceResolver().addContentVersionStrategy("/**"))
+                .addTransformer(new HtmlLinkResourceTransformer());
+    }
+
+    @Override
+    public void addInterceptors(InterceptorRegistry registry) {
+        registry.addInterceptor(new AssetCacheInterceptor(resourceUrls::getObject)).addPathPatterns(ASSETS);
+    }
+
+    /**
+     * Sets the caching headers of stylesheets and scripts before the resource handler serves them.
+     * Content-hashed names are immutable. Plain names get no-cache and a weak ETag of the content hash
+     * (weak, since the gzip and brotli variants share it), and a matching If-None-Match is answered
+     * with 304 without reading the resource.
+     */
+    static final class AssetCacheInterceptor implements HandlerInterceptor {
+
+        //Suffix the content version strategy adds to a name: '-' and the hex md5 of the content
+        private static final Pattern CONTENT_HASH = Pattern.compile("-([0-9a-f]{32})\\.(?:css|js)$");
+
+        private final Supplier<ResourceUrlProvider> resourceUrls;
+
+        AssetCacheInterceptor(Supplier<ResourceUrlProvider> resourceUrls) {
+            this.resourceUrls = resourceUrls;
+        }
+
+        @Override
+        public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) {
+            String path = UrlPathHelper.defaultInstance.getLookupPathForRequest(request);
+            if (CONTENT_HASH.matcher(path).find()) {
+                response.setHeader(HttpHeaders.CACHE_CONTROL, IMMUTABLE.getHeaderValue());
+                return true;
+            }
+            response.setHeader(HttpHeaders.CACHE_CONTROL, CacheControl.noCache().getHeaderValue());
+            String hashed = resourceUrls.get().getForLookupPath(path);
+            Matcher hash = hashed == null ? null : CONTENT_HASH.matcher(hashed);
+            if (hash == null || !hash.find()) {
+                //Not a resource; the handler answers 404
+                return true;
+            }
+            return !new ServletWebRequest(request, response).checkNotModified("W/\"" + hash.group(1) + "\"");
+        }
+    }
+
+    /**
+     * Rewrites a page's relative links to stylesheets and scripts to their content-hashed names,
+     * like Spring's CssLinkResourceTransformer does for stylesheets. Links to other pages are left alone.
+     */
+    static final class HtmlLinkResourceTransformer extends ResourceTransformerSupport {
+
+        private static final Pattern ASSET_LINK = Pattern.compile("(href|src)=\"([^\":?#]+\\.(?:css|js))\"");
+
+        @Override
+        public Resource transform(HttpServletRequest request, Resource resource, ResourceTransformerChain chain) throws IOException {
+            resource = chain.transform(request, resource);
+            String filename = resource.getFilename();
+            if (filename == null || !filename.endsWith(".html")) {
+                return resource;
+            }
+            String html;
+            try (InputStream in = resource.getInputStream()) {
+                html = StreamUtils.copyToString(in, StandardCharsets.UTF_8);
+            }
+            Matcher link = ASSET_LINK.matcher(html);
+            StringBuilder transformed = new StringBuilder(html.length() + 256);
+            while (link.find()) {
+                String versioned = resolveUrlPath(link.group(2), request, resource, chain);
+                String replacement = link.group(1) + "=\"" + (versioned != null ? versioned : link.group(2)) + "\"";
+                link.appendReplacement(transformed, Matcher.quoteReplacement(replacement));
+            }
+            link.appendTail(transformed);
+            return new TransformedResource(resource, transformed.toString().getBytes(StandardCharsets.UTF_8));
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package com.medicationadherence;
+
+import org.apache.coyote.ProtocolHandler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.web.embedded.tomcat.TomcatProtocolHandlerCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.task.AsyncTaskExecutor;
+import org.springframework.core.task.support.TaskExecutorAdapter;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Opt-in execution mode (adherence.threads.virtual=true, or the "virtual-threads" profile) that runs
+ * every servlet request, and the JDBC calls and commit waits made on it, on its own virtual thread
+ * instead of Tomcat's bounded worker pool. Blocked requests then park cheaply, so the number of
+ * requests in flight is limited by connections and the database, not by the pool size.
+ * Streaming responses (Spring MVC's async executor) run on virtual threads as well.
+ * The build targets Java 17, so virtual threads are looked up at runtime and need Java 21 or later.
+ */
+@Configuration(proxyBeanMethods = false)
+@ConditionalOnProperty(name = "adherence.threads.virtual", havingValue = "true")
+public class VirtualThreadConfiguration {
+
+    private static final Logger log = LoggerFactory.getLogger(VirtualThreadConfiguration.class);
+
+    @Bean(destroyMethod = "shutdown")
+    public ExecutorService virtualThreadExecutor() {
+        try {
+            ExecutorService executor = (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+            log.info("Handling requests on virtual threads");
+            return executor;
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("adherence.threads.virtual needs Java 21 or later (running on "
+                    + System.getProperty("java.version") + ")", e);
+        }
+    }
+
+    @Bean
+    public TomcatProtocolHandlerCustomizer<ProtocolHandler> virtualThreadProtocolHandlerCustomizer(ExecutorService virtualThreadExecutor) {
+        return protocolHandler -> protocolHandler.setExecutor(virtualThreadExecutor);
+    }
+
+    //Replaces Spring Boot's pooled applicationTaskExecutor, which runs StreamingResponseBody bodies
+    @Bean(name = {"applicationTaskExecutor", "taskExecutor"})
+    public AsyncTaskExecutor applicationTaskExecutor(ExecutorService virtualThreadExecutor) {
+        return new TaskExecutorAdapter(virtualThreadExecutor);
+    }
+}
@@ -0,0 +1,55 @@
+package com.medicationadherence.alert;
+
+import java.time.LocalDateTime;
+
+/**
+ * A missed-dose alert: a patient missed one medication a number of times within the rule's window.
+ */
+public class Alert {
+    private final int patientId;
+    private final String medicationName;
+    private final int misses;
+    private final LocalDateTime firstMissedAt;
+    private final LocalDateTime lastMissedAt;
+    private final LocalDateTime raisedAt;
+
+    public Alert(int patientId, String medicationName, int misses,
+                 LocalDateTime firstMissedAt, LocalDateTime lastMissedAt, LocalDateTime raisedAt) {
+        this.patientId = patientId;
+        this.medicationName = medicationName;
+        this.misses = misses;
+        this.firstMissedAt = firstMissedAt;
+        this.lastMissedAt = lastMissedAt;
+        this.raisedAt = raisedAt;
+    }
+
+    public int getPatientId() {
+        return patientId;
+    }
+
+    public String getMedicationName() {
+        return medicationName;
+    }
+
+    public int getMisses() {
+        return misses;
+    }
+
+    public LocalDateTime getFirstMissedAt() {
+        return firstMissedAt;
+    }
+
+    public LocalDateTime getLastMissedAt() {
+        return lastMissedAt;
+    }
+
+    public LocalDateTime getRaisedAt() {
+        return raisedAt;
+    }
+
+    @Override
+    public String toString() {
+        return "DOSE ADHERENCE ALERT: patient " + patientId + " missed " + medicationName + " " + misses
+                + " times between " + firstMissedAt + " and " + lastMissedAt;
+    }
+}
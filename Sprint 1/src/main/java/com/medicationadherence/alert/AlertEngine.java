@@ -0,0 +1,324 @@
+package com.medicationadherence.alert;
+
+import com.medicationadherence.model.AdherenceHistory;
+import com.medicationadherence.model.AdherenceRecord;
+import com.medicationadherence.model.Patient;
+import com.medicationadherence.service.PatientRegistry;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.time.Clock;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Raises missed-dose alerts off the request thread.
+ * Request threads publish missed doses into a bounded queue without ever blocking: when the queue
+ * is full the dose is dropped and counted. A single evaluator thread applies the rule: a patient
+ * missed the same medication a number of times within a window of dose times. The misses that
+ * raised an alert are consumed, so they never raise it again, and each patient is alerted at most
+ * once per throttle interval. Raised alerts fan out to every AlertSink through one bounded queue
+ * and thread per sink, again dropping (and counting) rather than blocking when a sink falls behind.
+ */
+@Component
+public class AlertEngine implements MeterBinder {
+
+    private static final Logger log = LoggerFactory.getLogger(AlertEngine.class);
+    //How often the evaluator checks for shutdown while idle
+    private static final long POLL_MILLIS = 100;
+
+    private final BlockingQueue<MissedDose> events;
+    private final List<SinkWorker> sinks = new ArrayList<>();
+    private final PatientRegistry patients;
+    private final Clock clock;
+    private final int misses;
+    private final int windowMinutes;
+    private final long throttleNanos;
+    private final Thread evaluator;
+    private volatile boolean running = true;
+
+    //Published by request threads
+    private final LongAdder published = new LongAdder();
+    private final LongAdder droppedEvents = new LongAdder();
+    //Written by the evaluator thread only
+    private final AtomicLong raised = new AtomicLong();
+    private final AtomicLong suppressed = new AtomicLong();
+    private final HashMap<Integer, PatientState> states = new HashMap<>();
+
+    public AlertEngine(List<AlertSink> alertSinks,
+                       PatientRegistry patients,
+                       Clock clock,
+                       @Value("${adherence.alerts.misses:3}") int misses,
+                       @Value("${adherence.alerts.window-hours:72}") int windowHours,
+                       @Value("${adherence.alerts.throttle-minutes:60}") long throttleMinutes,
+                       @Value("${adherence.alerts.queue-capacity:10000}") int queueCapacity,
+                       @Value("${adherence.alerts.sink-queue-capacity:1000}") int sinkQueueCapacity) {
+        if (misses <= 0 || windowHours <= 0 || throttleMinutes < 0 || queueCapacity <= 0 || sinkQueueCapacity <= 0) {
+            throw new IllegalArgumentException("Invalid alert configuration");
+        }
+        this.patients = patients;
+        this.clock = clock;
+        this.misses = misses;
+        this.windowMinutes = (int) TimeUnit.HOURS.toMinutes(windowHours);
+        this.throttleNanos = TimeUnit.MINUTES.toNanos(throttleMinutes);
+        this.events = new ArrayBlockingQueue<>(queueCapacity);
+        for (AlertSink sink : alertSinks) {
+            sinks.add(new SinkWorker(sink, sinkQueueCapacity));
+        }
+        this.evaluator = new Thread(this::evaluateLoop, "alert-evaluator");
+        this.evaluator.setDaemon(true);
+        this.evaluator.start();
+    }
+
+    /**
+     * Hands a recorded dose to the alert rules if it was missed. Never blocks.
+     * @param patientId the id of the patient the dose belongs to
+     * @param record the recorded dose
+     */
+    public void publish(int patientId, AdherenceRecord record) {
+        if (record.isTaken()) {
+            return;
+        }
+        published.increment();
+        if (!events.offer(new MissedDose(patientId, record.getMedicationName(),
+                AdherenceHistory.toEpochMinute(record.getTimeTaken())))) {
+            droppedEvents.increment();
+        }
+    }
+
+    /**
+     * Gets the current counters of the pipeline
+     * @return the metrics snapshot
+     */
+    public AlertMetrics getMetrics() {
+        List<AlertMetrics.SinkMetrics> sinkMetrics = new ArrayList<>(sinks.size());
+        for (SinkWorker worker : sinks) {
+            sinkMetrics.add(new AlertMetrics.SinkMetrics(worker.sink.getName(), worker.delivered.get(),
+                    worker.failed.get(), worker.dropped.get(), worker.queue.size()));
+        }
+        return new AlertMetrics(published.sum(), droppedEvents.sum(), events.size(), raised.get(), suppressed.get(), sinkMetrics);
+    }
+
+    /**
+     * Publishes the same counters as getMetrics to the meter registry, read when it is scraped
+     */
+    @Override
+    public void bindTo(MeterRegistry meterRegistry) {
+        FunctionCounter.builder("adherence.alerts.missed_doses", published, LongAdder::sum)
+                .description("Missed doses published to the alert rules")
+                .register(meterRegistry);
+        FunctionCounter.builder("adherence.alerts.missed_doses.dropped", droppedEvents, LongAdder::sum)
+                .description("Missed doses dropped because the evaluator queue was full")
+                .register(meterRegistry);
+        Gauge.builder("adherence.alerts.missed_doses.queued", events, BlockingQueue::size)
+                .description("Missed doses waiting to be evaluated")
+                .register(meterRegistry);
+        FunctionCounter.builder("adherence.alerts.raised", raised, AtomicLong::get)
+                .description("Alerts raised")
+                .register(meterRegistry);
+        FunctionCounter.builder("adherence.alerts.throttled", suppressed, AtomicLong::get)
+                .description("Alerts suppressed by the per-patient throttle")
+                .register(meterRegistry);
+        for (SinkWorker worker : sinks) {
+            Tags sink = Tags.of("sink", worker.sink.getName());
+            FunctionCounter.builder("adherence.alerts.sink.delivered", worker.delivered, AtomicLong::get)
+                    .description("Alerts delivered by the sink").tags(sink).register(meterRegistry);
+            FunctionCounter.builder("adherence.alerts.sink.failed", worker.failed, AtomicLong::get)
+                    .description("Alerts the sink failed to deliver").tags(sink).register(meterRegistry);
+            FunctionCounter.builder("adherence.alerts.sink.dropped", worker.dropped, AtomicLong::get)
+                    .description("Alerts dropped because the sink's queue was full").tags(sink).register(meterRegistry);
+            Gauge.builder("adherence.alerts.sink.queued", worker.queue, BlockingQueue::size)
+                    .description("Alerts waiting for the sink").tags(sink).register(meterRegistry);
+        }
+    }
+
+    /**
+     * Evaluates the missed doses still queued, delivers the resulting alerts and stops the threads.
+     */
+    @PreDestroy
+    public void shutdown() {
+        running = false;
+        join(evaluator);
+        for (SinkWorker worker : sinks) {
+            worker.running = false;
+        }
+        for (SinkWorker worker : sinks) {
+            join(worker.thread);
+        }
+    }
+
+    private static void join(Thread thread) {
+        try {
+            thread.join(TimeUnit.SECONDS.toMillis(10));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void evaluateLoop() {
+        while (running || !events.isEmpty()) {
+            try {
+                MissedDose missedDose = events.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+                if (missedDose != null) {
+                    evaluate(missedDose);
+                }
+            } catch (InterruptedException e) {
+                return;
+            } catch (RuntimeException e) {
+                log.error("Alert evaluation failed", e);
+            }
+        }
+    }
+
+    private void evaluate(MissedDose missedDose) {
+        PatientState state = states.computeIfAbsent(missedDose.patientId, id -> new PatientState());
+        MissWindow window = state.byMedication.computeIfAbsent(missedDose.medicationName, name -> new MissWindow(misses));
+        window.add(missedDose.epochMinute);
+        if (!window.isFull() || window.span() > windowMinutes) {
+            return;
+        }
+        Alert alert = new Alert(missedDose.patientId, missedDose.medicationName, misses,
+                AdherenceHistory.fromEpochMinute(window.first()), AdherenceHistory.fromEpochMinute(window.last()),
+                LocalDateTime.now(clock));
+        //These misses are dealt with, whether or not the alert gets through the throttle
+        window.clear();
+        long now = System.nanoTime();
+        if (state.alerted && now - state.lastAlertNanos < throttleNanos) {
+            suppressed.incrementAndGet();
+            return;
+        }
+        state.alerted = true;
+        state.lastAlertNanos = now;
+        raised.incrementAndGet();
+        Patient patient = patients.find(missedDose.patientId);
+        if (patient != null) {
+            patient.recordMissedDoseNotification();
+        }
+        for (SinkWorker worker : sinks) {
+            if (!worker.queue.offer(alert)) {
+                worker.dropped.incrementAndGet();
+            }
+        }
+    }
+
+    //One missed dose waiting to be evaluated
+    private static final class MissedDose {
+        private final int patientId;
+        private final String medicationName;
+        private final int epochMinute;
+
+        MissedDose(int patientId, String medicationName, int epochMinute) {
+            this.patientId = patientId;
+            this.medicationName = medicationName;
+            this.epochMinute = epochMinute;
+        }
+    }
+
+    //Rule state of one patient, touched by the evaluator thread only
+    private static final class PatientState {
+        private final HashMap<String, MissWindow> byMedication = new HashMap<>(4);
+        private boolean alerted;
+        private long lastAlertNanos;
+    }
+
+    //The latest misses of one medication, in dose time order (reports may arrive out of order)
+    private static final class MissWindow {
+        private final int[] minutes;
+        private int count;
+
+        MissWindow(int capacity) {
+            this.minutes = new int[capacity];
+        }
+
+        void add(int minute) {
+            if (count == minutes.length) {
+                if (minute < minutes[0]) {
+                    //Older than every miss kept
+                    return;
+                }
+                System.arraycopy(minutes, 1, minutes, 0, --count);
+            }
+            int i = count++;
+            while (i > 0 && minutes[i - 1] > minute) {
+                minutes[i] = minutes[i - 1];
+                i--;
+            }
+            minutes[i] = minute;
+        }
+
+        boolean isFull() {
+            return count == minutes.length;
+        }
+
+        int first() {
+            return minutes[0];
+        }
+
+        int last() {
+            return minutes[count - 1];
+        }
+
+        int span() {
+            return last() - first();
+        }
+
+        void clear() {
+            count = 0;
+        }
+    }
+
+    //Feeds one sink from its own bounded queue and thread
+    private static final class SinkWorker {
+        private final AlertSink sink;
+        private final BlockingQueue<Alert> queue;
+        private final Thread thread;
+        private final AtomicLong delivered = new AtomicLong();
+        private final AtomicLong failed = new AtomicLong();
+        private final AtomicLong dropped = new AtomicLong();
+        private volatile boolean running = true;
+
+        SinkWorker(AlertSink sink, int capacity) {
+            this.sink = sink;
+            this.queue = new ArrayBlockingQueue<>(capacity);
+            this.thread = new Thread(this::deliverLoop, "alert-sink-" + sink.getName());
+            this.thread.setDaemon(true);
+            this.thread.start();
+        }
+
+        private void deliverLoop() {
+            while (running || !queue.isEmpty()) {
+                Alert alert;
+                try {
+                    alert = queue.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                if (alert == null) {
+                    continue;
+                }
+                try {
+                    sink.deliver(alert);
+                    delivered.incrementAndGet();
+                } catch (Exception e) {
+                    failed.incrementAndGet();
+                    log.warn("Alert sink {} failed to deliver an alert for patient {}", sink.getName(), alert.getPatientId(), e);
+                }
+            }
+        }
+    }
+}
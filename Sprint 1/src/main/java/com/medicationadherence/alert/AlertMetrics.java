@@ -0,0 +1,93 @@
+package com.medicationadherence.alert;
+
+import java.util.List;
+
+/**
+ * Point-in-time counters of the alert pipeline, as returned by the alert metrics endpoint.
+ * Counts are since startup.
+ */
+public class AlertMetrics {
+    private final long published;
+    private final long droppedEvents;
+    private final int queueDepth;
+    private final long raised;
+    private final long suppressed;
+    private final List<SinkMetrics> sinks;
+
+    AlertMetrics(long published, long droppedEvents, int queueDepth, long raised, long suppressed, List<SinkMetrics> sinks) {
+        this.published = published;
+        this.droppedEvents = droppedEvents;
+        this.queueDepth = queueDepth;
+        this.raised = raised;
+        this.suppressed = suppressed;
+        this.sinks = sinks;
+    }
+
+    //Missed doses handed to the engine
+    public long getPublished() {
+        return published;
+    }
+
+    //Missed doses not evaluated because the engine's queue was full
+    public long getDroppedEvents() {
+        return droppedEvents;
+    }
+
+    public int getQueueDepth() {
+        return queueDepth;
+    }
+
+    //Alerts passed on to the sinks
+    public long getRaised() {
+        return raised;
+    }
+
+    //Alerts withheld because the patient was alerted within the throttle interval
+    public long getSuppressed() {
+        return suppressed;
+    }
+
+    public List<SinkMetrics> getSinks() {
+        return sinks;
+    }
+
+    /**
+     * Counters of one sink
+     */
+    public static class SinkMetrics {
+        private final String name;
+        private final long delivered;
+        private final long failed;
+        private final long dropped;
+        private final int queueDepth;
+
+        SinkMetrics(String name, long delivered, long failed, long dropped, int queueDepth) {
+            this.name = name;
+            this.delivered = delivered;
+            this.failed = failed;
+            this.dropped = dropped;
+            this.queueDepth = queueDepth;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public long getDelivered() {
+            return delivered;
+        }
+
+        public long getFailed() {
+            return failed;
+        }
+
+        //Alerts not delivered because the sink's queue was full
+        public long getDropped() {
+            return dropped;
+        }
+
+        public int getQueueDepth() {
+            return queueDepth;
+        }
+    }
+}
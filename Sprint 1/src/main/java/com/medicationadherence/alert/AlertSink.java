@@ -0,0 +1,21 @@
+package com.medicationadherence.alert;
+
+/**
+ * Destination of raised alerts. Every sink bean is picked up by the AlertEngine and fed from
+ * its own bounded queue on its own thread, so a slow sink never delays the others.
+ */
+public interface AlertSink {
+
+    /**
+     * Gets the name the sink is reported under in the alert metrics
+     * @return the sink's name
+     */
+    String getName();
+
+    /**
+     * Delivers one alert. Failures are counted and logged; the alert is not retried.
+     * @param alert the alert to deliver
+     * @throws Exception if delivery failed
+     */
+    void deliver(Alert alert) throws Exception;
+}
@@ -0,0 +1,26 @@
+package com.medicationadherence.alert;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+/**
+ * Writes alerts to the application log.
+ */
+@Component
+@ConditionalOnProperty(name = "adherence.alerts.log.enabled", matchIfMissing = true)
+public class LogAlertSink implements AlertSink {
+
+    private static final Logger log = LoggerFactory.getLogger(LogAlertSink.class);
+
+    @Override
+    public String getName() {
+        return "log";
+    }
+
+    @Override
+    public void deliver(Alert alert) {
+        log.warn("{}", alert);
+    }
+}
@@ -0,0 +1,38 @@
+package com.medicationadherence.alert;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+/**
+ * Stub of a webhook sink: builds the JSON body that would be POSTed to the configured url
+ * and logs it instead of sending it, until there is a receiving service to integrate with.
+ */
+@Component
+@ConditionalOnProperty(name = "adherence.alerts.webhook.enabled", havingValue = "true")
+public class WebhookAlertSink implements AlertSink {
+
+    private static final Logger log = LoggerFactory.getLogger(WebhookAlertSink.class);
+
+    private final ObjectMapper objectMapper;
+    private final String url;
+
+    public WebhookAlertSink(ObjectMapper objectMapper, @Value("${adherence.alerts.webhook.url:}") String url) {
+        this.objectMapper = objectMapper;
+        this.url = url;
+    }
+
+    @Override
+    public String getName() {
+        return "webhook";
+    }
+
+    @Override
+    public void deliver(Alert alert) throws Exception {
+        String body = objectMapper.writeValueAsString(alert);
+        log.info("Webhook stub: POST {} {}", url, body);
+    }
+}
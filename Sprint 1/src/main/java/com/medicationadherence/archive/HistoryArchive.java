@@ -0,0 +1,256 @@
+package com.medicationadherence.archive;
+
+import com.medicationadherence.model.AdherenceHistory;
+import com.medicationadherence.model.Patient;
+import com.medicationadherence.service.PatientRegistry;
+import com.medicationadherence.storage.ArchivedHistoryStore;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Clock;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Tiered storage of adherence history. Patients keep a hot window of recent records (hot-days)
+ * in memory and in the primary store; when enabled, a background thread moves each patient's
+ * older records into an immutable HistorySegment file and drops them from both. Reads of a
+ * patient's history merge the segments back in (see Patient.viewAdherenceRecordsFrom), so heap
+ * use follows the active records rather than the whole history.
+ * A run of records is moved in three steps: the segment is written and forced, the primary store
+ * deletes the rows and records the cutoff (ArchivedHistoryStore, the commit point), then the
+ * patient swaps the records for the segment. From the moment the records are read for the segment
+ * the patient refuses new records dated before the cutoff, so none can reach the primary store
+ * and be deleted with the archived rows. At startup, segments past a patient's committed
+ * cutoff are discarded; the others are handed to the patients by the warm start.
+ * Segments are always read back, so turning archival off keeps the history already archived.
+ */
+@Component
+public class HistoryArchive implements MeterBinder {
+
+    private static final Logger log = LoggerFactory.getLogger(HistoryArchive.class);
+    //Patients per subdirectory, so no directory grows too large
+    private static final int PATIENTS_PER_DIRECTORY = 1000;
+
+    private final PatientRegistry registry;
+    private final ArchivedHistoryStore store;
+    private final Clock clock;
+    private final Path directory;
+    private final boolean enabled;
+    private final int hotDays;
+    private final int minRecords;
+    private final long intervalMillis;
+    //Committed segments found at startup, until the warm start hands them to their patients
+    private final ConcurrentHashMap<Integer, List<HistorySegment>> recovered = new ConcurrentHashMap<>();
+    private final AtomicLong archivedRecords = new AtomicLong();
+    private final AtomicLong segmentsWritten = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    private Thread archiver;
+    private volatile boolean running = true;
+
+    public HistoryArchive(PatientRegistry registry,
+                          ArchivedHistoryStore store,
+                          Clock clock,
+                          @Value("${adherence.archive.directory:data/archive}") String directory,
+                          @Value("${adherence.archive.enabled:false}") boolean enabled,
+                          @Value("${adherence.archive.hot-days:90}") int hotDays,
+                          @Value("${adherence.archive.min-records:256}") int minRecords,
+                          @Value("${adherence.archive.interval-minutes:60}") long intervalMinutes) {
+        //Rolling statistics look back 30 days, so those days must stay in memory
+        if (hotDays < 31 || minRecords <= 0 || intervalMinutes <= 0) {
+            throw new IllegalArgumentException("Invalid archive configuration");
+        }
+        this.registry = registry;
+        this.store = store;
+        this.clock = clock;
+        this.directory = Paths.get(directory);
+        this.enabled = enabled;
+        this.hotDays = hotDays;
+        this.minRecords = minRecords;
+        this.intervalMillis = TimeUnit.MINUTES.toMillis(intervalMinutes);
+    }
+
+    /**
+     * Finds the committed segments on disk, discards uncommitted ones and starts archiving if enabled
+     * @throws IllegalStateException if the archive directory can't be read
+     */
+    @PostConstruct
+    public void start() {
+        try {
+            recover();
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not open the history archive in " + directory, e);
+        }
+        if (enabled) {
+            archiver = new Thread(this::archiveLoop, "history-archiver");
+            archiver.setDaemon(true);
+            archiver.start();
+        }
+    }
+
+    /**
+     * Gives a restored patient its archived segments, oldest first, reading each back once for
+     * the patient's statistics. Called by the warm start before the patient's records in the database.
+     * @param patient the patient being restored
+     * @throws java.io.UncheckedIOException if a segment can't be read
+     */
+    public void restore(Patient patient) {
+        List<HistorySegment> segments = recovered.remove(patient.getId());
+        if (segments == null) {
+            return;
+        }
+        for (HistorySegment segment : segments) {
+            AdherenceHistory records = new AdherenceHistory();
+            segment.appendTo(records, Integer.MIN_VALUE);
+            patient.restoreArchivedSegment(segment, records.view());
+        }
+    }
+
+    /**
+     * Moves every patient's records older than the hot window into segments
+     * @return the number of records archived
+     */
+    public long archiveAll() {
+        int cutoff = AdherenceHistory.toEpochMinute(LocalDateTime.now(clock).minusDays(hotDays));
+        long archived = 0;
+        for (Patient patient : registry.getAll()) {
+            if (!running) {
+                break;
+            }
+            try {
+                int count = archive(patient, cutoff);
+                if (count < 0) {
+                    log.info("Archive: the database can't remove records yet (rollup backfill running), retrying later");
+                    break;
+                }
+                archived += count;
+            } catch (IOException | RuntimeException e) {
+                failures.incrementAndGet();
+                log.warn("Archive: archiving the history of patient {} failed", patient.getId(), e);
+            }
+        }
+        return archived;
+    }
+
+    @Override
+    public void bindTo(MeterRegistry meterRegistry) {
+        FunctionCounter.builder("adherence.archive.records", archivedRecords, AtomicLong::get)
+                .description("Adherence records moved from memory and the database to archive segments")
+                .baseUnit("records")
+                .register(meterRegistry);
+        FunctionCounter.builder("adherence.archive.segments", segmentsWritten, AtomicLong::get)
+                .description("Archive segment files written")
+                .register(meterRegistry);
+        FunctionCounter.builder("adherence.archive.failures", failures, AtomicLong::get)
+                .description("Patients whose history could not be archived in a run")
+                .register(meterRegistry);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        running = false;
+        if (archiver != null) {
+            archiver.interrupt();
+            try {
+                archiver.join(TimeUnit.SECONDS.toMillis(10));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    //Returns the number of records archived, or -1 if the store can't commit yet
+    private int archive(Patient patient, int cutoff) throws IOException {
+        if (patient.viewHotRecords().fromIndex(cutoff) < minRecords) {
+            return 0;
+        }
+        AdherenceHistory.View hot = patient.beginArchive(cutoff);
+        int count = hot.fromIndex(cutoff);
+        HistorySegment segment = HistorySegment.write(directoryOf(patient.getId()), patient.getId(), hot, count, cutoff);
+        boolean committed = false;
+        try {
+            committed = store.commitArchive(patient.getId(), AdherenceHistory.fromEpochMinute(cutoff), count);
+        } finally {
+            if (!committed) {
+                segment.delete();
+            }
+        }
+        if (!committed) {
+            return -1;
+        }
+        patient.archive(segment);
+        archivedRecords.addAndGet(count);
+        segmentsWritten.incrementAndGet();
+        return count;
+    }
+
+    private void archiveLoop() {
+        while (running) {
+            try {
+                Thread.sleep(intervalMillis);
+            } catch (InterruptedException e) {
+                break;
+            }
+            long start = System.nanoTime();
+            long archived = archiveAll();
+            if (archived > 0) {
+                log.info("Archive: moved {} adherence records to segments in {} ms", archived,
+                        TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+            }
+        }
+    }
+
+    private void recover() throws IOException {
+        if (!Files.isDirectory(directory)) {
+            return;
+        }
+        List<Path> files;
+        try (Stream<Path> walk = Files.walk(directory, 2)) {
+            files = walk.filter(Files::isRegularFile).collect(Collectors.toList());
+        }
+        Map<Integer, LocalDateTime> committed = store.archivedBefore();
+        int discarded = 0;
+        for (Path file : files) {
+            if (!file.getFileName().toString().endsWith(HistorySegment.SUFFIX)) {
+                //Left over from a write that didn't finish
+                Files.delete(file);
+                continue;
+            }
+            HistorySegment segment = HistorySegment.open(file);
+            LocalDateTime cutoff = committed.get(segment.getPatientId());
+            if (cutoff == null || segment.getArchivedBefore() > AdherenceHistory.toEpochMinute(cutoff)) {
+                //Never committed: the records are still in the primary store
+                segment.delete();
+                discarded++;
+                continue;
+            }
+            recovered.computeIfAbsent(segment.getPatientId(), id -> new ArrayList<>()).add(segment);
+        }
+        recovered.values().forEach(segments -> segments.sort(Comparator.comparingInt(HistorySegment::getFirstEpochMinute)));
+        log.info("Archive: {} patients with archived history in {}{}", recovered.size(), directory,
+                discarded > 0 ? ", discarded " + discarded + " uncommitted segments" : "");
+    }
+
+    private Path directoryOf(int patientId) {
+        return directory.resolve(Integer.toString(patientId / PATIENTS_PER_DIRECTORY));
+    }
+}
@@ -0,0 +1,269 @@
+package com.medicationadherence.archive;
+
+import com.medicationadherence.model.AdherenceHistory;
+import com.medicationadherence.model.ArchivedSegment;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * One immutable file holding a run of a patient's archived adherence records, oldest first.
+ * Layout (big-endian):
+ * <pre>
+ * header   int magic | byte version | int patientId | int count | int firstMinute | int lastMinute
+ *          | int archivedBefore | short medications, each as short length | UTF-8 bytes
+ * index    int entries, each int epochMinute | int byteOffset (one per block of BLOCK_RECORDS records)
+ * data     int length | per record: varint minuteDelta | varint dosage | varint (medicationId &lt;&lt; 1 | taken)
+ * trailer  int crc32 of everything before it
+ * </pre>
+ * The minute delta is relative to the previous record of the same block (0 for a block's first
+ * record, whose minute is in the index), so any block can be decoded on its own.
+ * Files are written to a temporary name, forced and then renamed, so a segment is either complete or absent.
+ * Only the header fields are kept in memory.
+ */
+public final class HistorySegment implements ArchivedSegment {
+
+    static final String SUFFIX = ".hseg";
+    private static final int MAGIC = 0x41444853;
+    private static final byte VERSION = 1;
+    //Records per sparse index entry
+    static final int BLOCK_RECORDS = 128;
+
+    private final Path path;
+    private final int patientId;
+    private final int size;
+    private final int firstEpochMinute;
+    private final int lastEpochMinute;
+    private final int archivedBefore;
+
+    private HistorySegment(Path path, int patientId, int size, int firstEpochMinute, int lastEpochMinute, int archivedBefore) {
+        this.path = path;
+        this.patientId = patientId;
+        this.size = size;
+        this.firstEpochMinute = firstEpochMinute;
+        this.lastEpochMinute = lastEpochMinute;
+        this.archivedBefore = archivedBefore;
+    }
+
+    /**
+     * Writes the first records of a time-ordered history to a new segment file
+     * @param directory the directory of the patient's segments, created if missing
+     * @param patientId the patient the records belong to
+     * @param history the patient's in-memory records, in time order
+     * @param count the number of records to write, from the start of the history
+     * @param archivedBefore the cutoff the records were archived for (every record is before it), in epoch minutes
+     * @return the written segment
+     * @throws IOException if the file can't be written
+     */
+    public static HistorySegment write(Path directory, int patientId, AdherenceHistory.View history, int count,
+                                       int archivedBefore) throws IOException {
+        if (count <= 0 || count > history.size()) {
+            throw new IllegalArgumentException("Invalid segment");
+        }
+        //Per-segment medication dictionary, so ids stay small
+        Map<String, Integer> medicationIds = new HashMap<>();
+        List<String> medications = new ArrayList<>();
+        ByteArrayOutputStream data = new ByteArrayOutputStream(count * 4);
+        int[] index = new int[2 * ((count + BLOCK_RECORDS - 1) / BLOCK_RECORDS)];
+        int previousMinute = 0;
+        for (int i = 0; i < count; i++) {
+            int minute = history.epochMinute(i);
+            if (i % BLOCK_RECORDS == 0) {
+                index[2 * (i / BLOCK_RECORDS)] = minute;
+                index[2 * (i / BLOCK_RECORDS) + 1] = data.size();
+                previousMinute = minute;
+            }
+            Integer medicationId = medicationIds.get(history.medicationName(i));
+            if (medicationId == null) {
+                medicationId = medications.size();
+                medicationIds.put(history.medicationName(i), medicationId);
+                medications.add(history.medicationName(i));
+            }
+            writeVarint(data, minute - previousMinute);
+            writeVarint(data, history.dosage(i));
+            writeVarint(data, medicationId << 1 | (history.isTaken(i) ? 1 : 0));
+            previousMinute = minute;
+        }
+
+        ByteArrayOutputStream file = new ByteArrayOutputStream(data.size() + index.length * 4 + 64);
+        DataOutputStream out = new DataOutputStream(file);
+        out.writeInt(MAGIC);
+        out.writeByte(VERSION);
+        out.writeInt(patientId);
+        out.writeInt(count);
+        out.writeInt(history.epochMinute(0));
+        out.writeInt(history.epochMinute(count - 1));
+        out.writeInt(archivedBefore);
+        out.writeShort(medications.size());
+        for (String medication : medications) {
+            byte[] name = medication.getBytes(StandardCharsets.UTF_8);
+            out.writeShort(name.length);
+            out.write(name);
+        }
+        out.writeInt(index.length / 2);
+        for (int value : index) {
+            out.writeInt(value);
+        }
+        out.writeInt(data.size());
+        data.writeTo(out);
+        CRC32 crc = new CRC32();
+        crc.update(file.toByteArray());
+        out.writeInt((int) crc.getValue());
+
+        Files.createDirectories(directory);
+        //Named by the first record's time; a patient never archives two runs starting at the same minute
+        Path target = directory.resolve(patientId + "-" + history.epochMinute(0) + SUFFIX);
+        Path temporary = directory.resolve(target.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.WRITE)) {
+            ByteBuffer bytes = ByteBuffer.wrap(file.toByteArray());
+            while (bytes.hasRemaining()) {
+                channel.write(bytes);
+            }
+            channel.force(true);
+        }
+        Files.move(temporary, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        return new HistorySegment(target, patientId, count, history.epochMinute(0), history.epochMinute(count - 1), archivedBefore);
+    }
+
+    /**
+     * Opens an existing segment file, reading its header only
+     * @param path the segment file
+     * @return the segment
+     * @throws IOException if the file can't be read or is not a segment
+     */
+    public static HistorySegment open(Path path) throws IOException {
+        try (DataInputStream in = new DataInputStream(Files.newInputStream(path))) {
+            if (in.readInt() != MAGIC || in.readByte() != VERSION) {
+                throw new IOException("Not a history segment: " + path);
+            }
+            int patientId = in.readInt();
+            int count = in.readInt();
+            int first = in.readInt();
+            int last = in.readInt();
+            return new HistorySegment(path, patientId, count, first, last, in.readInt());
+        }
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public int lastEpochMinute() {
+        return lastEpochMinute;
+    }
+
+    public int getPatientId() {
+        return patientId;
+    }
+
+    public int getFirstEpochMinute() {
+        return firstEpochMinute;
+    }
+
+    /**
+     * Gets the cutoff the segment was archived for; the database holds none of the patient's records before it
+     * once the archival is committed
+     * @return the cutoff in epoch minutes
+     */
+    @Override
+    public int getArchivedBefore() {
+        return archivedBefore;
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    /**
+     * Decodes the segment, starting at the block that holds the given time (found in the sparse index)
+     * @throws UncheckedIOException if the file can't be read or its checksum doesn't match
+     */
+    @Override
+    public void appendTo(AdherenceHistory target, int fromEpochMinute) {
+        ByteBuffer file;
+        try {
+            file = ByteBuffer.wrap(Files.readAllBytes(path));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        CRC32 crc = new CRC32();
+        crc.update(file.array(), 0, file.limit() - 4);
+        if ((int) crc.getValue() != file.getInt(file.limit() - 4)) {
+            throw new UncheckedIOException(new IOException("Corrupt history segment: " + path));
+        }
+        //Skip the header fields already known
+        file.position(4 + 1 + 4 * 5);
+        String[] medications = new String[file.getShort()];
+        for (int i = 0; i < medications.length; i++) {
+            byte[] name = new byte[file.getShort()];
+            file.get(name);
+            medications[i] = new String(name, StandardCharsets.UTF_8);
+        }
+        int blocks = file.getInt();
+        int indexStart = file.position();
+        int dataStart = indexStart + blocks * 8 + 4;
+        //Last block that starts before the time; equal minutes may continue from the block before
+        int block = 0;
+        while (block + 1 < blocks && file.getInt(indexStart + (block + 1) * 8) < fromEpochMinute) {
+            block++;
+        }
+        file.position(dataStart + file.getInt(indexStart + block * 8 + 4));
+        int minute = 0;
+        for (int i = block * BLOCK_RECORDS; i < size; i++) {
+            if (i % BLOCK_RECORDS == 0) {
+                minute = file.getInt(indexStart + (i / BLOCK_RECORDS) * 8);
+            }
+            minute += readVarint(file);
+            int dosage = readVarint(file);
+            int medication = readVarint(file);
+            if (minute >= fromEpochMinute) {
+                target.append(minute, dosage, medications[medication >>> 1], (medication & 1) != 0);
+            }
+        }
+    }
+
+    /**
+     * Deletes the segment file
+     * @throws IOException if the file can't be deleted
+     */
+    public void delete() throws IOException {
+        Files.deleteIfExists(path);
+    }
+
+    private static void writeVarint(ByteArrayOutputStream out, int value) {
+        while ((value & ~0x7F) != 0) {
+            out.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    private static int readVarint(ByteBuffer in) {
+        int value = 0;
+        for (int shift = 0; ; shift += 7) {
+            byte b = in.get();
+            value |= (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+    }
+}
@@ -0,0 +1,279 @@
+package com.medicationadherence.controller;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.exc.InputCoercionException;
+import com.fasterxml.jackson.core.exc.StreamReadException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.medicationadherence.alert.AlertEngine;
+import com.medicationadherence.schedule.ExpectedDoseScheduler;
+import com.medicationadherence.model.AdherenceHistory;
+import com.medicationadherence.model.AdherenceRecord;
+import com.medicationadherence.model.Patient;
+import com.medicationadherence.service.PatientRegistry;
+import com.medicationadherence.storage.AdherenceEventStore;
+import com.medicationadherence.storage.DurabilityMode;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.web.bind.annotation.*;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.time.Clock;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * REST CTRL for bulk ingestion of adherence records (e.g. uploads from pill-dispenser gateways).
+ * The request body is parsed incrementally and the per-item status is streamed back as it is
+ * known, so neither side of the exchange is held in memory as a whole.
+ */
+@RestController
+@RequestMapping("/api")
+@CrossOrigin(origins = "*") // Allow requests from any origin for testing
+public class AdherenceBatchController {
+
+    //Items whose statuses are written (and, in commit mode, awaited) together
+    private static final int CHUNK_SIZE = 500;
+    private static final String NDJSON = "application/x-ndjson";
+
+    private final PatientRegistry patients;
+    private final AdherenceEventStore adherenceEvents;
+    private final AlertEngine alerts;
+    private final ExpectedDoseScheduler expectedDoses;
+    private final Clock clock;
+    private final JsonFactory jsonFactory;
+    private final Counter invalidItems;
+
+    public AdherenceBatchController(PatientRegistry patients, AdherenceEventStore adherenceEvents, AlertEngine alerts,
+                                    ExpectedDoseScheduler expectedDoses, Clock clock, ObjectMapper objectMapper,
+                                    MeterRegistry meterRegistry) {
+        this.patients = patients;
+        this.adherenceEvents = adherenceEvents;
+        this.alerts = alerts;
+        this.expectedDoses = expectedDoses;
+        this.clock = clock;
+        this.jsonFactory = objectMapper.getFactory();
+        this.invalidItems = PatientController.validationFailures(meterRegistry, "adherence_record");
+    }
+
+    /**
+     * Adds adherence records for many patients at once.
+     * The body is either newline-delimited JSON objects or one JSON array of objects, each with
+     * patientId, medicationName, dosage and optionally timeTaken (ISO date-time, defaults to now;
+     * not in the future).
+     * Records are queued for batched multi-row inserts.
+     * The response is newline-delimited JSON: one {"index","status"[,"error"]} line per item,
+     * followed by a {"accepted","rejected"} summary line.
+     * @param request the incoming request, read as a stream
+     * @param response the outgoing response, written as a stream
+     */
+    @PostMapping(value = "/adherence/batch", produces = NDJSON)
+    public void addAdherenceRecords(HttpServletRequest request, HttpServletResponse response) throws IOException {
+        response.setContentType(NDJSON);
+        try (JsonParser parser = jsonFactory.createParser(request.getInputStream());
+             JsonGenerator out = jsonFactory.createGenerator(response.getOutputStream())) {
+            out.setRootValueSeparator(null);
+            BatchResult result = new BatchResult();
+            List<PendingItem> chunk = new ArrayList<>(CHUNK_SIZE);
+            try {
+                JsonToken token = parser.nextToken();
+                boolean array = token == JsonToken.START_ARRAY;
+                if (array) {
+                    token = parser.nextToken();
+                }
+                int index = 0;
+                while (token != null && token != JsonToken.END_ARRAY) {
+                    chunk.add(ingest(index++, parser, token));
+                    if (chunk.size() == CHUNK_SIZE) {
+                        writeStatuses(chunk, out, result);
+                    }
+                    token = parser.nextToken();
+                }
+                writeStatuses(chunk, out, result);
+            } catch (StreamReadException e) {
+                //The body itself is broken, so the items after this point can't be told apart
+                writeStatuses(chunk, out, result);
+                out.writeStartObject();
+                out.writeStringField("status", "error");
+                out.writeStringField("error", "Malformed JSON: " + e.getOriginalMessage());
+                out.writeEndObject();
+                out.writeRaw('\n');
+            }
+            out.writeStartObject();
+            out.writeNumberField("accepted", result.accepted);
+            out.writeNumberField("rejected", result.rejected);
+            out.writeEndObject();
+            out.writeRaw('\n');
+        }
+    }
+
+    //Reads one item and queues its record; validation problems are reported per item
+    private PendingItem ingest(int index, JsonParser parser, JsonToken token) throws IOException {
+        if (token != JsonToken.START_OBJECT) {
+            parser.skipChildren();
+            return PendingItem.rejected(index, "Item is not a JSON object");
+        }
+        Integer patientId = null;
+        String medicationName = null;
+        Integer dosage = null;
+        String timeTaken = null;
+        String invalid = null;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.getCurrentName();
+            JsonToken value = parser.nextToken();
+            switch (field) {
+                case "patientId":
+                    patientId = intValue(parser, value);
+                    if (patientId == null) {
+                        invalid = "patientId must be an integer";
+                    }
+                    break;
+                case "medicationName":
+                    medicationName = stringValue(parser, value);
+                    if (medicationName == null && value != JsonToken.VALUE_NULL) {
+                        invalid = "medicationName must be a string";
+                    }
+                    break;
+                case "dosage":
+                    dosage = intValue(parser, value);
+                    if (dosage == null) {
+                        invalid = "dosage must be an integer";
+                    }
+                    break;
+                case "timeTaken":
+                    timeTaken = stringValue(parser, value);
+                    if (timeTaken == null && value != JsonToken.VALUE_NULL) {
+                        invalid = "timeTaken must be an ISO date-time string";
+                    }
+                    break;
+                default:
+                    parser.skipChildren();
+            }
+        }
+        if (invalid != null) {
+            invalidItems.increment();
+            return PendingItem.rejected(index, invalid);
+        }
+        if (patientId == null || dosage == null) {
+            invalidItems.increment();
+            return PendingItem.rejected(index, "patientId and dosage are required");
+        }
+        Patient patient = patients.find(patientId);
+        if (patient == null) {
+            return PendingItem.rejected(index, "Patient not found");
+        }
+        try {
+            LocalDateTime time = timeTaken == null ? null : LocalDateTime.parse(timeTaken);
+            if (time != null && !isRecordable(time)) {
+                invalidItems.increment();
+                return PendingItem.rejected(index, "timeTaken must not be in the future");
+            }
+            AdherenceRecord record = time == null
+                    ? new AdherenceRecord(medicationName, dosage)
+                    : new AdherenceRecord(medicationName, dosage, time);
+            PendingItem queued = PendingItem.queued(index, patient.submitAdherenceRecord(record));
+            expectedDoses.onRecord(patientId, record);
+            alerts.publish(patientId, record);
+            return queued;
+        } catch (IllegalArgumentException | DateTimeParseException e) {
+            invalidItems.increment();
+            return PendingItem.rejected(index, e.getMessage());
+        } catch (ArithmeticException e) {
+            invalidItems.increment();
+            return PendingItem.rejected(index, "timeTaken is out of range");
+        } catch (RejectedExecutionException e) {
+            return PendingItem.rejected(index, "Server busy, retry later");
+        }
+    }
+
+    //Whether the time is no later than now; throws ArithmeticException if it has no epoch minute (see AdherenceHistory)
+    private boolean isRecordable(LocalDateTime time) {
+        return AdherenceHistory.toEpochMinute(time) <= AdherenceHistory.toEpochMinute(LocalDateTime.now(clock));
+    }
+
+    //Reads an int field's value, skipping it whole if it is an object or array; null if it isn't an int
+    private static Integer intValue(JsonParser parser, JsonToken value) throws IOException {
+        if (value != JsonToken.VALUE_NUMBER_INT) {
+            parser.skipChildren();
+            return null;
+        }
+        try {
+            return parser.getIntValue();
+        } catch (InputCoercionException e) {
+            //Out of int range; the token is consumed, so the parser stays in step
+            return null;
+        }
+    }
+
+    //Reads a string field's value, skipping it whole if it is an object or array; null if it isn't a string
+    private static String stringValue(JsonParser parser, JsonToken value) throws IOException {
+        if (value != JsonToken.VALUE_STRING) {
+            parser.skipChildren();
+            return null;
+        }
+        return parser.getText();
+    }
+
+    private void writeStatuses(List<PendingItem> chunk, JsonGenerator out, BatchResult result) throws IOException {
+        boolean awaitCommit = adherenceEvents.getDurability() == DurabilityMode.COMMIT;
+        for (PendingItem item : chunk) {
+            String error = item.error;
+            if (error == null && awaitCommit) {
+                try {
+                    item.committed.join();
+                } catch (CompletionException e) {
+                    error = "Issue with inserting adherence record into database";
+                }
+            }
+            out.writeStartObject();
+            out.writeNumberField("index", item.index);
+            if (error == null) {
+                out.writeStringField("status", "ok");
+                result.accepted++;
+            } else {
+                out.writeStringField("status", "error");
+                out.writeStringField("error", error);
+                result.rejected++;
+            }
+            out.writeEndObject();
+            out.writeRaw('\n');
+        }
+        out.flush();
+        chunk.clear();
+    }
+
+    //Outcome of one item whose status has not been written yet
+    private static final class PendingItem {
+        private final int index;
+        private final CompletableFuture<Void> committed;
+        private final String error;
+
+        private PendingItem(int index, CompletableFuture<Void> committed, String error) {
+            this.index = index;
+            this.committed = committed;
+            this.error = error;
+        }
+
+        static PendingItem queued(int index, CompletableFuture<Void> committed) {
+            return new PendingItem(index, committed, null);
+        }
+
+        static PendingItem rejected(int index, String error) {
+            return new PendingItem(index, null, error);
+        }
+    }
+
+    private static final class BatchResult {
+        private int accepted;
+        private int rejected;
+    }
+}
@@ -0,0 +1,31 @@
+package com.medicationadherence.controller;
+
+import com.medicationadherence.alert.AlertEngine;
+import com.medicationadherence.alert.AlertMetrics;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+/**
+ * REST CTRL for the missed-dose alert pipeline.
+ */
+@RestController
+@RequestMapping("/api")
+@CrossOrigin(origins = "*") // Allow requests from any origin for testing
+public class AlertController {
+
+    private final AlertEngine alerts;
+
+    public AlertController(AlertEngine alerts) {
+        this.alerts = alerts;
+    }
+
+    /**
+     * Retrieves the alert pipeline's counters: published, dropped and queued missed doses,
+     * raised and throttled alerts, and per sink delivered, failed, dropped and queued alerts.
+     * @return the current alert metrics
+     */
+    @GetMapping("/alerts/metrics")
+    public ResponseEntity<AlertMetrics> getAlertMetrics() {
+        return ResponseEntity.ok(alerts.getMetrics());
+    }
+}
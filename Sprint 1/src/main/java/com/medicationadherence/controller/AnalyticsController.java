@@ -0,0 +1,104 @@
+package com.medicationadherence.controller;
+
+import com.medicationadherence.service.CohortAnalytics;
+import com.medicationadherence.service.CohortReport;
+import com.medicationadherence.service.PatientRegistry;
+import com.medicationadherence.storage.AdherenceRollup;
+import com.medicationadherence.storage.AdherenceRollupStore;
+import com.medicationadherence.storage.RollupPeriod;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * REST CTRL for adherence analytics and reports: population-level analytics over the in-memory
+ * registry and per-patient daily/weekly rollups from storage.
+ */
+@RestController
+@RequestMapping("/api")
+@CrossOrigin(origins = "*") // Allow requests from any origin for testing
+public class AnalyticsController {
+
+    private static final int MAX_TOP = 1000;
+    private static final double[] DEFAULT_QUANTILES = {0.1, 0.25, 0.5, 0.75, 0.9};
+
+    private final CohortAnalytics analytics;
+    private final PatientRegistry patients;
+    private final AdherenceRollupStore rollups;
+
+    public AnalyticsController(CohortAnalytics analytics, PatientRegistry patients, AdherenceRollupStore rollups) {
+        this.analytics = analytics;
+        this.patients = patients;
+        this.rollups = rollups;
+    }
+
+    /**
+     * Retrieves adherence over all patients: totals, per medication, per 10 year age band,
+     * quantiles of per-patient adherence and the worst-adhering patients.
+     * @param top number of worst-adhering patients to return (at most 1000)
+     * @param minDoses minimum number of recorded doses for a patient to be ranked
+     * @param quantiles comma separated quantiles between 0 and 1, e.g. 0.5,0.9
+     * @return the cohort report, or bad request if a parameter is out of range
+     */
+    @GetMapping("/analytics/cohort")
+    public ResponseEntity<CohortReport> getCohortReport(
+            @RequestParam(defaultValue = "10") int top,
+            @RequestParam(defaultValue = "1") int minDoses,
+            @RequestParam(required = false) String quantiles) {
+        if (top < 0 || top > MAX_TOP || minDoses < 1) {
+            return ResponseEntity.badRequest().build();
+        }
+        double[] requested = DEFAULT_QUANTILES;
+        if (quantiles != null) {
+            try {
+                requested = parseQuantiles(quantiles);
+            } catch (IllegalArgumentException e) {
+                return ResponseEntity.badRequest().build();
+            }
+        }
+        return ResponseEntity.ok(analytics.analyze(top, minDoses, requested));
+    }
+
+    /**
+     * Retrieves a patient's doses taken and missed per medication and day or week, for reports and charts.
+     * Read from the pre-aggregated rollups, so the cost depends on the range, not on the patient's history.
+     * @param id The patient's ID
+     * @param period day or week
+     * @param from first day or week start to include (ISO date)
+     * @param to last day or week start to include (ISO date)
+     * @return the rollups ordered by period, not found if the patient doesn't exist or bad request for an unknown period
+     */
+    @GetMapping("/adherence/{id}/rollup")
+    public ResponseEntity<List<AdherenceRollup>> getAdherenceRollups(
+            @PathVariable int id,
+            @RequestParam(defaultValue = "day") String period,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate from,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate to) {
+        if (patients.find(id) == null) {
+            return ResponseEntity.notFound().build();
+        }
+        RollupPeriod rollupPeriod;
+        try {
+            rollupPeriod = RollupPeriod.valueOf(period.toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().build();
+        }
+        return ResponseEntity.ok(rollups.rollups(id, rollupPeriod, from, to));
+    }
+
+    private static double[] parseQuantiles(String quantiles) {
+        String[] parts = quantiles.split(",");
+        double[] values = new double[parts.length];
+        for (int i = 0; i < parts.length; i++) {
+            values[i] = Double.parseDouble(parts[i].trim());
+            if (!(values[i] >= 0 && values[i] <= 1)) {
+                throw new IllegalArgumentException("Quantile out of range: " + parts[i]);
+            }
+        }
+        return values;
+    }
+}
@@ -1,15 +1,41 @@
 package com.medicationadherence.controller;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.medicationadherence.alert.AlertEngine;
+import com.medicationadherence.schedule.ExpectedDoseScheduler;
 import com.medicationadherence.model.Patient;
+import com.medicationadherence.model.AdherenceHistory;
 import com.medicationadherence.model.AdherenceRecord;
+import com.medicationadherence.model.DuplicatePatientException;
+import com.medicationadherence.model.Frequency;
+import com.medicationadherence.model.PatientStats;
+import com.medicationadherence.service.PatientRegistry;
+import com.medicationadherence.storage.AdherenceEventStore;
+import com.medicationadherence.storage.PatientStore;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
-import java.util.ArrayList;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.time.Clock;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
 import java.util.List;
 import java.util.Map;
-import java.util.HashMap;
-import java.util.stream.Collectors;
+import java.util.Set;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
 
 /**
  * REST CTRL for managing patient-related operations.
@@ -17,39 +43,193 @@ import java.util.stream.Collectors;
  */
 @RestController
 @RequestMapping("/api")
-@CrossOrigin(origins = "*") // Allow requests from any origin for testing
+@CrossOrigin(origins = "*", exposedHeaders = {PatientController.NEXT_CURSOR_HEADER, HttpHeaders.ETAG}) // Allow requests from any origin for testing
 public class PatientController {
     
-    private List<Patient> patients = new ArrayList<>();
+    static final String NEXT_CURSOR_HEADER = "X-Next-Cursor";
+    private static final int DEFAULT_PAGE_SIZE = 100;
+    private static final int MAX_PAGE_SIZE = 1000;
+    private static final int DEFAULT_SEARCH_RESULTS = 20;
+    private static final int MAX_SEARCH_RESULTS = 100;
+
+    private final PatientRegistry patients;
+    private final PatientStore patientStore;
+    private final AdherenceEventStore adherenceEvents;
+    private final AlertEngine alerts;
+    private final ExpectedDoseScheduler expectedDoses;
+    private final Clock clock;
+    private final ObjectMapper objectMapper;
+    //Versions restart with the process, so ETags from another run (or instance) must never match
+    private final String etagEpoch = Long.toHexString(ThreadLocalRandom.current().nextLong());
+    //Requests rejected because a field failed validation, per kind of entity
+    private final Counter invalidPatients;
+    private final Counter invalidAdherenceRecords;
+    private final Counter invalidMedications;
+
+    public PatientController(PatientRegistry patients, PatientStore patientStore, AdherenceEventStore adherenceEvents,
+                             AlertEngine alerts, ExpectedDoseScheduler expectedDoses, Clock clock,
+                             ObjectMapper objectMapper, MeterRegistry meterRegistry) {
+        this.patients = patients;
+        this.patientStore = patientStore;
+        this.adherenceEvents = adherenceEvents;
+        this.alerts = alerts;
+        this.expectedDoses = expectedDoses;
+        this.clock = clock;
+        this.objectMapper = objectMapper;
+        this.invalidPatients = validationFailures(meterRegistry, "patient");
+        this.invalidAdherenceRecords = validationFailures(meterRegistry, "adherence_record");
+        this.invalidMedications = validationFailures(meterRegistry, "medication");
+    }
+
+    static Counter validationFailures(MeterRegistry meterRegistry, String entity) {
+        return Counter.builder("adherence.validation.failures")
+                .description("Requests or batch items rejected because a field failed validation")
+                .tag("entity", entity)
+                .register(meterRegistry);
+    }
 
     /**
      * Creates a new patient.
      * @param request Contains patient details (firstName, lastName, age, email)
-     * @return ResponseEntity containing the created patient or bad request if validation fails
+     * @return ResponseEntity containing the created patient, bad request if validation fails
+     * or conflict if a patient with the same name and age already exists
      */
     @PostMapping("/patients")
     public ResponseEntity<Patient> createPatient(@RequestBody PatientRequest request) {
+        //Fast-path reject of known duplicates; the unique index in the database stays authoritative
+        if (!patients.reserveIdentity(request.getFirstName(), request.getLastName(), request.getAge())) {
+            return ResponseEntity.status(HttpStatus.CONFLICT).build();
+        }
+        boolean keepReservation = false;
         try {
             Patient patient = new Patient(
+                patientStore,
+                adherenceEvents,
                 request.getFirstName(),
                 request.getLastName(),
                 request.getAge(),
                 request.getEmail()
             );
             patients.add(patient);
+            keepReservation = true;
             return ResponseEntity.ok(patient);
+        } catch (DuplicatePatientException e) {
+            //Exists in the database, so the identity stays reserved
+            keepReservation = true;
+            return ResponseEntity.status(HttpStatus.CONFLICT).build();
         } catch (IllegalArgumentException e) {
+            invalidPatients.increment();
             return ResponseEntity.badRequest().build();
+        } finally {
+            if (!keepReservation) {
+                patients.releaseIdentity(request.getFirstName(), request.getLastName(), request.getAge());
+            }
         }
     }
 
     /**
-     * Retrieves all patients in the system.
-     * @return List of all patients
+     * Retrieves patients. Without parameters, returns all patients with their full records.
+     * With any of the parameters, returns one page of patients in id order (keyset pagination);
+     * the X-Next-Cursor response header carries the "after" value of the next page, if any.
+     * Responses carry the registry version as ETag; a request whose If-None-Match still matches
+     * gets 304 without anything being serialized.
+     * @param after id of the last patient of the previous page (omit for the first page)
+     * @param limit page size, 1 to 1000 (default 100)
+     * @param fields comma-separated fields to include, e.g. id,firstName,lastName
+     * @param view "summary" (all scalar fields, no records or schedule) or "full" (same as the unpaged beans)
+     * @param webRequest the request, for its If-None-Match header
+     * @return list of patients, not modified, or bad request if a parameter is invalid
      */
     @GetMapping("/patients")
-    public ResponseEntity<List<Patient>> getAllPatients() {
-        return ResponseEntity.ok(patients);
+    public ResponseEntity<?> getAllPatients(
+            @RequestParam(required = false) Integer after,
+            @RequestParam(required = false) Integer limit,
+            @RequestParam(required = false) String fields,
+            @RequestParam(required = false) String view,
+            WebRequest webRequest) {
+        //Read before the patients, so the tag is never newer than the body
+        if (webRequest.checkNotModified("\"" + etagEpoch + "-r" + patients.version() + "\"")) {
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED).cacheControl(CacheControl.noCache()).build();
+        }
+        if (after == null && limit == null && fields == null && view == null) {
+            return ResponseEntity.ok().cacheControl(CacheControl.noCache()).body(patients.getAll());
+        }
+        int pageSize = limit == null ? DEFAULT_PAGE_SIZE : limit;
+        boolean full = "full".equalsIgnoreCase(view);
+        if (pageSize < 1 || pageSize > MAX_PAGE_SIZE || (view != null && !full && !"summary".equalsIgnoreCase(view))
+                || (full && fields != null)) {
+            return ResponseEntity.badRequest().build();
+        }
+        Set<PatientProjection> projection;
+        try {
+            projection = fields == null ? PatientProjection.SUMMARY : PatientProjection.parse(fields);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().build();
+        }
+
+        //One extra patient tells whether there is a next page
+        List<Patient> page = patients.page(after == null ? 0 : after, pageSize + 1);
+        boolean hasMore = page.size() > pageSize;
+        if (hasMore) {
+            page = page.subList(0, pageSize);
+        }
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        try (JsonGenerator out = objectMapper.getFactory().createGenerator(body)) {
+            out.writeStartArray();
+            for (Patient patient : page) {
+                if (full) {
+                    objectMapper.writeValue(out, patient);
+                } else {
+                    PatientProjection.write(out, patient, projection);
+                }
+            }
+            out.writeEndArray();
+        } catch (IOException e) {
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build();
+        }
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON)
+                .cacheControl(CacheControl.noCache());
+        if (hasMore) {
+            response.header(NEXT_CURSOR_HEADER, String.valueOf(page.get(page.size() - 1).getId()));
+        }
+        return response.body(body.toByteArray());
+    }
+
+    /**
+     * Searches patients by the start of their first name, last name or email, ignoring case,
+     * from an in-memory index (see PatientRegistry.search). Every word of the query must match.
+     * @param q the words to search for, e.g. "all dol"
+     * @param limit maximum number of patients, 1 to 100 (default 20)
+     * @param fields comma-separated fields to include, e.g. id,firstName,lastName (default all scalar fields)
+     * @return the matching patients, or bad request if the query is blank or a parameter is invalid
+     */
+    @GetMapping("/patients/search")
+    public ResponseEntity<byte[]> searchPatients(
+            @RequestParam String q,
+            @RequestParam(required = false) Integer limit,
+            @RequestParam(required = false) String fields) {
+        int maxResults = limit == null ? DEFAULT_SEARCH_RESULTS : limit;
+        if (q.isBlank() || maxResults < 1 || maxResults > MAX_SEARCH_RESULTS) {
+            return ResponseEntity.badRequest().build();
+        }
+        Set<PatientProjection> projection;
+        try {
+            projection = fields == null ? PatientProjection.SUMMARY : PatientProjection.parse(fields);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().build();
+        }
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        try (JsonGenerator out = objectMapper.getFactory().createGenerator(body)) {
+            out.writeStartArray();
+            for (Patient patient : patients.search(q, maxResults)) {
+                PatientProjection.write(out, patient, projection);
+            }
+            out.writeEndArray();
+        } catch (IOException e) {
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build();
+        }
+        return ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON).cacheControl(CacheControl.noCache())
+                .body(body.toByteArray());
     }
 
     /**
@@ -64,10 +244,7 @@ public class PatientController {
             @RequestBody AdherenceRecordRequest request) {
         try {
             // Find patient by ID
-            Patient patient = patients.stream()
-                .filter(p -> p.getId() == id)
-                .findFirst()
-                .orElse(null);
+            Patient patient = patients.find(id);
 
             if (patient == null) {
                 return ResponseEntity.notFound().build();
@@ -79,45 +256,135 @@ public class PatientController {
                 request.getDosage()
             );
             patient.addAdherenceRecord(record);
+            expectedDoses.onRecord(id, record);
+            alerts.publish(id, record);
             return ResponseEntity.ok().build();
         } catch (IllegalArgumentException e) {
+            invalidAdherenceRecords.increment();
             return ResponseEntity.badRequest().build();
+        } catch (RejectedExecutionException e) {
+            //Write-behind queue is full; client should retry later
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).build();
         }
     }
 
     /**
-     * Retrieves all adherence records for a specific patient.
+     * Adds a medication to a patient's schedule (or changes it). Daily and weekly medications
+     * are then expected once per period; a dose not reported in time is recorded as missed.
+     * The schedule is stored with the patient, so its doses are still expected after a restart.
      * @param id The patient's ID
-     * @return List of adherence records for the patient or error status if patient not found
+     * @param request Contains schedule details (medicationName, timing, dosage)
+     * @return The patient's scheduled medications, bad request if validation fails
+     * or not found if the patient doesn't exist
      */
-    @GetMapping("/adherence/{id}")
-    public ResponseEntity<?> getAdherenceRecords(@PathVariable int id) {
+    @PostMapping("/patients/{id}/medications")
+    public ResponseEntity<Map<String, Map<String, Object>>> addMedication(
+            @PathVariable int id,
+            @RequestBody MedicationRequest request) {
+        Patient patient = patients.find(id);
+        if (patient == null) {
+            return ResponseEntity.notFound().build();
+        }
+        if (request.getTiming() == null) {
+            invalidMedications.increment();
+            return ResponseEntity.badRequest().build();
+        }
+        Frequency frequency;
         try {
-            // Find patient by ID
-            Patient patient = patients.stream()
-                .filter(p -> p.getId() == id)
-                .findFirst()
-                .orElse(null);
+            frequency = Patient.validateMedication(request.getMedicationName(), request.getTiming(), request.getDosage());
+        } catch (IllegalArgumentException e) {
+            invalidMedications.increment();
+            return ResponseEntity.badRequest().build();
+        }
+        //Stored before it is scheduled, so a failed write leaves no schedule the warm start would not restore
+        LocalDateTime scheduledAt = expectedDoses.newPeriodStart();
+        patientStore.saveMedication(id, request.getMedicationName(), frequency, request.getDosage(), scheduledAt);
+        patient.addMedication(request.getMedicationName(), request.getTiming(), request.getDosage());
+        expectedDoses.track(patient, request.getMedicationName(), scheduledAt);
+        return ResponseEntity.ok(patient.getScheduleMedications());
+    }
 
-            if (patient == null) {
-                return ResponseEntity.notFound().build();
-            }
+    /**
+     * Retrieves adherence statistics for a specific patient: taken/missed counts per medication,
+     * current and longest miss streaks and rolling 7 and 30 day adherence.
+     * @param id The patient's ID
+     * @return The patient's statistics or not found if the patient doesn't exist
+     */
+    @GetMapping("/patients/{id}/stats")
+    public ResponseEntity<PatientStats> getPatientStats(@PathVariable int id) {
+        Patient patient = patients.find(id);
+        if (patient == null) {
+            return ResponseEntity.notFound().build();
+        }
+        return ResponseEntity.ok(patient.computeStats(LocalDate.now(clock)));
+    }
+
+    /**
+     * Retrieves adherence records for a specific patient, oldest first, optionally filtered.
+     * The time range is found with a binary search over the time-ordered history and rows are
+     * streamed straight to the response, so latency does not grow with the patient's history.
+     * Responses carry the patient's version as ETag; a request whose If-None-Match still matches
+     * gets 304 without the history being read.
+     * @param id The patient's ID
+     * @param from only records taken at or after this time (ISO date-time)
+     * @param to only records taken at or before this time (ISO date-time)
+     * @param medication only records of this medication
+     * @param limit maximum number of records to return
+     * @param webRequest the request, for its If-None-Match header
+     * @return List of adherence records for the patient, not modified, or error status if patient not found
+     */
+    @GetMapping("/adherence/{id}")
+    public ResponseEntity<StreamingResponseBody> getAdherenceRecords(
+            @PathVariable int id,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime from,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime to,
+            @RequestParam(required = false) String medication,
+            @RequestParam(required = false) Integer limit,
+            WebRequest webRequest) {
+        // Find patient by ID
+        Patient patient = patients.find(id);
 
-            // Get adherence records for the patient
-            List<Map<String, Object>> records = patient.getAdherenceRecords().stream()
-                .map(record -> {
-                    Map<String, Object> recordMap = new HashMap<>();
-                    recordMap.put("date", record.getTimeTaken());
-                    recordMap.put("medicationName", record.getMedicationName());
-                    recordMap.put("dosage", record.getDosage());
-                    return recordMap;
-                })
-                .collect(Collectors.toList());
-
-            return ResponseEntity.ok(records);
-        } catch (Exception e) {
+        if (patient == null) {
+            return ResponseEntity.notFound().build();
+        }
+        if (limit != null && limit < 0) {
             return ResponseEntity.badRequest().build();
         }
+        //Read before the history, so the tag is never newer than the body
+        if (webRequest.checkNotModified("\"" + etagEpoch + "-" + id + "v" + patient.currentVersion() + "\"")) {
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED).cacheControl(CacheControl.noCache()).build();
+        }
+
+        // Narrow the history to the requested time range
+        int fromMinute = from == null ? Integer.MIN_VALUE : AdherenceHistory.toEpochMinute(from);
+        //Archived segments entirely before the range aren't read back
+        AdherenceHistory.View history = patient.viewAdherenceRecordsFrom(fromMinute);
+        int toMinute = to == null ? Integer.MAX_VALUE : AdherenceHistory.toEpochMinute(to);
+        int start = history.fromIndex(fromMinute);
+        int medicationId = medication == null ? -1 : history.medicationIdOf(medication);
+        //An unknown medication matches nothing
+        int end = medication != null && medicationId < 0 ? start : history.toIndex(toMinute);
+        int maxRows = limit == null ? Integer.MAX_VALUE : limit;
+
+        StreamingResponseBody body = outputStream -> {
+            try (JsonGenerator out = objectMapper.getFactory().createGenerator(outputStream)) {
+                out.writeStartArray();
+                int written = 0;
+                for (int i = start; i < end && written < maxRows; i++) {
+                    if (medicationId >= 0 && history.medicationId(i) != medicationId) {
+                        continue;
+                    }
+                    out.writeStartObject();
+                    out.writeStringField("date", DateTimeFormatter.ISO_LOCAL_DATE_TIME.format(history.timeTaken(i)));
+                    out.writeStringField("medicationName", history.medicationName(i));
+                    out.writeNumberField("dosage", history.dosage(i));
+                    out.writeEndObject();
+                    written++;
+                }
+                out.writeEndArray();
+            }
+        };
+        return ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON).cacheControl(CacheControl.noCache()).body(body);
     }
 }
 
@@ -178,4 +445,34 @@ class AdherenceRecordRequest {
     public void setDosage(int dosage) {
         this.dosage = dosage; 
     }
-} 
\ No newline at end of file
+}
+
+/**
+ * Object for medication schedule requests.
+ * Contains the medication and how often and how much of it is to be taken.
+ */
+class MedicationRequest {
+    private String medicationName;
+    private String timing;
+    private int dosage;
+
+    // Getters and setters
+    public String getMedicationName() {
+        return medicationName;
+    }
+    public void setMedicationName(String medicationName) {
+        this.medicationName = medicationName;
+    }
+    public String getTiming() {
+        return timing;
+    }
+    public void setTiming(String timing) {
+        this.timing = timing;
+    }
+    public int getDosage() {
+        return dosage;
+    }
+    public void setDosage(int dosage) {
+        this.dosage = dosage;
+    }
+}
@@ -0,0 +1,106 @@
+package com.medicationadherence.controller;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.medicationadherence.model.Patient;
+
+import java.io.IOException;
+import java.util.EnumSet;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * The scalar patient fields a listing can be projected to (the fields= parameter).
+ * Projected patients are written straight to a JSON generator, so the cost per patient
+ * does not depend on the size of the patient's adherence history.
+ */
+enum PatientProjection {
+    ID("id"),
+    FIRST_NAME("firstName"),
+    LAST_NAME("lastName"),
+    AGE("age"),
+    EMAIL("email"),
+    MISSED_DOSES("missedDoses"),
+    ADHERENCE_PERCENTAGE("adherencePercentage"),
+    MISSED_DOSE_NOTIS("missedDoseNotis");
+
+    //Summary view: every scalar field, no records or schedule
+    static final Set<PatientProjection> SUMMARY = EnumSet.allOf(PatientProjection.class);
+
+    private final String fieldName;
+
+    PatientProjection(String fieldName) {
+        this.fieldName = fieldName;
+    }
+
+    /**
+     * Parses a comma-separated list of field names, e.g. "id,firstName,lastName"
+     * @param fields the field names
+     * @return the selected fields
+     * @throws IllegalArgumentException if a field name is unknown
+     */
+    static Set<PatientProjection> parse(String fields) {
+        Set<PatientProjection> selected = EnumSet.noneOf(PatientProjection.class);
+        for (String name : fields.split(",")) {
+            String trimmed = name.trim();
+            if (trimmed.isEmpty()) {
+                continue;
+            }
+            selected.add(byFieldName(trimmed));
+        }
+        if (selected.isEmpty()) {
+            throw new IllegalArgumentException("No fields selected");
+        }
+        return selected;
+    }
+
+    private static PatientProjection byFieldName(String fieldName) {
+        for (PatientProjection projection : values()) {
+            if (projection.fieldName.equalsIgnoreCase(fieldName)) {
+                return projection;
+            }
+        }
+        throw new IllegalArgumentException("Unknown field: " + fieldName.toLowerCase(Locale.ROOT));
+    }
+
+    /**
+     * Writes the selected fields of a patient as one JSON object
+     * @param out the generator to write to
+     * @param patient the patient to write
+     * @param fields the fields to include
+     * @throws IOException if writing fails
+     */
+    static void write(JsonGenerator out, Patient patient, Set<PatientProjection> fields) throws IOException {
+        out.writeStartObject();
+        for (PatientProjection field : fields) {
+            switch (field) {
+                case ID:
+                    out.writeNumberField(field.fieldName, patient.getId());
+                    break;
+                case FIRST_NAME:
+                    out.writeStringField(field.fieldName, patient.getFirstName());
+                    break;
+                case LAST_NAME:
+                    out.writeStringField(field.fieldName, patient.getLastName());
+                    break;
+                case AGE:
+                    out.writeNumberField(field.fieldName, patient.getAge());
+                    break;
+                case EMAIL:
+                    out.writeStringField(field.fieldName, patient.getEmail());
+                    break;
+                case MISSED_DOSES:
+                    out.writeNumberField(field.fieldName, patient.getMissedDoses());
+                    break;
+                case ADHERENCE_PERCENTAGE:
+                    out.writeNumberField(field.fieldName, patient.getAdherencePercentage());
+                    break;
+                case MISSED_DOSE_NOTIS:
+                    out.writeNumberField(field.fieldName, patient.getMissedDoseNotis());
+                    break;
+                default:
+                    throw new IllegalStateException("Unhandled field " + field);
+            }
+        }
+        out.writeEndObject();
+    }
+}
@@ -0,0 +1,50 @@
+package com.medicationadherence.controller;
+
+import com.medicationadherence.service.WarmStartLoader;
+import org.springframework.context.annotation.Profile;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+
+/**
+ * Answers API requests with 503 Service Unavailable while the WarmStartLoader is still filling the
+ * registry, so no client sees a partial list of patients or has a record rejected for a patient
+ * that is not loaded yet. Static pages and /actuator stay reachable, so the liveness and readiness
+ * probes keep answering during the warm start.
+ */
+@Component
+@Profile("!in-memory")
+public class WarmStartFilter extends OncePerRequestFilter {
+
+    //Seconds; a client retrying right away would only add to the load
+    private static final String RETRY_AFTER = "5";
+
+    private final WarmStartLoader warmStart;
+
+    public WarmStartFilter(WarmStartLoader warmStart) {
+        this.warmStart = warmStart;
+    }
+
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request) {
+        return !request.getRequestURI().startsWith(request.getContextPath() + "/api/");
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+            throws ServletException, IOException {
+        if (warmStart.isLoading()) {
+            response.setHeader(HttpHeaders.RETRY_AFTER, RETRY_AFTER);
+            response.sendError(HttpStatus.SERVICE_UNAVAILABLE.value(), "Warm start in progress");
+            return;
+        }
+        chain.doFilter(request, response);
+    }
+}
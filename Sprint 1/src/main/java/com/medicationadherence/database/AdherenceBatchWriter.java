@@ -0,0 +1,17 @@
+package com.medicationadherence.database;
+
+import java.sql.SQLException;
+import java.util.List;
+
+/**
+ * Persists one batch of adherence records as a single unit (one group commit).
+ */
+@FunctionalInterface
+public interface AdherenceBatchWriter {
+    /**
+     * Writes all records of the batch, or none of them
+     * @param batch the records to write, in arrival order
+     * @throws SQLException if the batch could not be written
+     */
+    void write(List<PendingAdherenceRecord> batch) throws SQLException;
+}
@@ -0,0 +1,293 @@
+package com.medicationadherence.database;
+
+import com.medicationadherence.model.AdherenceRecord;
+import com.medicationadherence.storage.AdherenceEventStore;
+import com.medicationadherence.storage.DurabilityMode;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Write-behind stage for adherence records.
+ * Records from all patients are buffered in a bounded queue and flushed by a single
+ * background thread as batched inserts (one group commit per batch). A batch is flushed
+ * when it reaches the batch size or when the flush interval has passed since its first record.
+ * A batch that fails is retried with exponential backoff until it is written, ahead of the
+ * records queued after it, so records are never dropped while the database is unavailable: the
+ * queue fills up and new records are refused instead. Records the database refuses for good
+ * (see SqlFailures) are written one by one to find them, then logged and counted as failed.
+ * Remaining records are flushed when the application shuts down.
+ * This is the mysql AdherenceEventStore unless adherence.journal.enabled is true.
+ */
+@Component
+@Profile("!in-memory")
+@ConditionalOnProperty(name = "adherence.journal.enabled", havingValue = "false", matchIfMissing = true)
+public class AdherenceWriteBehind implements AdherenceEventStore, MeterBinder {
+
+    private static final Logger log = LoggerFactory.getLogger(AdherenceWriteBehind.class);
+    private static final long MAX_BACKOFF_MILLIS = 5000;
+    //Attempts per batch once shutdown has begun, before its records are reported as not flushed
+    private static final int SHUTDOWN_ATTEMPTS = 3;
+
+    private final AdherenceBatchWriter writer;
+    private final BlockingQueue<PendingAdherenceRecord> queue;
+    //One permit per record that may still be queued or in the batch being flushed
+    private final Semaphore room;
+    private final int batchSize;
+    private final long flushIntervalMillis;
+    private final long enqueueTimeoutMillis;
+    private final DurabilityMode durability;
+    private final Thread flusher;
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder failedAttempts = new LongAdder();
+    private volatile boolean running = true;
+
+    public AdherenceWriteBehind(AdherenceBatchWriter writer,
+                                @Value("${adherence.write-behind.queue-capacity:10000}") int queueCapacity,
+                                @Value("${adherence.write-behind.batch-size:500}") int batchSize,
+                                @Value("${adherence.write-behind.flush-interval-ms:50}") long flushIntervalMillis,
+                                @Value("${adherence.write-behind.enqueue-timeout-ms:1000}") long enqueueTimeoutMillis,
+                                @Value("${adherence.write-behind.durability:ENQUEUE}") DurabilityMode durability) {
+        if (queueCapacity <= 0 || batchSize <= 0 || flushIntervalMillis <= 0 || enqueueTimeoutMillis < 0) {
+            throw new IllegalArgumentException("Invalid write-behind configuration");
+        }
+        this.writer = writer;
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+        this.room = new Semaphore(queueCapacity);
+        this.batchSize = batchSize;
+        this.flushIntervalMillis = flushIntervalMillis;
+        this.enqueueTimeoutMillis = enqueueTimeoutMillis;
+        this.durability = durability;
+        this.flusher = new Thread(this::flushLoop, "adherence-write-behind");
+        this.flusher.setDaemon(true);
+        this.flusher.start();
+    }
+
+    /**
+     * Waits for at most the enqueue timeout until the queue has room for a record
+     * @throws RejectedExecutionException if the queue stayed full (backpressure)
+     */
+    @Override
+    public void awaitCapacity() {
+        try {
+            if (!room.tryAcquire(enqueueTimeoutMillis, TimeUnit.MILLISECONDS)) {
+                rejected.increment();
+                throw new RejectedExecutionException("Adherence write-behind queue is full");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RejectedExecutionException("Interrupted while waiting for the adherence write-behind queue", e);
+        }
+        //Only waited for room; append takes it
+        room.release();
+    }
+
+    /**
+     * Queues a record for insertion. Never blocks: callers wait for room with awaitCapacity first.
+     * @param patientId the id of the patient the record belongs to
+     * @param record the record to insert
+     * @return a future completed when the record's batch is committed
+     * @throws RejectedExecutionException if the queue is full (backpressure) or the stage is shut down
+     */
+    @Override
+    public CompletableFuture<Void> append(int patientId, AdherenceRecord record) {
+        if (!running) {
+            throw new RejectedExecutionException("Adherence write-behind is shut down");
+        }
+        if (!room.tryAcquire()) {
+            rejected.increment();
+            throw new RejectedExecutionException("Adherence write-behind queue is full");
+        }
+        PendingAdherenceRecord pending = new PendingAdherenceRecord(patientId, record);
+        //Can't fail: every queued record holds a permit
+        queue.add(pending);
+        return pending.getCommitted();
+    }
+
+    /**
+     * Gets the configured durability mode
+     * @return whether callers should wait for the commit before acknowledging
+     */
+    @Override
+    public DurabilityMode getDurability() {
+        return durability;
+    }
+
+    /**
+     * Gets the number of records waiting to be flushed
+     * @return the current queue depth
+     */
+    public int getQueueDepth() {
+        return queue.size();
+    }
+
+    @Override
+    public void bindTo(MeterRegistry meterRegistry) {
+        Gauge.builder("adherence.write_behind.queue", queue, BlockingQueue::size)
+                .description("Adherence records waiting to be flushed")
+                .baseUnit("records")
+                .register(meterRegistry);
+        FunctionCounter.builder("adherence.write_behind.rejected", rejected, LongAdder::sum)
+                .description("Adherence records refused because the queue stayed full")
+                .baseUnit("records")
+                .register(meterRegistry);
+        FunctionCounter.builder("adherence.write_behind.failed", failed, LongAdder::sum)
+                .description("Adherence records refused by the database for good, or not flushed before shutdown")
+                .baseUnit("records")
+                .register(meterRegistry);
+        FunctionCounter.builder("adherence.write_behind.failed_attempts", failedAttempts, LongAdder::sum)
+                .description("Batch inserts that failed and were retried")
+                .register(meterRegistry);
+    }
+
+    private void flushLoop() {
+        List<PendingAdherenceRecord> batch = new ArrayList<>(batchSize);
+        while (running || !queue.isEmpty()) {
+            try {
+                PendingAdherenceRecord first = queue.poll(flushIntervalMillis, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                //Keep collecting until the batch is full or the flush interval since the first record ran out
+                long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(flushIntervalMillis);
+                while (batch.size() < batchSize) {
+                    queue.drainTo(batch, batchSize - batch.size());
+                    long remaining = deadline - System.nanoTime();
+                    if (batch.size() >= batchSize || remaining <= 0 || !running) {
+                        break;
+                    }
+                    PendingAdherenceRecord next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+                    if (next != null) {
+                        batch.add(next);
+                    }
+                }
+            } catch (InterruptedException e) {
+                //Flush whatever has been collected
+                queue.drainTo(batch, batchSize - batch.size());
+            }
+            if (!batch.isEmpty()) {
+                int size = batch.size();
+                flush(batch);
+                batch.clear();
+                room.release(size);
+            }
+        }
+    }
+
+    //Returns once every record of the batch is written or reported as failed; the batch is emptied
+    private void flush(List<PendingAdherenceRecord> batch) {
+        long backoffMillis = flushIntervalMillis;
+        int shutdownAttempts = 0;
+        while (true) {
+            try {
+                try {
+                    writer.write(batch);
+                    complete(batch);
+                } catch (SQLException e) {
+                    if (!SqlFailures.isPermanent(e)) {
+                        throw e;
+                    }
+                    //Some record in the batch can never be written; find it and write the others
+                    writeOneByOne(batch);
+                }
+                return;
+            } catch (SQLException e) {
+                failedAttempts.increment();
+                if (!running && ++shutdownAttempts >= SHUTDOWN_ATTEMPTS) {
+                    log.error("Adherence batch insert failed during shutdown, {} records were not flushed", batch.size(), e);
+                    fail(batch, e);
+                    return;
+                }
+                log.warn("Adherence batch insert failed, retrying {} records in {} ms", batch.size(), backoffMillis, e);
+                if (!sleep(backoffMillis)) {
+                    fail(batch, e);
+                    return;
+                }
+                backoffMillis = Math.min(MAX_BACKOFF_MILLIS, backoffMillis * 2);
+            }
+        }
+    }
+
+    //Leaves the records not written yet in the batch if a write fails for a reason that can pass
+    private void writeOneByOne(List<PendingAdherenceRecord> batch) throws SQLException {
+        Iterator<PendingAdherenceRecord> records = batch.iterator();
+        while (records.hasNext()) {
+            PendingAdherenceRecord pending = records.next();
+            try {
+                writer.write(Collections.singletonList(pending));
+                pending.getCommitted().complete(null);
+            } catch (SQLException e) {
+                if (!SqlFailures.isPermanent(e)) {
+                    throw e;
+                }
+                log.error("Skipping adherence record of patient {} refused by the database ({})",
+                        pending.getPatientId(), e.getMessage());
+                fail(Collections.singletonList(pending), e);
+            }
+            records.remove();
+        }
+    }
+
+    private static void complete(List<PendingAdherenceRecord> batch) {
+        for (PendingAdherenceRecord pending : batch) {
+            pending.getCommitted().complete(null);
+        }
+        batch.clear();
+    }
+
+    private void fail(List<PendingAdherenceRecord> records, SQLException failure) {
+        failed.add(records.size());
+        for (PendingAdherenceRecord pending : records) {
+            pending.getCommitted().completeExceptionally(failure);
+        }
+    }
+
+    private static boolean sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+            return true;
+        } catch (InterruptedException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Stops accepting records and flushes everything still queued before the pool is closed.
+     */
+    @PreDestroy
+    public void shutdown() {
+        //The flusher notices within one flush interval and drains the queue before exiting
+        running = false;
+        try {
+            flusher.join(TimeUnit.SECONDS.toMillis(30));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (!queue.isEmpty()) {
+            log.error("{} adherence records were not flushed before shutdown", queue.size());
+        }
+    }
+}
@@ -0,0 +1,198 @@
+package com.medicationadherence.database;
+
+import com.medicationadherence.model.AdherenceRecord;
+import com.medicationadherence.storage.RollupPeriod;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Component;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLDataException;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writes adherence record batches to mysql as one JDBC batch in one transaction.
+ * With rewriteBatchedStatements enabled the driver sends the batch as multi-row inserts.
+ * The same transaction adds the batch to the daily and weekly rollup tables with one upsert
+ * per (patient, medication, period), so the rollups always agree with AdherenceRecords.
+ */
+@Component
+@Profile("!in-memory")
+public class JdbcAdherenceBatchWriter implements AdherenceBatchWriter {
+
+    private static final String INSERT_ADHERENCE_RECORD_SQL =
+            "INSERT INTO AdherenceRecords (patientId, medicationName, medicationId, dosage, taken, timeTaken, journalSeq) VALUES (?, ?, ?, ?, ?, ?, ?)";
+    private static final String INSERT_MEDICATION_SQL = "INSERT IGNORE INTO Medications (name) VALUES (?)";
+    private static final String SELECT_MEDICATION_SQL = "SELECT id FROM Medications WHERE name = ?";
+    private static final String UPSERT_ROLLUP_SQL =
+            "INSERT INTO %s (patientId, %s, medicationId, taken, missed, takenDosage, missedDosage) VALUES (?, ?, ?, ?, ?, ?, ?) "
+                    + "ON DUPLICATE KEY UPDATE taken = taken + VALUES(taken), missed = missed + VALUES(missed), "
+                    + "takenDosage = takenDosage + VALUES(takenDosage), missedDosage = missedDosage + VALUES(missedDosage)";
+    private static final String UPSERT_DAILY_ROLLUP_SQL = String.format(UPSERT_ROLLUP_SQL, "DailyAdherenceRollup", "day");
+    private static final String UPSERT_WEEKLY_ROLLUP_SQL = String.format(UPSERT_ROLLUP_SQL, "WeeklyAdherenceRollup", "weekStart");
+
+    private final DataSource dataSource;
+    //Medications dimension ids; only names never seen before cost a lookup
+    private final ConcurrentHashMap<String, Integer> medicationIds = new ConcurrentHashMap<>();
+    private final Timer writeTimer;
+    private final Timer failedWriteTimer;
+    private final DistributionSummary batchSizes;
+
+    public JdbcAdherenceBatchWriter(DataSource dataSource, MeterRegistry meterRegistry) {
+        this.dataSource = dataSource;
+        this.writeTimer = batchWriteTimer(meterRegistry, "success");
+        this.failedWriteTimer = batchWriteTimer(meterRegistry, "failure");
+        this.batchSizes = DistributionSummary.builder("adherence.db.batch.size")
+                .description("Adherence records per batch transaction")
+                .baseUnit("records")
+                .register(meterRegistry);
+    }
+
+    @Override
+    public void write(List<PendingAdherenceRecord> batch) throws SQLException {
+        batchSizes.record(batch.size());
+        long start = System.nanoTime();
+        boolean written = false;
+        try {
+            writeBatch(batch);
+            written = true;
+        } finally {
+            (written ? writeTimer : failedWriteTimer).record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    private static Timer batchWriteTimer(MeterRegistry meterRegistry, String outcome) {
+        return Timer.builder("adherence.db.batch.write")
+                .description("Adherence record batch transactions (inserts and rollup upserts), including the wait for a pooled connection")
+                .tag("outcome", outcome)
+                .register(meterRegistry);
+    }
+
+    private void writeBatch(List<PendingAdherenceRecord> batch) throws SQLException {
+        try (Connection connection = dataSource.getConnection()) {
+            //Resolved before the transaction, so a rolled-back batch never leaves a stale id in the cache
+            int[] batchMedicationIds = new int[batch.size()];
+            for (int i = 0; i < batch.size(); i++) {
+                batchMedicationIds[i] = medicationId(connection, batch.get(i).getRecord().getMedicationName());
+            }
+            connection.setAutoCommit(false);
+            try (PreparedStatement pstmt = connection.prepareStatement(INSERT_ADHERENCE_RECORD_SQL)) {
+                for (int i = 0; i < batch.size(); i++) {
+                    PendingAdherenceRecord pending = batch.get(i);
+                    AdherenceRecord record = pending.getRecord();
+                    pstmt.setInt(1, pending.getPatientId());
+                    pstmt.setString(2, record.getMedicationName());
+                    pstmt.setInt(3, batchMedicationIds[i]);
+                    pstmt.setInt(4, record.getDosage());
+                    pstmt.setBoolean(5, record.isTaken());
+                    pstmt.setTimestamp(6, Timestamp.valueOf(record.getTimeTaken()));
+                    if (pending.getJournalSequence() > 0) {
+                        pstmt.setLong(7, pending.getJournalSequence());
+                    } else {
+                        pstmt.setNull(7, Types.BIGINT);
+                    }
+                    pstmt.addBatch();
+                }
+                pstmt.executeBatch();
+                upsertRollups(connection, UPSERT_DAILY_ROLLUP_SQL, RollupPeriod.DAY, batch, batchMedicationIds);
+                upsertRollups(connection, UPSERT_WEEKLY_ROLLUP_SQL, RollupPeriod.WEEK, batch, batchMedicationIds);
+                connection.commit();
+            } catch (SQLException e) {
+                connection.rollback();
+                throw e;
+            } finally {
+                connection.setAutoCommit(true);
+            }
+        }
+    }
+
+    //Sums the batch per rollup row first, so a patient reporting many doses a day costs one upsert
+    private static void upsertRollups(Connection connection, String sql, RollupPeriod period,
+                                      List<PendingAdherenceRecord> batch, int[] batchMedicationIds) throws SQLException {
+        //Sorted, so concurrent writers and the backfill lock rollup rows in the same order
+        TreeMap<RollupKey, long[]> sums = new TreeMap<>();
+        for (int i = 0; i < batch.size(); i++) {
+            AdherenceRecord record = batch.get(i).getRecord();
+            RollupKey key = new RollupKey(batch.get(i).getPatientId(),
+                    period.start(record.getTimeTaken().toLocalDate()), batchMedicationIds[i]);
+            long[] sum = sums.computeIfAbsent(key, k -> new long[4]);
+            int column = record.isTaken() ? 0 : 1;
+            sum[column]++;
+            sum[column + 2] += record.getDosage();
+        }
+        try (PreparedStatement pstmt = connection.prepareStatement(sql)) {
+            for (Map.Entry<RollupKey, long[]> entry : sums.entrySet()) {
+                RollupKey key = entry.getKey();
+                long[] sum = entry.getValue();
+                pstmt.setInt(1, key.patientId);
+                pstmt.setDate(2, Date.valueOf(key.periodStart));
+                pstmt.setInt(3, key.medicationId);
+                pstmt.setLong(4, sum[0]);
+                pstmt.setLong(5, sum[1]);
+                pstmt.setLong(6, sum[2]);
+                pstmt.setLong(7, sum[3]);
+                pstmt.addBatch();
+            }
+            pstmt.executeBatch();
+        }
+    }
+
+    //Resolves a medication's id in the Medications table, adding the medication if it's new
+    private int medicationId(Connection connection, String medicationName) throws SQLException {
+        Integer cached = medicationIds.get(medicationName);
+        if (cached != null) {
+            return cached;
+        }
+        try (PreparedStatement insert = connection.prepareStatement(INSERT_MEDICATION_SQL);
+             PreparedStatement select = connection.prepareStatement(SELECT_MEDICATION_SQL)) {
+            insert.setString(1, medicationName);
+            insert.executeUpdate();
+            select.setString(1, medicationName);
+            try (ResultSet rs = select.executeQuery()) {
+                if (!rs.next()) {
+                    //INSERT IGNORE stored something else, e.g. a name truncated to the column width
+                    throw new SQLDataException("Medication " + medicationName + " missing after insert", "22001");
+                }
+                int id = rs.getInt(1);
+                medicationIds.put(medicationName, id);
+                return id;
+            }
+        }
+    }
+
+    //Primary key of a rollup row, in the tables' key order
+    private static final class RollupKey implements Comparable<RollupKey> {
+        private final int patientId;
+        private final LocalDate periodStart;
+        private final int medicationId;
+
+        RollupKey(int patientId, LocalDate periodStart, int medicationId) {
+            this.patientId = patientId;
+            this.periodStart = periodStart;
+            this.medicationId = medicationId;
+        }
+
+        @Override
+        public int compareTo(RollupKey other) {
+            int c = Integer.compare(patientId, other.patientId);
+            if (c == 0) {
+                c = periodStart.compareTo(other.periodStart);
+            }
+            return c != 0 ? c : Integer.compare(medicationId, other.medicationId);
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package com.medicationadherence.database;
+
+import com.medicationadherence.storage.AdherenceRollup;
+import com.medicationadherence.storage.AdherenceRollupStore;
+import com.medicationadherence.storage.RollupPeriod;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Component;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads rollups from the DailyAdherenceRollup and WeeklyAdherenceRollup tables: a primary key
+ * range read of one patient, instead of a scan and GROUP BY over the patient's AdherenceRecords.
+ * Records still waiting in the write-behind queue are not included yet.
+ */
+@Component
+@Profile("!in-memory")
+public class JdbcAdherenceRollupStore implements AdherenceRollupStore {
+
+    private static final String SELECT_ROLLUPS_SQL =
+            "SELECT r.%2$s, m.name, r.taken, r.missed, r.takenDosage, r.missedDosage FROM %1$s r "
+                    + "JOIN Medications m ON m.id = r.medicationId "
+                    + "WHERE r.patientId = ? AND r.%2$s BETWEEN ? AND ? ORDER BY r.%2$s, m.name";
+    private static final String SELECT_DAILY_ROLLUPS_SQL = String.format(SELECT_ROLLUPS_SQL, "DailyAdherenceRollup", "day");
+    private static final String SELECT_WEEKLY_ROLLUPS_SQL = String.format(SELECT_ROLLUPS_SQL, "WeeklyAdherenceRollup", "weekStart");
+    //Range of the mysql DATE type, for open bounds
+    private static final LocalDate MIN_DATE = LocalDate.of(1000, 1, 1);
+    private static final LocalDate MAX_DATE = LocalDate.of(9999, 12, 31);
+
+    private final DataSource dataSource;
+
+    public JdbcAdherenceRollupStore(DataSource dataSource) {
+        this.dataSource = dataSource;
+    }
+
+    @Override
+    public List<AdherenceRollup> rollups(int patientId, RollupPeriod period, LocalDate from, LocalDate to) {
+        List<AdherenceRollup> rollups = new ArrayList<>();
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement pstmt = connection.prepareStatement(
+                     period == RollupPeriod.DAY ? SELECT_DAILY_ROLLUPS_SQL : SELECT_WEEKLY_ROLLUPS_SQL)) {
+            pstmt.setInt(1, patientId);
+            pstmt.setDate(2, Date.valueOf(from == null ? MIN_DATE : from));
+            pstmt.setDate(3, Date.valueOf(to == null ? MAX_DATE : to));
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    rollups.add(new AdherenceRollup(rs.getDate(1).toLocalDate(), rs.getString(2),
+                            rs.getInt(3), rs.getInt(4), rs.getLong(5), rs.getLong(6)));
+                }
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException("Issue with reading adherence rollups from database", e);
+        }
+        return rollups;
+    }
+}
@@ -0,0 +1,50 @@
+package com.medicationadherence.database;
+
+import com.medicationadherence.alert.Alert;
+import com.medicationadherence.alert.AlertSink;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Component;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+
+/**
+ * Records alerts in the mysql Alerts table.
+ */
+@Component
+@Profile("!in-memory")
+@ConditionalOnProperty(name = "adherence.alerts.jdbc.enabled", matchIfMissing = true)
+public class JdbcAlertSink implements AlertSink {
+
+    private static final String INSERT_ALERT_SQL =
+            "INSERT INTO Alerts (patientId, medicationName, misses, firstMissedAt, lastMissedAt, raisedAt) VALUES (?, ?, ?, ?, ?, ?)";
+
+    private final DataSource dataSource;
+
+    public JdbcAlertSink(DataSource dataSource) {
+        this.dataSource = dataSource;
+    }
+
+    @Override
+    public String getName() {
+        return "jdbc";
+    }
+
+    @Override
+    public void deliver(Alert alert) throws SQLException {
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement pstmt = connection.prepareStatement(INSERT_ALERT_SQL)) {
+            pstmt.setInt(1, alert.getPatientId());
+            pstmt.setString(2, alert.getMedicationName());
+            pstmt.setInt(3, alert.getMisses());
+            pstmt.setTimestamp(4, Timestamp.valueOf(alert.getFirstMissedAt()));
+            pstmt.setTimestamp(5, Timestamp.valueOf(alert.getLastMissedAt()));
+            pstmt.setTimestamp(6, Timestamp.valueOf(alert.getRaisedAt()));
+            pstmt.executeUpdate();
+        }
+    }
+}
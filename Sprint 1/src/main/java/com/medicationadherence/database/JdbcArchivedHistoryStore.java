@@ -0,0 +1,116 @@
+package com.medicationadherence.database;
+
+import com.medicationadherence.storage.ArchivedHistoryStore;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Component;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Archival cutoffs in the ArchivedHistory table, committed in the same transaction that deletes
+ * the archived rows from AdherenceRecords.
+ * The highest journal sequence among the deleted rows is kept with the cutoff, because the
+ * adherence journal's replay checkpoint is the highest sequence the database has seen.
+ * The rows are locked and counted first: if there are more than were archived, some were never
+ * written to the segment and nothing is deleted.
+ * Rows are only deleted once the rollup backfill has finished, since it rebuilds rollups from
+ * AdherenceRecords.
+ */
+@Component
+@Profile("!in-memory")
+public class JdbcArchivedHistoryStore implements ArchivedHistoryStore {
+
+    private static final String SELECT_CUTOFFS_SQL = "SELECT patientId, archivedBefore FROM ArchivedHistory";
+    private static final String SELECT_ARCHIVED_SQL =
+            "SELECT COUNT(*), COALESCE(MAX(journalSeq), 0) FROM AdherenceRecords WHERE patientId = ? AND timeTaken < ? FOR UPDATE";
+    private static final String DELETE_ARCHIVED_SQL = "DELETE FROM AdherenceRecords WHERE patientId = ? AND timeTaken < ?";
+    private static final String UPSERT_CUTOFF_SQL =
+            "INSERT INTO ArchivedHistory (patientId, archivedBefore, journalSeq) VALUES (?, ?, ?) "
+                    + "ON DUPLICATE KEY UPDATE archivedBefore = VALUES(archivedBefore), journalSeq = GREATEST(journalSeq, VALUES(journalSeq))";
+
+    private final DataSource dataSource;
+
+    //The schema migrator is only a dependency so the ArchivedHistory table exists first
+    public JdbcArchivedHistoryStore(DataSource dataSource, SchemaMigrator schema) {
+        this.dataSource = dataSource;
+    }
+
+    @Override
+    public Map<Integer, LocalDateTime> archivedBefore() {
+        Map<Integer, LocalDateTime> cutoffs = new HashMap<>();
+        try (Connection connection = dataSource.getConnection();
+             Statement statement = connection.createStatement();
+             ResultSet rs = statement.executeQuery(SELECT_CUTOFFS_SQL)) {
+            while (rs.next()) {
+                cutoffs.put(rs.getInt(1), rs.getTimestamp(2).toLocalDateTime());
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException("Issue with reading archived history from database", e);
+        }
+        return cutoffs;
+    }
+
+    @Override
+    public boolean commitArchive(int patientId, LocalDateTime before, int archivedRecords) {
+        Timestamp cutoff = Timestamp.valueOf(before);
+        try (Connection connection = dataSource.getConnection()) {
+            connection.setAutoCommit(false);
+            try {
+                if (!backfillCompleted(connection)) {
+                    connection.rollback();
+                    return false;
+                }
+                long journalSeq;
+                try (PreparedStatement pstmt = connection.prepareStatement(SELECT_ARCHIVED_SQL)) {
+                    pstmt.setInt(1, patientId);
+                    pstmt.setTimestamp(2, cutoff);
+                    try (ResultSet rs = pstmt.executeQuery()) {
+                        rs.next();
+                        if (rs.getLong(1) > archivedRecords) {
+                            connection.rollback();
+                            throw new IllegalStateException("Patient " + patientId + " has " + rs.getLong(1)
+                                    + " stored records before the cutoff but only " + archivedRecords + " were archived");
+                        }
+                        journalSeq = rs.getLong(2);
+                    }
+                }
+                try (PreparedStatement pstmt = connection.prepareStatement(DELETE_ARCHIVED_SQL)) {
+                    pstmt.setInt(1, patientId);
+                    pstmt.setTimestamp(2, cutoff);
+                    pstmt.executeUpdate();
+                }
+                try (PreparedStatement pstmt = connection.prepareStatement(UPSERT_CUTOFF_SQL)) {
+                    pstmt.setInt(1, patientId);
+                    pstmt.setTimestamp(2, cutoff);
+                    pstmt.setLong(3, journalSeq);
+                    pstmt.executeUpdate();
+                }
+                connection.commit();
+                return true;
+            } catch (SQLException e) {
+                connection.rollback();
+                throw e;
+            } finally {
+                connection.setAutoCommit(true);
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException("Issue with archiving adherence records in database", e);
+        }
+    }
+
+    private static boolean backfillCompleted(Connection connection) throws SQLException {
+        try (Statement statement = connection.createStatement();
+             ResultSet rs = statement.executeQuery("SELECT completedAt FROM RollupBackfill WHERE id = 1")) {
+            return rs.next() && rs.getTimestamp(1) != null;
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package com.medicationadherence.database;
+
+import com.medicationadherence.model.DuplicatePatientException;
+import com.medicationadherence.model.Frequency;
+import com.medicationadherence.storage.PatientStore;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Component;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Stores patients in the mysql Patients table, and their medication schedules in PatientMedications.
+ * The shared connection pool (size, prepared statement caching, metrics) is configured in
+ * application.properties under spring.datasource.*
+ */
+@Component
+@Profile("!in-memory")
+public class JdbcPatientStore implements PatientStore {
+
+    //mysql error code for a violated unique/primary key (ER_DUP_ENTRY)
+    private static final int DUPLICATE_KEY_ERROR = 1062;
+    private static final String INSERT_PATIENT_SQL = "INSERT INTO Patients (firstName, lastName, age, email) VALUES (?, ?, ?, ?)";
+    private static final String SAVE_MEDICATION_SQL = "INSERT INTO PatientMedications (patientId, medicationName, frequency, dosage, scheduledAt) "
+            + "VALUES (?, ?, ?, ?, ?) ON DUPLICATE KEY UPDATE frequency = VALUES(frequency), dosage = VALUES(dosage), scheduledAt = VALUES(scheduledAt)";
+
+    private final DataSource dataSource;
+    private final Timer insertTimer;
+
+    //The schema migrator is only a dependency so the PatientMedications table exists first
+    public JdbcPatientStore(DataSource dataSource, MeterRegistry meterRegistry, SchemaMigrator schema) {
+        this.dataSource = dataSource;
+        this.insertTimer = Timer.builder("adherence.db.patient.insert")
+                .description("Patient inserts, including the wait for a pooled connection")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Inserts the patient and returns the auto-generated id. Uniqueness of (firstName, lastName, age)
+     * is enforced by the unique index on Patients, so this is a single atomic insert.
+     */
+    @Override
+    public int insert(String firstName, String lastName, int age, String email) {
+        long start = System.nanoTime();
+        try {
+            return insertPatient(firstName, lastName, age, email);
+        } finally {
+            insertTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    private int insertPatient(String firstName, String lastName, int age, String email) {
+        //Borrows a pooled connection only for the duration of the insert
+        try (Connection db = dataSource.getConnection();
+             PreparedStatement pstmt = db.prepareStatement(INSERT_PATIENT_SQL, Statement.RETURN_GENERATED_KEYS)) {
+            pstmt.setString(1, firstName);
+            pstmt.setString(2, lastName);
+            pstmt.setInt(3, age);
+            pstmt.setString(4, email);
+            pstmt.executeUpdate();
+            try (ResultSet rs = pstmt.getGeneratedKeys()) {
+                if (rs.next()) {
+                    return rs.getInt(1);
+                }
+            }
+        } catch (SQLException e) {
+            if (e.getErrorCode() == DUPLICATE_KEY_ERROR) {
+                throw new DuplicatePatientException("Patient already exists in database");
+            }
+            throw new RuntimeException("Issue with inserting patient into database", e);
+        }
+        throw new RuntimeException("Issue with inserting patient into database (auto-generated id not gathered correctly)");
+    }
+
+    /**
+     * Upserts the schedule row, keyed by (patientId, medicationName), so rescheduling a
+     * medication replaces its frequency, dosage and period start.
+     */
+    @Override
+    public void saveMedication(int patientId, String medicationName, Frequency frequency, int dosage, LocalDateTime scheduledAt) {
+        try (Connection db = dataSource.getConnection();
+             PreparedStatement pstmt = db.prepareStatement(SAVE_MEDICATION_SQL)) {
+            pstmt.setInt(1, patientId);
+            pstmt.setString(2, medicationName);
+            pstmt.setString(3, frequency.name());
+            pstmt.setInt(4, dosage);
+            pstmt.setTimestamp(5, Timestamp.valueOf(scheduledAt));
+            pstmt.executeUpdate();
+        } catch (SQLException e) {
+            throw new RuntimeException("Issue with saving medication schedule to database", e);
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package com.medicationadherence.database;
+
+import com.medicationadherence.model.AdherenceRecord;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * An adherence record waiting in the write-behind queue to be inserted.
+ */
+public class PendingAdherenceRecord {
+    private final int patientId;
+    private final AdherenceRecord record;
+    //Position in the adherence journal, 0 if the record was not journaled
+    private final long journalSequence;
+    //Completed once the batch holding this record is committed (or failed)
+    private final CompletableFuture<Void> committed = new CompletableFuture<>();
+
+    public PendingAdherenceRecord(int patientId, AdherenceRecord record) {
+        this(patientId, record, 0);
+    }
+
+    public PendingAdherenceRecord(int patientId, AdherenceRecord record, long journalSequence) {
+        this.patientId = patientId;
+        this.record = record;
+        this.journalSequence = journalSequence;
+    }
+
+    public int getPatientId() {
+        return patientId;
+    }
+
+    public AdherenceRecord getRecord() {
+        return record;
+    }
+
+    public long getJournalSequence() {
+        return journalSequence;
+    }
+
+    public CompletableFuture<Void> getCommitted() {
+        return committed;
+    }
+}
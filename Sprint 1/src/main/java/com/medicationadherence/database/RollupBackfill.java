@@ -0,0 +1,176 @@
+package com.medicationadherence.database;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Builds the daily and weekly rollups of adherence records stored before the rollup tables existed.
+ * Runs once, on a background thread after startup, over chunks of patient ids; each chunk is one
+ * transaction that recomputes the chunk's rollups from AdherenceRecords and overwrites them.
+ * Progress is kept in RollupBackfill, so a restart resumes after the last finished chunk.
+ * Overwriting is safe while new records arrive: the INSERT ... SELECT holds shared next-key locks
+ * on the chunk's AdherenceRecords (mysql's default REPEATABLE READ), so a concurrent batch either
+ * committed before the chunk and is counted by it, or commits after it and adds to its rows.
+ * Chunks are idempotent, so several instances backfilling at once only repeat work.
+ */
+@Component
+@Profile("!in-memory")
+public class RollupBackfill implements ApplicationRunner {
+
+    private static final Logger log = LoggerFactory.getLogger(RollupBackfill.class);
+    //Attempts per chunk (e.g. after a deadlock with the write-behind) before giving up until the next start
+    private static final int MAX_ATTEMPTS = 3;
+
+    private static final String BACKFILL_ROLLUP_SQL =
+            "INSERT INTO %1$s (patientId, %2$s, medicationId, taken, missed, takenDosage, missedDosage) "
+                    + "SELECT patientId, %3$s, medicationId, SUM(IF(taken, 1, 0)), SUM(IF(taken, 0, 1)), "
+                    + "SUM(IF(taken, IFNULL(dosage, 0), 0)), SUM(IF(taken, 0, IFNULL(dosage, 0))) FROM AdherenceRecords "
+                    + "WHERE patientId BETWEEN ? AND ? AND medicationId IS NOT NULL GROUP BY patientId, %3$s, medicationId "
+                    + "ON DUPLICATE KEY UPDATE taken = VALUES(taken), missed = VALUES(missed), "
+                    + "takenDosage = VALUES(takenDosage), missedDosage = VALUES(missedDosage)";
+    private static final String BACKFILL_DAILY_SQL =
+            String.format(BACKFILL_ROLLUP_SQL, "DailyAdherenceRollup", "day", "DATE(timeTaken)");
+    private static final String BACKFILL_WEEKLY_SQL =
+            String.format(BACKFILL_ROLLUP_SQL, "WeeklyAdherenceRollup", "weekStart", "DATE_SUB(DATE(timeTaken), INTERVAL WEEKDAY(timeTaken) DAY)");
+    private static final String UPDATE_PROGRESS_SQL = "UPDATE RollupBackfill SET lastPatientId = ? WHERE id = 1";
+
+    private final DataSource dataSource;
+    private final boolean enabled;
+    private final int chunkSize;
+    private final Thread worker;
+    private volatile boolean running = true;
+
+    public RollupBackfill(DataSource dataSource,
+                          SchemaMigrator schema,
+                          @Value("${adherence.rollup.backfill.enabled:true}") boolean enabled,
+                          @Value("${adherence.rollup.backfill.chunk-size:1000}") int chunkSize) {
+        //The schema migrator is only a dependency so the rollup tables exist first
+        if (chunkSize <= 0) {
+            throw new IllegalArgumentException("Invalid rollup backfill configuration");
+        }
+        this.dataSource = dataSource;
+        this.enabled = enabled;
+        this.chunkSize = chunkSize;
+        this.worker = new Thread(this::backfill, "rollup-backfill");
+        this.worker.setDaemon(true);
+    }
+
+    /**
+     * Starts the backfill in the background; the application serves requests meanwhile
+     */
+    @Override
+    public void run(ApplicationArguments args) {
+        if (enabled) {
+            worker.start();
+        }
+    }
+
+    /**
+     * Stops the backfill after the current chunk; it resumes on the next start
+     */
+    @PreDestroy
+    public void shutdown() {
+        running = false;
+        worker.interrupt();
+    }
+
+    private void backfill() {
+        try {
+            long[] progress = progress();
+            if (progress == null) {
+                return;
+            }
+            long start = System.nanoTime();
+            long lastPatientId = progress[0];
+            long maxPatientId = progress[1];
+            int chunks = 0;
+            while (running && lastPatientId < maxPatientId) {
+                long toId = Math.min(maxPatientId, lastPatientId + chunkSize);
+                backfillChunk(lastPatientId + 1, toId);
+                lastPatientId = toId;
+                chunks++;
+            }
+            if (lastPatientId >= maxPatientId) {
+                complete();
+                log.info("Rollup backfill: {} chunks up to patient {} in {} ms", chunks, maxPatientId,
+                        TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+            }
+        } catch (SQLException e) {
+            log.warn("Rollup backfill stopped, it resumes on the next start", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    //Returns {last backfilled patient id, highest patient id with records}, or null if the backfill is complete
+    private long[] progress() throws SQLException {
+        try (Connection connection = dataSource.getConnection();
+             Statement statement = connection.createStatement()) {
+            long lastPatientId;
+            try (ResultSet rs = statement.executeQuery("SELECT lastPatientId, completedAt FROM RollupBackfill WHERE id = 1")) {
+                if (!rs.next() || rs.getTimestamp(2) != null) {
+                    return null;
+                }
+                lastPatientId = rs.getLong(1);
+            }
+            //Records of patients created later are rolled up as they are written
+            try (ResultSet rs = statement.executeQuery("SELECT COALESCE(MAX(patientId), 0) FROM AdherenceRecords")) {
+                rs.next();
+                return new long[]{lastPatientId, rs.getLong(1)};
+            }
+        }
+    }
+
+    private void backfillChunk(long fromId, long toId) throws SQLException, InterruptedException {
+        for (int attempt = 1; ; attempt++) {
+            try (Connection connection = dataSource.getConnection()) {
+                connection.setAutoCommit(false);
+                try (PreparedStatement daily = connection.prepareStatement(BACKFILL_DAILY_SQL);
+                     PreparedStatement weekly = connection.prepareStatement(BACKFILL_WEEKLY_SQL);
+                     PreparedStatement progress = connection.prepareStatement(UPDATE_PROGRESS_SQL)) {
+                    for (PreparedStatement pstmt : new PreparedStatement[]{daily, weekly}) {
+                        pstmt.setLong(1, fromId);
+                        pstmt.setLong(2, toId);
+                        pstmt.executeUpdate();
+                    }
+                    progress.setLong(1, toId);
+                    progress.executeUpdate();
+                    connection.commit();
+                    return;
+                } catch (SQLException e) {
+                    connection.rollback();
+                    throw e;
+                } finally {
+                    connection.setAutoCommit(true);
+                }
+            } catch (SQLException e) {
+                if (attempt == MAX_ATTEMPTS) {
+                    throw e;
+                }
+                log.warn("Rollup backfill of patients {}-{} failed (attempt {} of {}), retrying", fromId, toId, attempt, MAX_ATTEMPTS, e);
+                Thread.sleep(100L * attempt);
+            }
+        }
+    }
+
+    private void complete() throws SQLException {
+        try (Connection connection = dataSource.getConnection();
+             Statement statement = connection.createStatement()) {
+            statement.executeUpdate("UPDATE RollupBackfill SET completedAt = NOW() WHERE id = 1");
+        }
+    }
+}
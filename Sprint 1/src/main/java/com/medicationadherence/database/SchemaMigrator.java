@@ -0,0 +1,216 @@
+package com.medicationadherence.database;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Brings the database schema up to date once at startup.
+ * Each migration has a version number; applied versions are recorded in SchemaVersion so every
+ * migration runs exactly once per database. A named mysql lock keeps several instances starting
+ * at the same time from migrating concurrently.
+ * Every migration is written so it can also run against a database whose tables were created by
+ * the earlier, unversioned setup code.
+ */
+@Component
+@Profile("!in-memory")
+public class SchemaMigrator {
+
+    private static final Logger log = LoggerFactory.getLogger(SchemaMigrator.class);
+    private static final String LOCK_NAME = "adherence_schema_migration";
+    private static final int LOCK_TIMEOUT_SECONDS = 60;
+    private static final int MAX_REPORTED_DUPLICATES = 20;
+
+    private final DataSource dataSource;
+    private final List<Migration> migrations = new ArrayList<>();
+
+    public SchemaMigrator(DataSource dataSource) {
+        this.dataSource = dataSource;
+        migrations.add(new Migration(1, "Patients and AdherenceRecords tables", statement -> {
+            statement.execute("CREATE TABLE IF NOT EXISTS Patients(id INT AUTO_INCREMENT PRIMARY KEY, firstName VARCHAR(50), lastName VARCHAR(50), age INT, email VARCHAR(100));");
+            statement.execute("CREATE TABLE IF NOT EXISTS AdherenceRecords(id INT AUTO_INCREMENT PRIMARY KEY, patientId INT, medicationName VARCHAR(50), dosage INT, taken BOOLEAN, timeTaken DATETIME NOT NULL, FOREIGN KEY(patientId) REFERENCES Patients(id) ON DELETE CASCADE);");
+        }));
+        migrations.add(new Migration(2, "Unique patient identity", statement -> {
+            //Patients stored before the constraint may share an identity; merging them is left to an operator
+            rejectDuplicatePatients(statement);
+            addIndexIfMissing(statement, "Patients", "uq_patients_identity",
+                    "ALTER TABLE Patients ADD UNIQUE KEY uq_patients_identity (firstName, lastName, age)");
+        }));
+        migrations.add(new Migration(3, "Per-patient, time-ordered index on AdherenceRecords", statement ->
+                addIndexIfMissing(statement, "AdherenceRecords", "idx_adherence_patient_time",
+                        "ALTER TABLE AdherenceRecords ADD INDEX idx_adherence_patient_time (patientId, timeTaken)")));
+        migrations.add(new Migration(4, "Medications dimension table", statement -> {
+            statement.execute("CREATE TABLE IF NOT EXISTS Medications(id INT AUTO_INCREMENT PRIMARY KEY, name VARCHAR(50) NOT NULL, UNIQUE KEY uq_medications_name (name));");
+            statement.execute("INSERT IGNORE INTO Medications (name) SELECT DISTINCT medicationName FROM AdherenceRecords WHERE medicationName IS NOT NULL");
+            if (!columnExists(statement, "AdherenceRecords", "medicationId")) {
+                statement.execute("ALTER TABLE AdherenceRecords ADD COLUMN medicationId INT NULL, "
+                        + "ADD CONSTRAINT fk_adherence_medication FOREIGN KEY (medicationId) REFERENCES Medications(id)");
+            }
+            statement.execute("UPDATE AdherenceRecords a JOIN Medications m ON m.name = a.medicationName "
+                    + "SET a.medicationId = m.id WHERE a.medicationId IS NULL");
+        }));
+        migrations.add(new Migration(5, "Alerts table", statement ->
+                statement.execute("CREATE TABLE IF NOT EXISTS Alerts(id INT AUTO_INCREMENT PRIMARY KEY, patientId INT NOT NULL, "
+                        + "medicationName VARCHAR(50), misses INT NOT NULL, firstMissedAt DATETIME NOT NULL, lastMissedAt DATETIME NOT NULL, "
+                        + "raisedAt DATETIME NOT NULL, INDEX idx_alerts_patient_time (patientId, raisedAt), "
+                        + "FOREIGN KEY(patientId) REFERENCES Patients(id) ON DELETE CASCADE);")));
+        migrations.add(new Migration(6, "Daily and weekly adherence rollup tables", statement -> {
+            //Filled for existing records by RollupBackfill, kept up to date by JdbcAdherenceBatchWriter
+            for (String[] table : new String[][]{{"DailyAdherenceRollup", "day"}, {"WeeklyAdherenceRollup", "weekStart"}}) {
+                statement.execute("CREATE TABLE IF NOT EXISTS " + table[0] + "(patientId INT NOT NULL, " + table[1] + " DATE NOT NULL, "
+                        + "medicationId INT NOT NULL, taken INT NOT NULL, missed INT NOT NULL, takenDosage BIGINT NOT NULL, "
+                        + "missedDosage BIGINT NOT NULL, PRIMARY KEY (patientId, " + table[1] + ", medicationId), "
+                        + "FOREIGN KEY(patientId) REFERENCES Patients(id) ON DELETE CASCADE, "
+                        + "FOREIGN KEY(medicationId) REFERENCES Medications(id));");
+            }
+            statement.execute("CREATE TABLE IF NOT EXISTS RollupBackfill(id INT PRIMARY KEY, lastPatientId INT NOT NULL, completedAt DATETIME NULL);");
+            statement.execute("INSERT IGNORE INTO RollupBackfill (id, lastPatientId) VALUES (1, 0)");
+        }));
+        migrations.add(new Migration(7, "Journal sequence on AdherenceRecords", statement -> {
+            //Highest value is the replay checkpoint of JournaledAdherenceEventStore; unique so a record is never replayed twice
+            if (!columnExists(statement, "AdherenceRecords", "journalSeq")) {
+                statement.execute("ALTER TABLE AdherenceRecords ADD COLUMN journalSeq BIGINT NULL");
+            }
+            addIndexIfMissing(statement, "AdherenceRecords", "uq_adherence_journal_seq",
+                    "ALTER TABLE AdherenceRecords ADD UNIQUE KEY uq_adherence_journal_seq (journalSeq)");
+        }));
+        migrations.add(new Migration(8, "ArchivedHistory table", statement ->
+                //Written by JdbcArchivedHistoryStore when records move to archive segments
+                statement.execute("CREATE TABLE IF NOT EXISTS ArchivedHistory(patientId INT PRIMARY KEY, archivedBefore DATETIME NOT NULL, "
+                        + "journalSeq BIGINT NOT NULL, FOREIGN KEY(patientId) REFERENCES Patients(id) ON DELETE CASCADE);")));
+        migrations.add(new Migration(9, "PatientMedications table", statement ->
+                //Written by JdbcPatientStore, read back by WarmStartLoader to re-arm expected doses
+                statement.execute("CREATE TABLE IF NOT EXISTS PatientMedications(patientId INT NOT NULL, medicationName VARCHAR(50) NOT NULL, "
+                        + "frequency VARCHAR(10) NOT NULL, dosage INT NOT NULL, scheduledAt DATETIME NOT NULL, "
+                        + "PRIMARY KEY (patientId, medicationName), FOREIGN KEY(patientId) REFERENCES Patients(id) ON DELETE CASCADE);")));
+    }
+
+    /**
+     * Applies every migration that has not been applied to the database yet, in version order.
+     * Runs when the application starts, before any request or the warm start can reach the tables.
+     * @throws IllegalStateException if the migration lock can't be taken or a migration fails (e.g.
+     * because stored patients conflict with the unique patient identity)
+     */
+    @PostConstruct
+    public void migrate() {
+        try (Connection connection = dataSource.getConnection();
+             Statement statement = connection.createStatement()) {
+            acquireLock(statement);
+            try {
+                statement.execute("CREATE TABLE IF NOT EXISTS SchemaVersion(version INT PRIMARY KEY, description VARCHAR(200) NOT NULL, appliedAt DATETIME NOT NULL);");
+                int current = currentVersion(statement);
+                for (Migration migration : migrations) {
+                    if (migration.version <= current) {
+                        continue;
+                    }
+                    log.info("Applying schema migration {}: {}", migration.version, migration.description);
+                    //mysql DDL commits implicitly, so each step must be safe to re-run if recording it fails
+                    migration.step.apply(statement);
+                    recordVersion(connection, migration);
+                }
+            } finally {
+                statement.execute("DO RELEASE_LOCK('" + LOCK_NAME + "')");
+            }
+        } catch (SQLException e) {
+            throw new IllegalStateException("Schema migration failed", e);
+        }
+    }
+
+    private static void acquireLock(Statement statement) throws SQLException {
+        try (ResultSet rs = statement.executeQuery("SELECT GET_LOCK('" + LOCK_NAME + "', " + LOCK_TIMEOUT_SECONDS + ")")) {
+            if (!rs.next() || rs.getInt(1) != 1) {
+                throw new IllegalStateException("Timed out waiting for the schema migration lock");
+            }
+        }
+    }
+
+    private static int currentVersion(Statement statement) throws SQLException {
+        try (ResultSet rs = statement.executeQuery("SELECT COALESCE(MAX(version), 0) FROM SchemaVersion")) {
+            rs.next();
+            return rs.getInt(1);
+        }
+    }
+
+    private static void recordVersion(Connection connection, Migration migration) throws SQLException {
+        try (PreparedStatement pstmt = connection.prepareStatement(
+                "INSERT INTO SchemaVersion (version, description, appliedAt) VALUES (?, ?, NOW())")) {
+            pstmt.setInt(1, migration.version);
+            pstmt.setString(2, migration.description);
+            pstmt.executeUpdate();
+        }
+    }
+
+    /**
+     * Fails with the conflicting rows if patients share (firstName, lastName, age), which would make
+     * adding the unique key fail with a bare duplicate-entry error. Grouped by the columns themselves,
+     * so names count as equal exactly when the unique key would (case-insensitive collation).
+     * @throws IllegalStateException listing up to MAX_REPORTED_DUPLICATES identities and their patient ids
+     */
+    private static void rejectDuplicatePatients(Statement statement) throws SQLException {
+        List<String> conflicts = new ArrayList<>();
+        int identities = 0;
+        try (ResultSet rs = statement.executeQuery("SELECT MIN(firstName), MIN(lastName), age, GROUP_CONCAT(id ORDER BY id SEPARATOR ', ') "
+                + "FROM Patients GROUP BY firstName, lastName, age HAVING COUNT(*) > 1")) {
+            while (rs.next()) {
+                if (identities++ < MAX_REPORTED_DUPLICATES) {
+                    conflicts.add(rs.getString(1) + " " + rs.getString(2) + " (age " + rs.getInt(3) + "): ids " + rs.getString(4));
+                }
+            }
+        }
+        if (identities > 0) {
+            throw new IllegalStateException("Cannot make patient identity unique: " + identities
+                    + " name and age combinations belong to more than one patient. Merge or correct these patients, "
+                    + "then restart: " + String.join("; ", conflicts) + (identities > conflicts.size() ? "; ..." : ""));
+        }
+    }
+
+    private static void addIndexIfMissing(Statement statement, String table, String index, String ddl) throws SQLException {
+        try (ResultSet rs = statement.executeQuery("SELECT COUNT(*) FROM information_schema.statistics WHERE table_schema = DATABASE() "
+                + "AND table_name = '" + table + "' AND index_name = '" + index + "'")) {
+            rs.next();
+            if (rs.getInt(1) > 0) {
+                return;
+            }
+        }
+        statement.execute(ddl);
+    }
+
+    private static boolean columnExists(Statement statement, String table, String column) throws SQLException {
+        try (ResultSet rs = statement.executeQuery("SELECT COUNT(*) FROM information_schema.columns WHERE table_schema = DATABASE() "
+                + "AND table_name = '" + table + "' AND column_name = '" + column + "'")) {
+            rs.next();
+            return rs.getInt(1) > 0;
+        }
+    }
+
+    /**
+     * One versioned schema change.
+     */
+    private static final class Migration {
+        private final int version;
+        private final String description;
+        private final Step step;
+
+        Migration(int version, String description, Step step) {
+            this.version = version;
+            this.description = description;
+            this.step = step;
+        }
+    }
+
+    @FunctionalInterface
+    private interface Step {
+        void apply(Statement statement) throws SQLException;
+    }
+}
@@ -0,0 +1,42 @@
+package com.medicationadherence.database;
+
+import java.sql.SQLDataException;
+import java.sql.SQLException;
+import java.sql.SQLIntegrityConstraintViolationException;
+
+/**
+ * Tells failures that retrying can fix (connection loss, timeouts, deadlocks) from ones it never will.
+ */
+public final class SqlFailures {
+
+    private SqlFailures() {
+    }
+
+    /**
+     * Checks whether a statement failed because of the data it wrote: SQLState class 22 (data
+     * exception) or 23 (integrity constraint violation). The driver wraps batch failures in a
+     * BatchUpdateException, so causes and chained exceptions are checked as well.
+     * @param e the failure
+     * @return true if writing the same data again will fail again
+     */
+    public static boolean isPermanent(SQLException e) {
+        //Bounded, in case a driver chains an exception to itself
+        Throwable failure = e;
+        for (int depth = 0; failure != null && depth < 16; depth++) {
+            if (failure instanceof SQLIntegrityConstraintViolationException || failure instanceof SQLDataException) {
+                return true;
+            }
+            if (failure instanceof SQLException) {
+                SQLException sqlFailure = (SQLException) failure;
+                String state = sqlFailure.getSQLState();
+                if (state != null && (state.startsWith("22") || state.startsWith("23"))) {
+                    return true;
+                }
+                failure = sqlFailure.getNextException() != null ? sqlFailure.getNextException() : sqlFailure.getCause();
+            } else {
+                failure = failure.getCause();
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,445 @@
+package com.medicationadherence.journal;
+
+import com.medicationadherence.model.AdherenceRecord;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only log of adherence records, kept in fixed-size, memory-mapped segment files.
+ * Every record gets the next sequence number and is written as one CRC-framed binary frame:
+ * <pre>
+ * int payloadLength | int crc32(payload) | payload:
+ *   long sequence | int patientId | long epochSecond | int nano | int dosage | byte taken | short nameLength | name (UTF-8)
+ * </pre>
+ * Each segment starts with a 16 byte header (magic, format version, sequence of its first record)
+ * and is named after that sequence. When the next frame doesn't fit, a new segment is started.
+ * Opening a journal validates every frame and cuts the log at the first torn or corrupt one,
+ * which is what a crash in the middle of an append leaves behind.
+ * A written frame survives a crash of the process at once; it survives a crash of the machine
+ * once force() has returned.
+ * Appends are serialized by a lock; Cursors read concurrently without it.
+ */
+public class AdherenceJournal implements AutoCloseable {
+
+    private static final Logger log = LoggerFactory.getLogger(AdherenceJournal.class);
+
+    static final int SEGMENT_HEADER_BYTES = 16;
+    private static final int MAGIC = 0x41444A4C;
+    private static final int VERSION = 1;
+    private static final int FRAME_HEADER_BYTES = 8;
+    //Payload without the medication name
+    private static final int FIXED_PAYLOAD_BYTES = 8 + 4 + 8 + 4 + 4 + 1 + 2;
+    private static final String SEGMENT_SUFFIX = ".seg";
+
+    private final Path directory;
+    private final int segmentBytes;
+    private final int maxSegments;
+    private final ReentrantLock lock = new ReentrantLock();
+    //Oldest first; guarded by lock, the last one is the one appended to
+    private final List<Segment> segments = new ArrayList<>();
+    //Segments with frames that have not been forced to disk yet; guarded by lock
+    private final List<Segment> unforced = new ArrayList<>();
+    private final CRC32 crc = new CRC32();
+    //Written under lock after the frame is complete, so readers never see a partial frame
+    private volatile long lastSequence;
+
+    /**
+     * Opens the journal in a directory, recovering the segments already in it
+     * @param directory the directory holding the segment files, created if missing
+     * @param segmentBytes the size of each segment file
+     * @param maxSegments the most segments kept at once; appends are rejected beyond it
+     * @param floorSequence sequences up to this one are known to be processed elsewhere; the journal continues after it
+     * @throws IOException if the directory or a segment can't be read or created
+     */
+    public AdherenceJournal(Path directory, int segmentBytes, int maxSegments, long floorSequence) throws IOException {
+        if (segmentBytes < SEGMENT_HEADER_BYTES + FRAME_HEADER_BYTES + FIXED_PAYLOAD_BYTES + 64 || maxSegments < 2) {
+            throw new IllegalArgumentException("Invalid journal configuration");
+        }
+        this.directory = directory;
+        this.segmentBytes = segmentBytes;
+        this.maxSegments = maxSegments;
+        Files.createDirectories(directory);
+        recover(floorSequence);
+    }
+
+    /**
+     * Appends a record
+     * @param patientId the id of the patient the record belongs to
+     * @param record the record
+     * @return the sequence number of the record
+     * @throws RejectedExecutionException if the journal holds the maximum number of segments or a new one can't be created
+     */
+    public long append(int patientId, AdherenceRecord record) {
+        byte[] name = record.getMedicationName().getBytes(StandardCharsets.UTF_8);
+        int payloadLength = FIXED_PAYLOAD_BYTES + name.length;
+        int frameLength = FRAME_HEADER_BYTES + payloadLength;
+        if (name.length > Short.MAX_VALUE || SEGMENT_HEADER_BYTES + frameLength > segmentBytes) {
+            throw new IllegalArgumentException("Medication name too long for the journal");
+        }
+        lock.lock();
+        try {
+            Segment segment = segments.get(segments.size() - 1);
+            long sequence = lastSequence + 1;
+            if (segment.writePosition + frameLength > segment.buffer.capacity()) {
+                segment = rotate(sequence);
+            }
+            ByteBuffer buffer = segment.buffer;
+            int payloadStart = segment.writePosition + FRAME_HEADER_BYTES;
+            buffer.position(payloadStart);
+            buffer.putLong(sequence);
+            buffer.putInt(patientId);
+            buffer.putLong(record.getTimeTaken().toEpochSecond(ZoneOffset.UTC));
+            buffer.putInt(record.getTimeTaken().getNano());
+            buffer.putInt(record.getDosage());
+            buffer.put(record.isTaken() ? (byte) 1 : (byte) 0);
+            buffer.putShort((short) name.length);
+            buffer.put(name);
+            buffer.putInt(segment.writePosition + 4, checksum(buffer, payloadStart, payloadLength));
+            //The length goes in last: a frame with a length is complete
+            buffer.putInt(segment.writePosition, payloadLength);
+            segment.writePosition += frameLength;
+            segment.lastSequence = sequence;
+            if (unforced.isEmpty() || unforced.get(unforced.size() - 1) != segment) {
+                unforced.add(segment);
+            }
+            lastSequence = sequence;
+            return sequence;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Forces every frame appended so far to disk (msync)
+     * @return the sequence up to which the journal is now on disk
+     */
+    public long force() {
+        List<Segment> toForce;
+        long forcedSequence;
+        lock.lock();
+        try {
+            forcedSequence = lastSequence;
+            toForce = new ArrayList<>(unforced);
+            unforced.clear();
+        } finally {
+            lock.unlock();
+        }
+        //Outside the lock so appends continue meanwhile; force writes back everything dirty in the mapping
+        for (Segment segment : toForce) {
+            segment.buffer.force();
+        }
+        return forcedSequence;
+    }
+
+    /**
+     * Gets the sequence of the last appended record
+     * @return the last sequence, or the floor sequence if nothing was appended after it
+     */
+    public long getLastSequence() {
+        return lastSequence;
+    }
+
+    /**
+     * Gets the number of segment files
+     * @return the number of segments
+     */
+    public int getSegmentCount() {
+        lock.lock();
+        try {
+            return segments.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Opens a cursor that reads the records after a sequence, in order
+     * @param afterSequence the sequence to start after
+     * @return the cursor
+     */
+    public Cursor cursor(long afterSequence) {
+        return new Cursor(afterSequence);
+    }
+
+    /**
+     * Deletes the segments whose records all have a sequence up to the given one.
+     * The segment being appended to is kept.
+     * @param sequence the last sequence that is no longer needed
+     * @throws IOException if a segment file can't be deleted
+     */
+    public void deleteUpTo(long sequence) throws IOException {
+        List<Segment> deleted = new ArrayList<>();
+        lock.lock();
+        try {
+            while (segments.size() > 1 && segments.get(1).baseSequence <= sequence + 1) {
+                deleted.add(segments.remove(0));
+            }
+        } finally {
+            lock.unlock();
+        }
+        //The mapping stays valid for cursors still reading the segment until it is garbage collected
+        for (Segment segment : deleted) {
+            Files.deleteIfExists(segment.path);
+        }
+    }
+
+    /**
+     * Forces the journal to disk. The segment files stay mapped until garbage collected.
+     */
+    @Override
+    public void close() {
+        force();
+    }
+
+    private void recover(long floorSequence) throws IOException {
+        List<Path> paths = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*" + SEGMENT_SUFFIX)) {
+            for (Path path : files) {
+                paths.add(path);
+            }
+        }
+        //Zero-padded names sort in sequence order
+        paths.sort(null);
+        long expected = -1;
+        for (int i = 0; i < paths.size(); i++) {
+            Segment segment = open(paths.get(i));
+            if (segment == null || (expected >= 0 && segment.baseSequence != expected)) {
+                log.warn("Journal: dropping {} segment(s) from {} that don't continue the log", paths.size() - i, paths.get(i));
+                for (int j = i; j < paths.size(); j++) {
+                    Files.delete(paths.get(j));
+                }
+                break;
+            }
+            segments.add(segment);
+            expected = segment.lastSequence + 1;
+        }
+        lastSequence = segments.isEmpty() ? floorSequence : segments.get(segments.size() - 1).lastSequence;
+        if (lastSequence < floorSequence) {
+            //Everything in the files is already processed (or the log was lost): continue after the floor
+            lastSequence = floorSequence;
+            rotate(floorSequence + 1);
+            deleteUpTo(floorSequence);
+        } else if (segments.isEmpty()) {
+            rotate(lastSequence + 1);
+        }
+        log.info("Journal: opened {} segment(s) in {}, last sequence {}", segments.size(), directory, lastSequence);
+    }
+
+    //Maps an existing segment and finds the end of its valid frames; null if it isn't a segment
+    private Segment open(Path path) throws IOException {
+        MappedByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            //Segments keep the size they were created with, even if the configured size changed since
+            if (channel.size() < SEGMENT_HEADER_BYTES || channel.size() > Integer.MAX_VALUE) {
+                return null;
+            }
+            buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size());
+        }
+        if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+            return null;
+        }
+        Segment segment = new Segment(path, buffer, buffer.getLong(8));
+        int position = SEGMENT_HEADER_BYTES;
+        long sequence = segment.baseSequence;
+        while (true) {
+            int payloadLength = frameLength(buffer, position);
+            if (payloadLength < 0 || buffer.getLong(position + FRAME_HEADER_BYTES) != sequence) {
+                break;
+            }
+            position += FRAME_HEADER_BYTES + payloadLength;
+            sequence++;
+        }
+        segment.writePosition = position;
+        segment.lastSequence = sequence - 1;
+        //Zero a torn or corrupt tail so it can't be mistaken for frames later
+        if (position + 4 <= buffer.capacity() && buffer.getInt(position) != 0) {
+            log.warn("Journal: truncating {} after sequence {}", path, segment.lastSequence);
+            for (int i = position; i < buffer.capacity(); i++) {
+                buffer.put(i, (byte) 0);
+            }
+            buffer.force();
+        }
+        return segment;
+    }
+
+    //Length of the payload of a complete, intact frame at the position; -1 if there is none
+    private int frameLength(ByteBuffer buffer, int position) {
+        if (position + FRAME_HEADER_BYTES + FIXED_PAYLOAD_BYTES > buffer.capacity()) {
+            return -1;
+        }
+        int payloadLength = buffer.getInt(position);
+        if (payloadLength < FIXED_PAYLOAD_BYTES || payloadLength > buffer.capacity() - position - FRAME_HEADER_BYTES) {
+            return -1;
+        }
+        int start = position + FRAME_HEADER_BYTES;
+        if (buffer.getShort(start + FIXED_PAYLOAD_BYTES - 2) != payloadLength - FIXED_PAYLOAD_BYTES
+                || checksum(buffer, start, payloadLength) != buffer.getInt(position + 4)) {
+            return -1;
+        }
+        return payloadLength;
+    }
+
+    private int checksum(ByteBuffer buffer, int start, int length) {
+        ByteBuffer payload = buffer.duplicate();
+        payload.limit(start + length).position(start);
+        CRC32 checksum = lock.isHeldByCurrentThread() ? crc : new CRC32();
+        checksum.reset();
+        checksum.update(payload);
+        return (int) checksum.getValue();
+    }
+
+    //Starts a new segment whose first record will have the given sequence
+    private Segment rotate(long baseSequence) {
+        if (segments.size() >= maxSegments) {
+            throw new RejectedExecutionException("Adherence journal is full (" + maxSegments + " segments)");
+        }
+        Path path = directory.resolve(String.format("%020d%s", baseSequence, SEGMENT_SUFFIX));
+        MappedByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentBytes);
+        } catch (IOException e) {
+            throw new RejectedExecutionException("Could not create journal segment " + path, e);
+        }
+        buffer.putInt(0, MAGIC);
+        buffer.putInt(4, VERSION);
+        buffer.putLong(8, baseSequence);
+        Segment segment = new Segment(path, buffer, baseSequence);
+        segment.writePosition = SEGMENT_HEADER_BYTES;
+        segment.lastSequence = baseSequence - 1;
+        segments.add(segment);
+        unforced.add(segment);
+        return segment;
+    }
+
+    private static final class Segment {
+        private final Path path;
+        private final MappedByteBuffer buffer;
+        private final long baseSequence;
+        //Appender's state, guarded by the journal lock
+        private int writePosition;
+        private long lastSequence;
+
+        Segment(Path path, MappedByteBuffer buffer, long baseSequence) {
+            this.path = path;
+            this.buffer = buffer;
+            this.baseSequence = baseSequence;
+        }
+    }
+
+    /**
+     * Reads records in sequence order, concurrently with appends. Not thread-safe itself.
+     */
+    public final class Cursor {
+        private long nextSequence;
+        private Segment segment;
+        private ByteBuffer buffer;
+        private int position;
+
+        private Cursor(long afterSequence) {
+            this.nextSequence = afterSequence + 1;
+        }
+
+        /**
+         * Reads the next record, if one has been appended
+         * @return the record (without its adherence record if that no longer passes validation),
+         * or null if the cursor is at the end of the journal
+         */
+        public JournalEntry next() {
+            if (nextSequence > lastSequence) {
+                return null;
+            }
+            if (segment == null || nextSequence > segment.lastSequence && !moveToNextSegment()) {
+                if (!seek()) {
+                    return null;
+                }
+            }
+            //A frame up to lastSequence is complete; the volatile read above makes it visible
+            int payloadLength = buffer.getInt(position);
+            int start = position + FRAME_HEADER_BYTES;
+            long sequence = buffer.getLong(start);
+            if (sequence != nextSequence) {
+                throw new IllegalStateException("Journal out of order at sequence " + nextSequence);
+            }
+            int patientId = buffer.getInt(start + 8);
+            LocalDateTime timeTaken = LocalDateTime.ofEpochSecond(buffer.getLong(start + 12), buffer.getInt(start + 20), ZoneOffset.UTC);
+            int dosage = buffer.getInt(start + 24);
+            boolean taken = buffer.get(start + 28) != 0;
+            byte[] name = new byte[buffer.getShort(start + 29)];
+            ByteBuffer nameBytes = buffer.duplicate();
+            nameBytes.position(start + FIXED_PAYLOAD_BYTES);
+            nameBytes.get(name);
+            position = start + payloadLength;
+            nextSequence++;
+            AdherenceRecord record;
+            try {
+                record = new AdherenceRecord(new String(name, StandardCharsets.UTF_8), dosage, timeTaken);
+            } catch (IllegalArgumentException e) {
+                //Journaled before a validation rule was tightened
+                return new JournalEntry(sequence, patientId, null);
+            }
+            record.setTaken(taken);
+            return new JournalEntry(sequence, patientId, record);
+        }
+
+        //Continues in the segment after the current one, if the next sequence starts it
+        private boolean moveToNextSegment() {
+            lock.lock();
+            try {
+                int index = segments.indexOf(segment);
+                if (index < 0 || index + 1 >= segments.size() || segments.get(index + 1).baseSequence != nextSequence) {
+                    return false;
+                }
+                setSegment(segments.get(index + 1));
+                return true;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        //Finds the segment holding the next sequence and scans to it
+        private boolean seek() {
+            lock.lock();
+            try {
+                Segment found = null;
+                for (Segment candidate : segments) {
+                    if (candidate.baseSequence <= nextSequence) {
+                        found = candidate;
+                    }
+                }
+                if (found == null) {
+                    throw new IllegalStateException("Journal no longer holds sequence " + nextSequence);
+                }
+                setSegment(found);
+            } finally {
+                lock.unlock();
+            }
+            for (long sequence = segment.baseSequence; sequence < nextSequence; sequence++) {
+                position += FRAME_HEADER_BYTES + buffer.getInt(position);
+            }
+            return true;
+        }
+
+        private void setSegment(Segment next) {
+            segment = next;
+            buffer = next.buffer.duplicate();
+            position = SEGMENT_HEADER_BYTES;
+        }
+    }
+}
@@ -0,0 +1,32 @@
+package com.medicationadherence.journal;
+
+import com.medicationadherence.model.AdherenceRecord;
+
+/**
+ * One adherence record read back from the journal, with its position in the log.
+ */
+public class JournalEntry {
+    private final long sequence;
+    private final int patientId;
+    private final AdherenceRecord record;
+
+    public JournalEntry(long sequence, int patientId, AdherenceRecord record) {
+        this.sequence = sequence;
+        this.patientId = patientId;
+        this.record = record;
+    }
+
+    //Position in the journal, starting at 1 and without gaps
+    public long getSequence() {
+        return sequence;
+    }
+
+    public int getPatientId() {
+        return patientId;
+    }
+
+    //Null if the stored record no longer passes validation
+    public AdherenceRecord getRecord() {
+        return record;
+    }
+}
@@ -0,0 +1,367 @@
+package com.medicationadherence.journal;
+
+import com.medicationadherence.database.AdherenceBatchWriter;
+import com.medicationadherence.database.PendingAdherenceRecord;
+import com.medicationadherence.database.SchemaMigrator;
+import com.medicationadherence.database.SqlFailures;
+import com.medicationadherence.model.AdherenceRecord;
+import com.medicationadherence.storage.AdherenceEventStore;
+import com.medicationadherence.storage.DurabilityMode;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.sql.DataSource;
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Mysql AdherenceEventStore that goes through a local AdherenceJournal instead of an in-memory queue.
+ * A record is acknowledged once it is in the journal: right after the append (ENQUEUE) or after
+ * the next group fsync (COMMIT, every fsync interval). A replay thread then copies the journal
+ * into AdherenceRecords in batches, retrying for as long as mysql is slow or unavailable, so
+ * acknowledged records are never dropped and memory and database converge again.
+ * Every row carries its journal sequence, written in the batch's transaction; the highest one in
+ * AdherenceRecords (or ArchivedHistory, for archived rows) is the checkpoint. At startup the
+ * journal is recovered and everything after the checkpoint is replayed before the application
+ * loads its state from the database.
+ * Replaces AdherenceWriteBehind when adherence.journal.enabled is true.
+ */
+@Component
+@Profile("!in-memory")
+@ConditionalOnProperty(name = "adherence.journal.enabled", havingValue = "true")
+public class JournaledAdherenceEventStore implements AdherenceEventStore, MeterBinder {
+
+    private static final Logger log = LoggerFactory.getLogger(JournaledAdherenceEventStore.class);
+    private static final CompletableFuture<Void> ACCEPTED = CompletableFuture.completedFuture(null);
+    private static final long MAX_BACKOFF_MILLIS = 5000;
+
+    private final DataSource dataSource;
+    private final AdherenceBatchWriter writer;
+    private final String directory;
+    private final int segmentBytes;
+    private final int maxSegments;
+    private final long fsyncIntervalMillis;
+    private final long replayIntervalMillis;
+    private final int replayBatchSize;
+    private final DurabilityMode durability;
+    private final ReentrantLock appendLock = new ReentrantLock();
+    //Futures of COMMIT-mode appends in sequence order, completed by the syncer
+    private final ConcurrentLinkedQueue<PendingSync> awaitingSync = new ConcurrentLinkedQueue<>();
+    private final AtomicLong replayFailures = new AtomicLong();
+    private final AtomicLong skippedRecords = new AtomicLong();
+    //Batch being replayed, kept across failed attempts; used by start() and then only by the replayer
+    private final List<PendingAdherenceRecord> batch = new ArrayList<>();
+    private AdherenceJournal journal;
+    private volatile long replayedSequence;
+    //Sequence of the last record read into the batch, skipped ones included
+    private long batchEnd;
+    private Thread syncer;
+    private Thread replayer;
+    private volatile boolean running = true;
+
+    public JournaledAdherenceEventStore(DataSource dataSource,
+                                        SchemaMigrator schema,
+                                        AdherenceBatchWriter writer,
+                                        @Value("${adherence.journal.directory:data/journal}") String directory,
+                                        @Value("${adherence.journal.segment-mb:64}") int segmentMegabytes,
+                                        @Value("${adherence.journal.max-segments:64}") int maxSegments,
+                                        @Value("${adherence.journal.fsync-interval-ms:10}") long fsyncIntervalMillis,
+                                        @Value("${adherence.journal.replay-interval-ms:50}") long replayIntervalMillis,
+                                        @Value("${adherence.journal.replay-batch-size:500}") int replayBatchSize,
+                                        @Value("${adherence.journal.durability:COMMIT}") DurabilityMode durability) {
+        //The schema migrator is only a dependency so the journalSeq column exists first
+        if (segmentMegabytes <= 0 || segmentMegabytes > 1024 || maxSegments < 2 || fsyncIntervalMillis <= 0
+                || replayIntervalMillis <= 0 || replayBatchSize <= 0) {
+            throw new IllegalArgumentException("Invalid journal configuration");
+        }
+        this.dataSource = dataSource;
+        this.writer = writer;
+        this.directory = directory;
+        this.segmentBytes = segmentMegabytes << 20;
+        this.maxSegments = maxSegments;
+        this.fsyncIntervalMillis = fsyncIntervalMillis;
+        this.replayIntervalMillis = replayIntervalMillis;
+        this.replayBatchSize = replayBatchSize;
+        this.durability = durability;
+    }
+
+    /**
+     * Recovers the journal and replays what mysql is missing, then starts the syncer and replayer.
+     * Runs before the warm start reads the database.
+     * @throws IllegalStateException if the journal can't be opened or mysql can't be brought up to date
+     */
+    @PostConstruct
+    public void start() {
+        long checkpoint;
+        try {
+            checkpoint = checkpoint();
+            journal = new AdherenceJournal(Paths.get(directory), segmentBytes, maxSegments, checkpoint);
+        } catch (SQLException | IOException e) {
+            throw new IllegalStateException("Adherence journal recovery failed", e);
+        }
+        replayedSequence = checkpoint;
+        batchEnd = checkpoint;
+        AdherenceJournal.Cursor cursor = journal.cursor(checkpoint);
+        long pending = journal.getLastSequence() - checkpoint;
+        try {
+            while (replayBatch(cursor) > 0) {
+                //Keep going until caught up
+            }
+            journal.deleteUpTo(replayedSequence);
+        } catch (SQLException | IOException e) {
+            throw new IllegalStateException("Replaying the adherence journal into the database failed", e);
+        }
+        if (pending > 0) {
+            log.info("Journal: replayed {} records after checkpoint {}", pending, checkpoint);
+        }
+        syncer = new Thread(this::syncLoop, "adherence-journal-sync");
+        syncer.setDaemon(true);
+        syncer.start();
+        replayer = new Thread(() -> replayLoop(cursor), "adherence-journal-replay");
+        replayer.setDaemon(true);
+        replayer.start();
+    }
+
+    /**
+     * Appends the record to the journal
+     * @param patientId the id of the patient the record belongs to
+     * @param record the record to store
+     * @return a future completed once the record is in the journal (ENQUEUE) or forced to disk (COMMIT)
+     * @throws RejectedExecutionException if the journal is full because replay fell too far behind, or it is shut down
+     */
+    @Override
+    public CompletableFuture<Void> append(int patientId, AdherenceRecord record) {
+        if (!running) {
+            throw new RejectedExecutionException("Adherence journal is shut down");
+        }
+        if (durability == DurabilityMode.ENQUEUE) {
+            journal.append(patientId, record);
+            return ACCEPTED;
+        }
+        CompletableFuture<Void> synced = new CompletableFuture<>();
+        //Queued in sequence order, so the syncer can stop at the first record it hasn't forced
+        appendLock.lock();
+        try {
+            awaitingSync.add(new PendingSync(journal.append(patientId, record), synced));
+        } finally {
+            appendLock.unlock();
+        }
+        return synced;
+    }
+
+    @Override
+    public DurabilityMode getDurability() {
+        return durability;
+    }
+
+    /**
+     * Gets the number of journaled records not yet in the database
+     * @return the replay lag in records
+     */
+    public long getReplayLag() {
+        return journal.getLastSequence() - replayedSequence;
+    }
+
+    @Override
+    public void bindTo(MeterRegistry meterRegistry) {
+        Gauge.builder("adherence.journal.lag", this, JournaledAdherenceEventStore::getReplayLag)
+                .description("Journaled adherence records not yet replayed into the database")
+                .baseUnit("records")
+                .register(meterRegistry);
+        Gauge.builder("adherence.journal.segments", this, store -> store.journal.getSegmentCount())
+                .description("Journal segment files on disk")
+                .register(meterRegistry);
+        FunctionCounter.builder("adherence.journal.replay.failures", replayFailures, AtomicLong::get)
+                .description("Failed attempts to write a journal batch to the database")
+                .register(meterRegistry);
+        FunctionCounter.builder("adherence.journal.replay.skipped", skippedRecords, AtomicLong::get)
+                .description("Journaled records the database refused permanently (invalid data or constraint violations)")
+                .baseUnit("records")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Stops accepting records, forces the journal and gives the replayer a moment to catch up.
+     * Whatever isn't replayed yet stays in the journal for the next start.
+     */
+    @PreDestroy
+    public void shutdown() {
+        running = false;
+        join(syncer, TimeUnit.SECONDS.toMillis(5));
+        join(replayer, TimeUnit.SECONDS.toMillis(10));
+        journal.close();
+        completeSynced(journal.getLastSequence());
+        long lag = getReplayLag();
+        if (lag > 0) {
+            log.warn("Journal: {} records not replayed yet, they are replayed on the next start", lag);
+        }
+    }
+
+    private void syncLoop() {
+        while (running) {
+            try {
+                Thread.sleep(fsyncIntervalMillis);
+            } catch (InterruptedException e) {
+                break;
+            }
+            if (!awaitingSync.isEmpty() || durability == DurabilityMode.ENQUEUE) {
+                completeSynced(journal.force());
+            }
+        }
+    }
+
+    private void completeSynced(long forcedSequence) {
+        PendingSync pending;
+        while ((pending = awaitingSync.peek()) != null && pending.sequence <= forcedSequence) {
+            awaitingSync.poll();
+            pending.synced.complete(null);
+        }
+    }
+
+    private void replayLoop(AdherenceJournal.Cursor cursor) {
+        long backoffMillis = replayIntervalMillis;
+        while (running || getReplayLag() > 0) {
+            try {
+                if (replayBatch(cursor) == 0) {
+                    if (!running) {
+                        break;
+                    }
+                    Thread.sleep(replayIntervalMillis);
+                } else {
+                    journal.deleteUpTo(replayedSequence);
+                }
+                backoffMillis = replayIntervalMillis;
+            } catch (SQLException e) {
+                replayFailures.incrementAndGet();
+                log.warn("Journal: replaying into the database failed, retrying in {} ms", backoffMillis, e);
+                if (!running || !sleep(backoffMillis)) {
+                    break;
+                }
+                backoffMillis = Math.min(MAX_BACKOFF_MILLIS, backoffMillis * 2);
+            } catch (IOException e) {
+                log.warn("Journal: could not delete replayed segments", e);
+            } catch (InterruptedException e) {
+                break;
+            }
+        }
+    }
+
+    //Writes the next batch from the cursor; returns the number of records replayed or skipped
+    private int replayBatch(AdherenceJournal.Cursor cursor) throws SQLException {
+        if (batch.isEmpty()) {
+            JournalEntry entry;
+            while (batch.size() < replayBatchSize && (entry = cursor.next()) != null) {
+                batchEnd = entry.getSequence();
+                if (entry.getRecord() == null) {
+                    skip(entry.getSequence(), entry.getPatientId(), "no longer a valid adherence record");
+                } else {
+                    batch.add(new PendingAdherenceRecord(entry.getPatientId(), entry.getRecord(), entry.getSequence()));
+                }
+            }
+        }
+        int replayed = (int) (batchEnd - replayedSequence);
+        if (batch.isEmpty()) {
+            replayedSequence = batchEnd;
+            return replayed;
+        }
+        try {
+            writer.write(batch);
+            batch.clear();
+        } catch (SQLException e) {
+            if (!SqlFailures.isPermanent(e)) {
+                throw e;
+            }
+            //Will never succeed as a whole: write record by record and skip the ones mysql refuses
+            writeOneByOne();
+        }
+        replayedSequence = batchEnd;
+        return replayed;
+    }
+
+    //Leaves the records not written yet in the batch if a write fails for a reason that can pass
+    private void writeOneByOne() throws SQLException {
+        Iterator<PendingAdherenceRecord> records = batch.iterator();
+        while (records.hasNext()) {
+            PendingAdherenceRecord pending = records.next();
+            try {
+                writer.write(Collections.singletonList(pending));
+            } catch (SQLException e) {
+                if (!SqlFailures.isPermanent(e)) {
+                    throw e;
+                }
+                skip(pending.getJournalSequence(), pending.getPatientId(), e.getMessage());
+            }
+            records.remove();
+        }
+    }
+
+    private void skip(long sequence, int patientId, String reason) {
+        skippedRecords.incrementAndGet();
+        log.error("Journal: skipping record {} of patient {} refused by the database ({})", sequence, patientId, reason);
+    }
+
+    //Highest journal sequence committed to AdherenceRecords, including rows since moved to the history archive
+    private long checkpoint() throws SQLException {
+        try (Connection connection = dataSource.getConnection();
+             Statement statement = connection.createStatement();
+             ResultSet rs = statement.executeQuery("SELECT GREATEST((SELECT COALESCE(MAX(journalSeq), 0) FROM AdherenceRecords), "
+                     + "(SELECT COALESCE(MAX(journalSeq), 0) FROM ArchivedHistory))")) {
+            rs.next();
+            return rs.getLong(1);
+        }
+    }
+
+    private static boolean sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+            return true;
+        } catch (InterruptedException e) {
+            return false;
+        }
+    }
+
+    private static void join(Thread thread, long millis) {
+        if (thread == null) {
+            return;
+        }
+        try {
+            thread.join(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static final class PendingSync {
+        private final long sequence;
+        private final CompletableFuture<Void> synced;
+
+        PendingSync(long sequence, CompletableFuture<Void> synced) {
+            this.sequence = sequence;
+            this.synced = synced;
+        }
+    }
+}
@@ -0,0 +1,16 @@
+package com.medicationadherence.model;
+
+/**
+ * Receives a patient's taken/missed dose counts of one medication, without a snapshot being built.
+ */
+@FunctionalInterface
+public interface AdherenceCountVisitor {
+
+    /**
+     * Called once per medication the patient has scheduled or recorded
+     * @param medicationName the name of the medication
+     * @param taken number of doses taken
+     * @param missed number of doses missed
+     */
+    void visit(String medicationName, int taken, int missed);
+}
@@ -0,0 +1,331 @@
+package com.medicationadherence.model;
+
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.RandomAccess;
+
+/**
+ * Time-ordered, columnar store of one patient's adherence records.
+ * Instead of one AdherenceRecord object per dose, each field lives in its own primitive column:
+ * the time as epoch minutes (int), the dosage (int), taken as one bit per dose and the
+ * medication as an id into a per-patient dictionary of names.
+ * Doses are kept in time order, so ranges are found by binary search: a dose dated before the
+ * newest one (e.g. reported late) is inserted at its place, after doses at the same minute.
+ * Writes must be serialized by the caller (the owning Patient's lock). A View taken under that
+ * lock stays valid afterwards without further locking: appending at the end never modifies
+ * existing entries, and growing or trimming the columns, or shifting them for an insert while a
+ * view may still read them, copies them first.
+ */
+public class AdherenceHistory {
+
+    private static final int INITIAL_CAPACITY = 8;
+
+    private int[] epochMinutes = new int[INITIAL_CAPACITY];
+    private int[] dosages = new int[INITIAL_CAPACITY];
+    private int[] medicationIds = new int[INITIAL_CAPACITY];
+    private long[] takenBits = new long[1];
+    private int size;
+    //True once a view may reference the current columns, which must then be copied before a shift
+    private boolean shared;
+
+    //Dictionary encoding of medication names
+    private String[] medicationNames = new String[4];
+    private int medicationCount;
+    private final HashMap<String, Integer> medicationIdsByName = new HashMap<>();
+
+    /**
+     * Adds one dose at its place in time, usually the end of the history
+     * @param record the dose to add
+     */
+    public void append(AdherenceRecord record) {
+        append(toEpochMinute(record.getTimeTaken()), record.getDosage(), record.getMedicationName(), record.isTaken());
+    }
+
+    /**
+     * Adds one dose given by its fields, without an AdherenceRecord. A dose dated before the
+     * newest one is inserted after the doses at or before its time, which costs a shift of the
+     * later doses (and a copy of the columns if a view was taken since the last copy).
+     * @param epochMinute the time the dose was taken or missed, in minutes since the epoch
+     * @param dosage the dosage
+     * @param medicationName the name of the medication
+     * @param taken whether the dose was taken
+     */
+    public void append(int epochMinute, int dosage, String medicationName, boolean taken) {
+        if (size == epochMinutes.length) {
+            grow();
+        }
+        int index = size;
+        if (size > 0 && epochMinute < epochMinutes[size - 1]) {
+            index = insertionPoint(epochMinute);
+            shift(index);
+        }
+        epochMinutes[index] = epochMinute;
+        dosages[index] = dosage;
+        medicationIds[index] = medicationId(medicationName);
+        if (taken) {
+            takenBits[index >>> 6] |= 1L << index;
+        }
+        size++;
+    }
+
+    /**
+     * Appends every dose of a view, in order
+     * @param view the doses to append
+     */
+    public void appendAll(View view) {
+        for (int i = 0; i < view.size(); i++) {
+            append(view.epochMinute(i), view.dosage(i), view.medicationName(i), view.isTaken(i));
+        }
+    }
+
+    /**
+     * Removes the oldest doses (e.g. once they are archived). Views taken before keep them.
+     * @param count the number of doses to remove from the start
+     */
+    public void removeFirst(int count) {
+        if (count < 0 || count > size) {
+            throw new IndexOutOfBoundsException("Count: " + count + ", Size: " + size);
+        }
+        int remaining = size - count;
+        int capacity = Math.max(INITIAL_CAPACITY, remaining + (remaining >> 3));
+        int[] keptMinutes = new int[capacity];
+        int[] keptDosages = new int[capacity];
+        int[] keptMedicationIds = new int[capacity];
+        long[] keptTakenBits = new long[(capacity + 63) >>> 6];
+        System.arraycopy(epochMinutes, count, keptMinutes, 0, remaining);
+        System.arraycopy(dosages, count, keptDosages, 0, remaining);
+        System.arraycopy(medicationIds, count, keptMedicationIds, 0, remaining);
+        for (int i = 0; i < remaining; i++) {
+            int from = count + i;
+            if ((takenBits[from >>> 6] & (1L << from)) != 0) {
+                keptTakenBits[i >>> 6] |= 1L << i;
+            }
+        }
+        epochMinutes = keptMinutes;
+        dosages = keptDosages;
+        medicationIds = keptMedicationIds;
+        takenBits = keptTakenBits;
+        size = remaining;
+        shared = false;
+    }
+
+    /**
+     * Gets the number of doses in the history
+     * @return the number of doses
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Gets a read-only view of the doses appended so far. Later appends are not visible in it.
+     * @return the view
+     */
+    public View view() {
+        shared = true;
+        return new View(epochMinutes, dosages, medicationIds, takenBits, medicationNames, medicationCount, size);
+    }
+
+    /**
+     * Converts a time to whole minutes since 1970-01-01T00:00 (times carry no zone, so UTC is used as-is)
+     * @param time the time to convert
+     * @return the number of minutes since the epoch
+     * @throws ArithmeticException if the time is too far from the epoch for an int (about 4000 years)
+     */
+    public static int toEpochMinute(LocalDateTime time) {
+        return Math.toIntExact(Math.floorDiv(time.toEpochSecond(ZoneOffset.UTC), 60L));
+    }
+
+    /**
+     * Converts epoch minutes back to a time
+     * @param epochMinute minutes since 1970-01-01T00:00
+     * @return the time
+     */
+    public static LocalDateTime fromEpochMinute(int epochMinute) {
+        return LocalDateTime.ofEpochSecond(epochMinute * 60L, 0, ZoneOffset.UTC);
+    }
+
+    private int medicationId(String medicationName) {
+        Integer id = medicationIdsByName.get(medicationName);
+        if (id != null) {
+            return id;
+        }
+        if (medicationCount == medicationNames.length) {
+            medicationNames = Arrays.copyOf(medicationNames, medicationCount * 2);
+        }
+        medicationNames[medicationCount] = medicationName;
+        medicationIdsByName.put(medicationName, medicationCount);
+        return medicationCount++;
+    }
+
+    private void grow() {
+        copyColumns(size + (size >> 1));
+    }
+
+    private void copyColumns(int capacity) {
+        epochMinutes = Arrays.copyOf(epochMinutes, capacity);
+        dosages = Arrays.copyOf(dosages, capacity);
+        medicationIds = Arrays.copyOf(medicationIds, capacity);
+        takenBits = Arrays.copyOf(takenBits, (capacity + 63) >>> 6);
+        shared = false;
+    }
+
+    //Index after the last dose at or before the time
+    private int insertionPoint(int epochMinute) {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (epochMinutes[mid] <= epochMinute) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    //Moves the doses from the index on one place up, leaving the index free (and not taken); size < capacity
+    private void shift(int index) {
+        if (shared) {
+            copyColumns(epochMinutes.length);
+        }
+        System.arraycopy(epochMinutes, index, epochMinutes, index + 1, size - index);
+        System.arraycopy(dosages, index, dosages, index + 1, size - index);
+        System.arraycopy(medicationIds, index, medicationIds, index + 1, size - index);
+        int word = index >>> 6;
+        for (int i = size >>> 6; i > word; i--) {
+            takenBits[i] = (takenBits[i] << 1) | (takenBits[i - 1] >>> 63);
+        }
+        long below = takenBits[word] & ((1L << index) - 1);
+        takenBits[word] = below | ((takenBits[word] & ~below) << 1);
+    }
+
+    /**
+     * Immutable, random-access list view over a prefix of the columns.
+     * get(i) builds an AdherenceRecord on demand; the column accessors read fields without allocating.
+     */
+    public static final class View extends AbstractList<AdherenceRecord> implements RandomAccess {
+        private final int[] epochMinutes;
+        private final int[] dosages;
+        private final int[] medicationIds;
+        private final long[] takenBits;
+        private final String[] medicationNames;
+        private final int medicationCount;
+        private final int size;
+
+        private View(int[] epochMinutes, int[] dosages, int[] medicationIds, long[] takenBits,
+                     String[] medicationNames, int medicationCount, int size) {
+            this.epochMinutes = epochMinutes;
+            this.dosages = dosages;
+            this.medicationIds = medicationIds;
+            this.takenBits = takenBits;
+            this.medicationNames = medicationNames;
+            this.medicationCount = medicationCount;
+            this.size = size;
+        }
+
+        @Override
+        public AdherenceRecord get(int index) {
+            checkIndex(index);
+            AdherenceRecord record = new AdherenceRecord(medicationName(index), dosage(index), timeTaken(index));
+            record.setTaken(isTaken(index));
+            return record;
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+
+        public int epochMinute(int index) {
+            checkIndex(index);
+            return epochMinutes[index];
+        }
+
+        public LocalDateTime timeTaken(int index) {
+            return fromEpochMinute(epochMinute(index));
+        }
+
+        public int dosage(int index) {
+            checkIndex(index);
+            return dosages[index];
+        }
+
+        public boolean isTaken(int index) {
+            checkIndex(index);
+            return (takenBits[index >>> 6] & (1L << index)) != 0;
+        }
+
+        public String medicationName(int index) {
+            checkIndex(index);
+            return medicationNames[medicationIds[index]];
+        }
+
+        /**
+         * Finds the first dose at or after the given time (binary search)
+         * @param epochMinute the start of the range, inclusive
+         * @return index of the first dose in range, or size() if there is none
+         */
+        public int fromIndex(int epochMinute) {
+            int low = 0;
+            int high = size;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (epochMinutes[mid] < epochMinute) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+
+        /**
+         * Finds the end of the doses at or before the given time (binary search)
+         * @param epochMinute the end of the range, inclusive
+         * @return index after the last dose in range
+         */
+        public int toIndex(int epochMinute) {
+            int low = 0;
+            int high = size;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (epochMinutes[mid] <= epochMinute) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+
+        /**
+         * Gets the dictionary id of a medication, for allocation-free filtering with medicationId(index)
+         * @param medicationName the name of the medication
+         * @return the id, or -1 if no dose of this medication is in the view
+         */
+        public int medicationIdOf(String medicationName) {
+            for (int id = 0; id < medicationCount; id++) {
+                if (medicationNames[id].equals(medicationName)) {
+                    return id;
+                }
+            }
+            return -1;
+        }
+
+        public int medicationId(int index) {
+            checkIndex(index);
+            return medicationIds[index];
+        }
+
+        private void checkIndex(int index) {
+            if (index < 0 || index >= size) {
+                throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+            }
+        }
+    }
+}
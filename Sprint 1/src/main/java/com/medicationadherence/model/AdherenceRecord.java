@@ -36,6 +36,17 @@ public class AdherenceRecord {
 
     }
 
+    /**
+     * Create an AdherenceRecord for a dose that was recorded earlier (e.g. loaded from the database)
+     * @param medicationName name of medication
+     * @param dosage amount of medication; if zero, medication was not taken
+     * @param timeTaken time medication was taken or time when it was not taken
+     */
+    public AdherenceRecord(String medicationName, int dosage, LocalDateTime timeTaken) {
+        this(medicationName, dosage);
+        this.setTimeTaken(timeTaken);
+    }
+
     /**
      * Get the name of the medication
      * @return name of medication
@@ -49,8 +60,8 @@ public class AdherenceRecord {
      * @param medicationName the name of the medication to set
      */
     public void setMedicationName(String medicationName) {
-        if(medicationName==null||!medicationName.matches("[a-zA-Z\\s]+")||medicationName.isEmpty()) {
-            throw new IllegalArgumentException("Invalid medication name (only letters and spaces). Data not saved");
+        if(!FieldValidators.isValidMedicationName(medicationName)) {
+            throw new IllegalArgumentException("Invalid medication name (up to 50 letters and spaces). Data not saved");
         }
         this.medicationName = medicationName;
 
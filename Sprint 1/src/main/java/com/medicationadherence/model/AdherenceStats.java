@@ -0,0 +1,156 @@
+package com.medicationadherence.model;
+
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Incrementally maintained adherence statistics for one patient.
+ * Every recorded dose updates the counters in O(1) without allocating (apart from the
+ * first dose of a medication that is not on the schedule).
+ * Not thread-safe: the owning Patient guards it with its lock.
+ */
+class AdherenceStats {
+
+    //Number of days kept in the rolling window ring buffer (largest window reported)
+    static final int WINDOW_DAYS = 30;
+    static final int SHORT_WINDOW_DAYS = 7;
+
+    private final Counter total = new Counter();
+    private final HashMap<String, Counter> byMedication = new HashMap<>();
+
+    //Ring buffer of daily buckets, indexed by epoch day modulo WINDOW_DAYS
+    private final long[] bucketDay = new long[WINDOW_DAYS];
+    private final int[] bucketTaken = new int[WINDOW_DAYS];
+    private final int[] bucketMissed = new int[WINDOW_DAYS];
+
+    AdherenceStats() {
+        //No day is 'Long.MIN_VALUE', so every bucket starts out empty
+        Arrays.fill(bucketDay, Long.MIN_VALUE);
+    }
+
+    /**
+     * Registers a scheduled medication so it is reported even before its first dose
+     * @param medicationName the name of the medication
+     */
+    void registerMedication(String medicationName) {
+        byMedication.computeIfAbsent(medicationName, name -> new Counter());
+    }
+
+    /**
+     * Counts one recorded dose
+     * @param record the dose that was recorded
+     */
+    void record(AdherenceRecord record) {
+        boolean taken = record.isTaken();
+        total.count(taken);
+        Counter medication = byMedication.get(record.getMedicationName());
+        if (medication == null) {
+            medication = new Counter();
+            byMedication.put(record.getMedicationName(), medication);
+        }
+        medication.count(taken);
+
+        long day = record.getTimeTaken().toLocalDate().toEpochDay();
+        int index = (int) Math.floorMod(day, (long) WINDOW_DAYS);
+        if (bucketDay[index] != day) {
+            if (bucketDay[index] > day) {
+                //Older than anything the ring buffer still holds
+                return;
+            }
+            bucketDay[index] = day;
+            bucketTaken[index] = 0;
+            bucketMissed[index] = 0;
+        }
+        if (taken) {
+            bucketTaken[index]++;
+        } else {
+            bucketMissed[index]++;
+        }
+    }
+
+    /**
+     * Gets the percentage of doses taken, rounded to 2 decimal places
+     * @return the adherence percentage, 0 if nothing was recorded
+     */
+    double adherencePercentage() {
+        return percentage(total.taken, total.missed);
+    }
+
+    /**
+     * Builds a point-in-time copy of the statistics
+     * @param today the day the rolling windows end on (inclusive)
+     * @return the statistics snapshot
+     */
+    PatientStats snapshot(LocalDate today) {
+        Map<String, PatientStats.MedicationStats> medications = new LinkedHashMap<>();
+        byMedication.forEach((name, counter) -> medications.put(name, counter.toMedicationStats()));
+        return new PatientStats(total.taken, total.missed, percentage(total.taken, total.missed),
+                total.currentMissStreak, total.longestMissStreak,
+                window(today, SHORT_WINDOW_DAYS), window(today, WINDOW_DAYS), medications);
+    }
+
+    /**
+     * Hands the counts of every medication to a visitor
+     * @param visitor receives the counts of each medication
+     */
+    void visitMedications(AdherenceCountVisitor visitor) {
+        for (Map.Entry<String, Counter> entry : byMedication.entrySet()) {
+            visitor.visit(entry.getKey(), entry.getValue().taken, entry.getValue().missed);
+        }
+    }
+
+    private PatientStats.Window window(LocalDate today, int days) {
+        long end = today.toEpochDay();
+        long start = end - days + 1;
+        int taken = 0;
+        int missed = 0;
+        for (int i = 0; i < WINDOW_DAYS; i++) {
+            if (bucketDay[i] >= start && bucketDay[i] <= end) {
+                taken += bucketTaken[i];
+                missed += bucketMissed[i];
+            }
+        }
+        return new PatientStats.Window(days, taken, missed, percentage(taken, missed));
+    }
+
+    /**
+     * Rounds the share of taken doses to 2 decimal places without formatting strings
+     * @param taken number of doses taken
+     * @param missed number of doses missed
+     * @return the percentage, 0 if there are no doses
+     */
+    static double percentage(long taken, long missed) {
+        long all = taken + missed;
+        if (all == 0) {
+            return 0;
+        }
+        return Math.round((double) taken / all * 100 * 100) / 100.0;
+    }
+
+    //Taken/missed counts and miss streaks for all doses or for one medication
+    private static final class Counter {
+        private int taken;
+        private int missed;
+        private int currentMissStreak;
+        private int longestMissStreak;
+
+        void count(boolean wasTaken) {
+            if (wasTaken) {
+                taken++;
+                currentMissStreak = 0;
+            } else {
+                missed++;
+                currentMissStreak++;
+                longestMissStreak = Math.max(longestMissStreak, currentMissStreak);
+            }
+        }
+
+        PatientStats.MedicationStats toMedicationStats() {
+            return new PatientStats.MedicationStats(taken, missed, percentage(taken, missed),
+                    currentMissStreak, longestMissStreak);
+        }
+    }
+}
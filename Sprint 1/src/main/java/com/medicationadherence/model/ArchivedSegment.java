@@ -0,0 +1,35 @@
+package com.medicationadherence.model;
+
+/**
+ * An immutable run of a patient's oldest adherence records that was moved out of memory
+ * (see HistoryArchive). The patient keeps only this handle and reads the records back on demand.
+ */
+public interface ArchivedSegment {
+
+    /**
+     * Gets the number of records in the segment
+     * @return the number of records
+     */
+    int size();
+
+    /**
+     * Gets the time of the segment's last (newest) record
+     * @return the time in minutes since the epoch
+     */
+    int lastEpochMinute();
+
+    /**
+     * Gets the cutoff the segment was archived for: every record before it is in the segment
+     * or an older one
+     * @return the cutoff in minutes since the epoch
+     */
+    int getArchivedBefore();
+
+    /**
+     * Reads the segment's records back, oldest first
+     * @param target the history the records are appended to
+     * @param fromEpochMinute only records at or after this time are needed; earlier ones may be appended too
+     * @throws java.io.UncheckedIOException if the segment can't be read
+     */
+    void appendTo(AdherenceHistory target, int fromEpochMinute);
+}
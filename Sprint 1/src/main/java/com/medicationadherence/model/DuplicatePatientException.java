@@ -0,0 +1,12 @@
+package com.medicationadherence.model;
+
+/**
+ * Thrown when a patient with the same first name, last name and age already exists.
+ */
+public class DuplicatePatientException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    public DuplicatePatientException(String message) {
+        super(message);
+    }
+}
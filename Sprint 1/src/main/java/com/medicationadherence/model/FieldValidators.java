@@ -0,0 +1,101 @@
+package com.medicationadherence.model;
+
+/**
+ * Shared validators for patient and medication fields.
+ * Each one scans the characters directly instead of compiling a regular expression per call
+ * (String.matches), and accepts exactly what the documented expression accepts.
+ */
+public final class FieldValidators {
+
+    private static final int MAX_NAME_LENGTH = 50;
+    private static final int MAX_MEDICATION_NAME_LENGTH = 50;
+
+    private FieldValidators() {
+    }
+
+    /**
+     * Checks a first or last name: 1 to 50 letters, apostrophes or hyphens ({@code ^[a-zA-Z'-]{1,50}$})
+     * @param name the name to check
+     * @return true if the name is valid
+     */
+    public static boolean isValidName(String name) {
+        if (name == null || name.isEmpty() || name.length() > MAX_NAME_LENGTH) {
+            return false;
+        }
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            if (!isAsciiLetter(c) && c != '\'' && c != '-') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Checks an email: one '@' with at least one character before it, and a '.' after it that is
+     * neither directly after the '@' nor the last character ({@code ^[^@]+@[^@]+\.[^@]+$})
+     * @param email the email to check
+     * @return true if the email is valid
+     */
+    public static boolean isValidEmail(String email) {
+        if (email == null) {
+            return false;
+        }
+        int at = email.indexOf('@');
+        if (at < 1 || email.indexOf('@', at + 1) >= 0) {
+            return false;
+        }
+        //Some '.' must have at least one character on each side within the domain part
+        for (int i = at + 2; i < email.length() - 1; i++) {
+            if (email.charAt(i) == '.') {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Checks a medication name: 1 to 50 letters or whitespace characters ({@code [a-zA-Z\s]{1,50}}),
+     * the width of the medication name columns
+     * @param medicationName the medication name to check
+     * @return true if the medication name is valid
+     */
+    public static boolean isValidMedicationName(String medicationName) {
+        if (medicationName == null || medicationName.isEmpty() || medicationName.length() > MAX_MEDICATION_NAME_LENGTH) {
+            return false;
+        }
+        for (int i = 0; i < medicationName.length(); i++) {
+            char c = medicationName.charAt(i);
+            if (!isAsciiLetter(c) && !isRegexWhitespace(c)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Checks a medication timing word: one or more letters ({@code [a-zA-Z]+})
+     * @param timing the timing to check
+     * @return true if the timing is valid
+     */
+    public static boolean isValidTiming(String timing) {
+        if (timing == null || timing.isEmpty()) {
+            return false;
+        }
+        for (int i = 0; i < timing.length(); i++) {
+            if (!isAsciiLetter(timing.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isAsciiLetter(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+    }
+
+    //The characters of the regex class \s: [ \t\n\x0B\f\r]
+    private static boolean isRegexWhitespace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+    }
+}
@@ -0,0 +1,35 @@
+package com.medicationadherence.model;
+
+import org.apache.commons.lang3.StringUtils;
+
+import java.time.Duration;
+
+/**
+ * How often a scheduled medication is to be taken.
+ */
+public enum Frequency{
+    DAILY(Duration.ofDays(1)),WEEKLY(Duration.ofDays(7));
+
+    private final Duration period;
+
+    Frequency(Duration period){
+        this.period = period;
+    }
+
+    /**
+     * Gets the time between two expected doses
+     * @return the period
+     */
+    public Duration getPeriod(){
+        return period;
+    }
+
+    /**
+     * Returns the name of the frequency with the first letter capitalized.
+     * @return the capitalized name of the frequency
+     */
+    @Override
+    public String toString(){
+        return StringUtils.capitalize(this.name());
+    }
+}
@@ -1,13 +1,14 @@
 //Imports
 package com.medicationadherence.model;
-import javafx.util.Pair;
-import org.apache.commons.lang3.StringUtils;
-import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.medicationadherence.storage.AdherenceEventStore;
+import com.medicationadherence.storage.DurabilityMode;
+import com.medicationadherence.storage.PatientStore;
 
-import java.io.FileInputStream;
-import java.io.IOException;
-import java.sql.*;
+import java.time.LocalDate;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 public class Patient{
     //Instance vars
@@ -15,129 +16,260 @@ public class Patient{
     private String lastName;
     private int age;
     private String email;
-    //Record of patient's adherence
-    private ArrayList<AdherenceRecord> adherenceRecords= new ArrayList<>();
+    //Record of patient's adherence (columnar, see AdherenceHistory); only the hot part once older records are archived
+    private final AdherenceHistory adherenceRecords= new AdherenceHistory();
+    //Older records moved out of memory, oldest first; replaced, never modified
+    private List<ArchivedSegment> archivedSegments = Collections.emptyList();
+    private int archivedRecords;
+    //New records dated before it are refused: they belong to history that is (being) archived
+    private int archivedBefore = Integer.MIN_VALUE;
     private int missedDoses=0;
     private double adherencePercentage;
-    //How many times the patient has been notified of too many missed doses (3 or more)
+    //How many missed-dose alerts have been raised for the patient since startup (see AlertEngine)
     private int missedDoseNotis;
     private MedicationSchedule schedule;
-    //Connection to mysql database
-    @JsonIgnore
-    private Connection db = initializeDatabase();
+    //Per-medication counts, miss streaks and rolling windows, updated on every record
+    private final AdherenceStats stats = new AdherenceStats();
     private int id;
+    //Guards this patient's records, counters and schedule (one lock per patient)
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    //Where this patient's new adherence records are stored
+    private final AdherenceEventStore adherenceEvents;
+    //Bumped under the write lock on every change to the patient's records, counters or schedule
+    private volatile long version;
+    //Told about every change, e.g. by the registry to keep its own version
+    private volatile Runnable changeListener;
 
 
     //Constructors
 
-    public Patient(String firstName,String lastName, int age, String email){
+    /**
+     * Creates a new patient and stores it in the patient store, which assigns its id
+     * @param patientStore the store the patient is inserted into
+     * @param adherenceEvents the store the patient's adherence records are appended to
+     * @throws IllegalArgumentException if any field is invalid
+     * @throws DuplicatePatientException if a patient with the same name and age already exists
+     */
+    public Patient(PatientStore patientStore, AdherenceEventStore adherenceEvents,
+                   String firstName,String lastName, int age, String email){
         setFirstName(firstName);
         setLastName(lastName);
         setAge(age);
         setEmail(email);
         schedule = new MedicationSchedule();
-        insertPatientIntoDatabase();
+        this.adherenceEvents = adherenceEvents;
+        this.id = patientStore.insert(this.firstName, this.lastName, this.age, this.email);
 
     }
 
+    //Builds a patient that is already stored, without inserting it again
+    private Patient(AdherenceEventStore adherenceEvents, int id, String firstName, String lastName, int age, String email){
+        setFirstName(firstName);
+        setLastName(lastName);
+        setAge(age);
+        setEmail(email);
+        schedule = new MedicationSchedule();
+        this.adherenceEvents = adherenceEvents;
+        this.id = id;
+    }
+
     /**
-     * Initializes the database connection.
-     * Must have a file called application.properties in .idea (or change filepath)
-     * Establishes a connection to the database
-     * Creates necessary tables for data insertion
-     * @return the database connection
-     * @throws RuntimeException if there is a problem with the application properties file/doesn't exist, or if there is a problem connecting to the database
+     * Rebuilds a patient that is already stored in the database (e.g. at startup).
+     * Does not insert the patient again.
+     * @param adherenceEvents the store the patient's new adherence records are appended to
+     * @param id the patient's database id
+     * @param firstName the first name
+     * @param lastName the last name
+     * @param age the age
+     * @param email the email
+     * @return the restored patient
+     * @throws IllegalArgumentException if any stored field is invalid
      */
-    public static Connection initializeDatabase(){
-        Properties properties = new Properties();
-        try{
-            properties.load(new FileInputStream("src/main/resources/application.properties"));
-        } catch (IOException e) {
-            throw new RuntimeException("Problem with application properties file/doesn't exist");
-        }
-        try{
-            Connection connection = DriverManager.getConnection(properties.getProperty("url"),properties.getProperty("user"), properties.getProperty("sqlpwd"));
-            Statement statement = connection.createStatement();
-            statement.execute("USE adherencedb");
-            //Creates necessary tables to handle incoming data from the program
-            statement.execute("CREATE TABLE IF NOT EXISTS Patients(id INT AUTO_INCREMENT PRIMARY KEY, firstName VARCHAR(50), lastName VARCHAR(50), age INT, email VARCHAR(100));");
-            statement.execute("CREATE TABLE IF NOT EXISTS AdherenceRecords(id INT AUTO_INCREMENT PRIMARY KEY, patientId INT, medicationName VARCHAR(50), dosage INT, taken BOOLEAN, timeTaken DATETIME NOT NULL, FOREIGN KEY(patientId) REFERENCES Patients(id) ON DELETE CASCADE);");
-            return connection;
+    public static Patient restore(AdherenceEventStore adherenceEvents, int id, String firstName, String lastName, int age, String email){
+        return new Patient(adherenceEvents, id, firstName, lastName, age, email);
+    }
 
-        } catch (SQLException e) {
-            throw new RuntimeException(e);
-        }
+    /**
+     * Adds an adherence record for the patient. Updates the number of missed
+     * doses and the adherence percentage, then appends the record to the
+     * adherence event store.
+     * @param adherenceRecord the adherence record to add
+     */
+    public void addAdherenceRecord(AdherenceRecord adherenceRecord){
+        awaitCommitIfRequired(submitAdherenceRecord(adherenceRecord));
     }
 
     /**
-     * Inserts the patient into the database, and sets the patient's id to the
-     * auto-generated id.
-     * @throws RuntimeException if there is a problem with inserting the patient
-     * into the database
+     * Adds an adherence record like addAdherenceRecord, but never waits for the store.
+     * Lets bulk callers queue many records and then wait for all of their commits at once.
+     * @param adherenceRecord the adherence record to add
+     * @return a future completed when the record's batch is committed
+     * @throws IllegalArgumentException if the record is dated before the patient's archived history ends
+     * @throws java.util.concurrent.RejectedExecutionException if the store is full (backpressure)
      */
-    private void insertPatientIntoDatabase() {
+    public CompletableFuture<Void> submitAdherenceRecord(AdherenceRecord adherenceRecord){
+        CompletableFuture<Void> committed;
+        int minute = AdherenceHistory.toEpochMinute(adherenceRecord.getTimeTaken());
+        //A full store is waited for before taking the lock, which readers of the patient would wait for too
+        adherenceEvents.awaitCapacity();
+        lock.writeLock().lock();
         try {
-            //Ensures patient doesn't already exist in db. Throws exception if it does
-            String checkPatientSQL = "SELECT COUNT(*) FROM Patients WHERE firstName = ? AND lastName = ? AND age = ?";
-            PreparedStatement checkStatement = db.prepareStatement(checkPatientSQL);
-            checkStatement.setString(1, this.firstName);
-            checkStatement.setString(2, this.lastName);
-            checkStatement.setInt(3, this.age);
-            ResultSet checkSet = checkStatement.executeQuery();
-            if (checkSet.next() && checkSet.getInt(1)>0) {
-                throw new RuntimeException("Patient already exists in database");
+            if (minute < archivedBefore) {
+                throw new IllegalArgumentException("Adherence record is older than the archived history of patient " + id);
             }
-            //Inserts patient
-            String insertPatientSQL = "INSERT INTO Patients (firstName, lastName, age, email) VALUES (?, ?, ?, ?)";
-            PreparedStatement pstmt = db.prepareStatement(insertPatientSQL, Statement.RETURN_GENERATED_KEYS);
-            pstmt.setString(1, this.firstName);
-            pstmt.setString(2, this.lastName);
-            pstmt.setInt(3, this.age);
-            pstmt.setString(4, this.email);
-            pstmt.executeUpdate();
-            //Gets auto-generated id and sets to id field
-            ResultSet rs = pstmt.getGeneratedKeys();
-            if (rs.next()) {
-                this.id = rs.getInt(1);
+            //Stored first (under the lock) so a rejected record never reaches memory
+            //and the store sees this patient's records in order
+            committed = adherenceEvents.append(this.id, adherenceRecord);
+            adherenceRecords.append(adherenceRecord);
+            if(!adherenceRecord.isTaken()) {
+                missedDoses++;
             }
-        } catch (SQLException e) {
-            throw new RuntimeException("Issue with inserting patient into database (auto-generated id not gathered correctly)");
+            stats.record(adherenceRecord);
+            //Calculate adherence percentage (2 decimal places)
+            adherencePercentage=AdherenceStats.percentage(totalRecords()-missedDoses, missedDoses);
+            changed();
+        } finally {
+            lock.writeLock().unlock();
         }
+        return committed;
     }
 
     /**
-     * Adds an adherence record for the patient. Updates the number of missed
-     * doses and the adherence percentage.
-     * Prints a message if the patient has missed three or more doses.
-     * @param adherenceRecord the adherence record to add
+     * Restores adherence records that are already stored in the database (e.g. at startup).
+     * Rebuilds the missed doses and adherence percentage without raising alerts
+     * or inserting the records again. Records before the restored segments' cutoff are already
+     * in a segment (written by the write-behind stage after the archival was committed) and skipped.
+     * @param restoredRecords the patient's stored records, oldest first
      */
-    public void addAdherenceRecord(AdherenceRecord adherenceRecord){
-        adherenceRecords.add(adherenceRecord);
-        if(!adherenceRecord.isTaken()) {
-            missedDoses++;
+    public void restoreAdherenceRecords(List<AdherenceRecord> restoredRecords){
+        if(restoredRecords.isEmpty()) {
+            return;
         }
-        if(missedDoses>=3){
-            System.out.println("DOSE ADHERENCE ALERT");
-            //Counts how many times a patient has been notified
-            missedDoseNotis++;
+        lock.writeLock().lock();
+        try {
+            for(AdherenceRecord adherenceRecord : restoredRecords) {
+                if(AdherenceHistory.toEpochMinute(adherenceRecord.getTimeTaken()) < archivedBefore) {
+                    continue;
+                }
+                adherenceRecords.append(adherenceRecord);
+                stats.record(adherenceRecord);
+                if(!adherenceRecord.isTaken()) {
+                    missedDoses++;
+                }
+            }
+            //Calculate adherence percentage once for the whole batch (2 decimal places)
+            adherencePercentage=AdherenceStats.percentage(totalRecords()-missedDoses, missedDoses);
+            changed();
+        } finally {
+            lock.writeLock().unlock();
         }
-        String insertAdherenceRecordSQL = "INSERT INTO AdherenceRecords (patientId, medicationName, dosage, taken, timeTaken) VALUES (?, ?, ?, ?, ?)";
+    }
+
+    /**
+     * Restores an archived segment at startup: its records count towards the patient's
+     * statistics but stay out of memory. Must be called, oldest first, before restoreAdherenceRecords.
+     * @param segment the archived segment
+     * @param records the segment's records, read back once for the statistics
+     */
+    public void restoreArchivedSegment(ArchivedSegment segment, AdherenceHistory.View records){
+        lock.writeLock().lock();
         try {
-            PreparedStatement pstmt = db.prepareStatement(insertAdherenceRecordSQL);
-            pstmt.setInt(1, this.id);
-            pstmt.setString(2, adherenceRecord.getMedicationName());
-            pstmt.setInt(3, adherenceRecord.getDosage());
-            pstmt.setBoolean(4, adherenceRecord.isTaken());
-            pstmt.setTimestamp(5, Timestamp.valueOf(adherenceRecord.getTimeTaken()));
-            pstmt.executeUpdate();
-        }catch(SQLException e){
-            throw new RuntimeException("Issue with inserting adherence record into database");
+            for(int i = 0; i < records.size(); i++) {
+                AdherenceRecord adherenceRecord = records.get(i);
+                stats.record(adherenceRecord);
+                if(!adherenceRecord.isTaken()) {
+                    missedDoses++;
+                }
+            }
+            addArchivedSegment(segment);
+            archivedBefore = Math.max(archivedBefore, segment.getArchivedBefore());
+            adherencePercentage=AdherenceStats.percentage(totalRecords()-missedDoses, missedDoses);
+            changed();
+        } finally {
+            lock.writeLock().unlock();
         }
-        //Calculate adherence percentage and format (2 decimal places)
-        adherencePercentage=(double)(adherenceRecords.size()-missedDoses)/adherenceRecords.size()*100;
-        adherencePercentage=Double.parseDouble(String.format("%.2f", adherencePercentage));
+    }
 
+    /**
+     * Starts archiving the records before a cutoff: from now on new records dated before it are
+     * refused, so the records before it in the returned view stay exactly those to archive.
+     * @param before the cutoff, in minutes since the epoch
+     * @return the records in memory, as of the start of the archival
+     */
+    public AdherenceHistory.View beginArchive(int before){
+        lock.writeLock().lock();
+        try {
+            archivedBefore = Math.max(archivedBefore, before);
+            return adherenceRecords.view();
+        } finally {
+            lock.writeLock().unlock();
+        }
     }
+
+    /**
+     * Replaces the oldest in-memory records with the archived segment holding them.
+     * Reads see either the records in memory or the segment, never both.
+     * @param segment the archived copy of the patient's records before its cutoff (see beginArchive)
+     * @throws IllegalStateException if the segment doesn't match the oldest records in memory
+     */
+    public void archive(ArchivedSegment segment){
+        lock.writeLock().lock();
+        try {
+            int count = segment.size();
+            AdherenceHistory.View records = adherenceRecords.view();
+            if (count == 0 || records.fromIndex(segment.getArchivedBefore()) != count
+                    || records.epochMinute(count - 1) != segment.lastEpochMinute()) {
+                throw new IllegalStateException("Archived segment does not match the history of patient " + id);
+            }
+            adherenceRecords.removeFirst(count);
+            addArchivedSegment(segment);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    //Called with the write lock held
+    private void addArchivedSegment(ArchivedSegment segment) {
+        List<ArchivedSegment> segments = new ArrayList<>(archivedSegments.size() + 1);
+        segments.addAll(archivedSegments);
+        segments.add(segment);
+        archivedSegments = segments;
+        archivedRecords += segment.size();
+    }
+
+    //Called with the lock held
+    private int totalRecords() {
+        return archivedRecords + adherenceRecords.size();
+    }
+
+    /**
+     * Waits for the adherence record's batch to be committed, but only when the
+     * write-behind stage is configured to acknowledge after commit.
+     * @param committed future completed by the write-behind stage
+     * @throws RuntimeException if (in commit mode) the record could not be inserted
+     */
+    private void awaitCommitIfRequired(CompletableFuture<Void> committed) {
+        if (adherenceEvents.getDurability() == DurabilityMode.COMMIT) {
+            try {
+                committed.join();
+            } catch (CompletionException e) {
+                throw new RuntimeException("Issue with inserting adherence record into database");
+            }
+        }
+    }
+
+    /**
+     * Checks a medication the way addMedication does, without scheduling it.
+     * @param medicationName the name of the medication
+     * @param timing the timing at which the medication should be taken
+     * @param dosage the dosage of the medication
+     * @return how often the medication is to be taken
+     * @throws IllegalArgumentException if the medication name, timing, or dosage is invalid
+     */
+    public static Frequency validateMedication(String medicationName, String timing, int dosage){
+        return MedicationSchedule.validate(medicationName, timing, dosage);
+    }
+
     /**
      * Adds a medication to the patient's schedule.
      * @param medicationName the name of the medication
@@ -145,7 +277,14 @@ public class Patient{
      * @param dosage the dosage of the medication
      */
     public void addMedication(String medicationName, String timing, int dosage){
-        schedule.addMedication(medicationName,timing,dosage);
+        lock.writeLock().lock();
+        try {
+            schedule.addMedication(medicationName,timing,dosage);
+            stats.registerMedication(medicationName);
+            changed();
+        } finally {
+            lock.writeLock().unlock();
+        }
     }
 
     /**
@@ -162,7 +301,7 @@ public class Patient{
      */
     public void setFirstName(String firstName) {
         //Ensures first name is valid and follows and valid format (only letters and hyphens)
-        if(firstName.isEmpty()|| !firstName.matches("^[a-zA-Z'-]{1,50}$")) {
+        if(!FieldValidators.isValidName(firstName)) {
             throw new IllegalArgumentException("Invalid first name");
         }
         this.firstName = firstName;
@@ -182,7 +321,7 @@ public class Patient{
      */
     public void setLastName(String lastName) {
         //Ensure last name is valid and follows valid format (only letters and hyphens)
-        if(lastName.isEmpty() || !lastName.matches("^[a-zA-Z'-]{1,50}$")) {
+        if(!FieldValidators.isValidName(lastName)) {
             throw new IllegalArgumentException("Invalid last name");
         }
         this.lastName = lastName;
@@ -223,27 +362,120 @@ public class Patient{
     public void setEmail(String email) {
         //Ensure email is valid and has a simple valid format
         // (one char[isn't @] then a @ then at least one char[isn't @] then a . then at least one char[isn't @])
-        if(email==null|| email.isEmpty()||!email.matches("^[^@]+@[^@]+\\.[^@]+$")){
+        if(!FieldValidators.isValidEmail(email)){
             throw new IllegalArgumentException("Invalid email");
         }
         this.email = email;
     }
 
     /**
-     * Gets the adherence records of the patient
-     * @return the adherence records
+     * Gets the adherence records of the patient, archived ones included
+     * @return a read-only view of the adherence records recorded so far
+     * @throws java.io.UncheckedIOException if archived records can't be read
      */
-    public ArrayList<AdherenceRecord> getAdherenceRecords() {
-        return adherenceRecords;
+    public AdherenceHistory.View getAdherenceRecords() {
+        return viewAdherenceRecordsFrom(Integer.MIN_VALUE);
     }
 
+    /**
+     * Gets the adherence records of the patient from a time on. Archived records are only read
+     * back from segments that reach that time, so recent ranges are served from memory alone.
+     * @param fromEpochMinute the earliest time needed, in minutes since the epoch
+     * @return a read-only view that holds at least every record at or after the time, in time order
+     * @throws java.io.UncheckedIOException if archived records can't be read
+     */
+    public AdherenceHistory.View viewAdherenceRecordsFrom(int fromEpochMinute) {
+        List<ArchivedSegment> segments;
+        AdherenceHistory.View hot;
+        lock.readLock().lock();
+        try {
+            segments = archivedSegments;
+            hot = adherenceRecords.view();
+        } finally {
+            lock.readLock().unlock();
+        }
+        int first = 0;
+        while (first < segments.size() && segments.get(first).lastEpochMinute() < fromEpochMinute) {
+            first++;
+        }
+        if (first == segments.size()) {
+            return hot;
+        }
+        //Read outside the lock: the segments are immutable and the hot view is a snapshot
+        AdherenceHistory merged = new AdherenceHistory();
+        for (int i = first; i < segments.size(); i++) {
+            segments.get(i).appendTo(merged, fromEpochMinute);
+        }
+        merged.appendAll(hot);
+        return merged.view();
+    }
+
+    /**
+     * Gets the adherence records held in memory, without archived ones
+     * (not a getter, so it stays out of the patient's JSON)
+     * @return a read-only view of the in-memory records
+     */
+    public AdherenceHistory.View viewHotRecords() {
+        lock.readLock().lock();
+        try {
+            return adherenceRecords.view();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Counts the adherence records of the patient held in memory, without taking a view of them
+     * (not a getter, so it stays out of the patient's JSON)
+     * @return the number of adherence records in memory
+     */
+    public int countAdherenceRecords() {
+        lock.readLock().lock();
+        try {
+            return adherenceRecords.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Gets the patient's version, which increases with every change to its records, counters
+     * or schedule. Reads no other state, so it can tag a response before it is serialized
+     * (not a getter, so it stays out of the patient's JSON).
+     * @return the current version, 0 if the patient never changed
+     */
+    public long currentVersion() {
+        return version;
+    }
+
+    /**
+     * Registers the single listener run after every change to the patient, under its write lock
+     * @param listener the listener, or null for none
+     */
+    public void setChangeListener(Runnable listener) {
+        this.changeListener = listener;
+    }
+
+    //Called with the write lock held
+    private void changed() {
+        version++;
+        Runnable listener = changeListener;
+        if (listener != null) {
+            listener.run();
+        }
+    }
 
     /**
      * Gets the number of missed doses for the patient
      * @return the number of missed doses
      */
     public int getMissedDoses() {
-        return missedDoses;
+        lock.readLock().lock();
+        try {
+            return missedDoses;
+        } finally {
+            lock.readLock().unlock();
+        }
     }
 
     /**
@@ -254,7 +486,13 @@ public class Patient{
         if(missedDoses<0){
             throw new IllegalArgumentException("Invalid missed doses");
         }
-        this.missedDoses = missedDoses;
+        lock.writeLock().lock();
+        try {
+            this.missedDoses = missedDoses;
+            changed();
+        } finally {
+            lock.writeLock().unlock();
+        }
     }
     public int getId(){
         return id;
@@ -265,7 +503,41 @@ public class Patient{
      * @return the adherence percentage
      */
     public double getAdherencePercentage() {
-        return adherencePercentage;
+        lock.readLock().lock();
+        try {
+            return adherencePercentage;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Computes the patient's adherence statistics: per-medication counts, miss streaks
+     * and rolling 7 and 30 day windows. Cost does not depend on the size of the history.
+     * @param today the last day (inclusive) of the rolling windows
+     * @return a snapshot of the statistics
+     */
+    public PatientStats computeStats(LocalDate today) {
+        lock.readLock().lock();
+        try {
+            return stats.snapshot(today);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Hands the patient's taken/missed counts per medication to a visitor, under the patient's lock.
+     * Unlike computeStats this builds no snapshot, for aggregating over many patients.
+     * @param visitor receives the counts of each medication
+     */
+    public void visitAdherenceCounts(AdherenceCountVisitor visitor) {
+        lock.readLock().lock();
+        try {
+            stats.visitMedications(visitor);
+        } finally {
+            lock.readLock().unlock();
+        }
     }
 
     /**
@@ -273,7 +545,25 @@ public class Patient{
      * @return the number of missed dose notifications
      */
     public int getMissedDoseNotis() {
-        return missedDoseNotis;
+        lock.readLock().lock();
+        try {
+            return missedDoseNotis;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Counts a missed dose notification raised for the patient by the alert engine
+     */
+    public void recordMissedDoseNotification() {
+        lock.writeLock().lock();
+        try {
+            missedDoseNotis++;
+            changed();
+        } finally {
+            lock.writeLock().unlock();
+        }
     }
 
     /**
@@ -284,16 +574,35 @@ public class Patient{
         return schedule;
     }
 
+    /**
+     * Gets how often a scheduled medication is to be taken
+     * @param medicationName the name of the medication
+     * @return the frequency, or null if the medication is not scheduled daily or weekly
+     */
+    public Frequency getScheduledFrequency(String medicationName) {
+        lock.readLock().lock();
+        try {
+            return schedule.getFrequency(medicationName);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
     // Add a method to get schedule medications in a serializable format
     public Map<String, Map<String, Object>> getScheduleMedications() {
-        return schedule != null ? schedule.getMedications() : new HashMap<>();
+        lock.readLock().lock();
+        try {
+            return schedule != null ? schedule.getMedications() : new HashMap<>();
+        } finally {
+            lock.readLock().unlock();
+        }
     }
 }
 
 class MedicationSchedule{
 
-    //Map to hold medication name with timing and dosage in a Pair
-    private HashMap<String,Pair<Frequency,Integer>> medications= new HashMap<>();
+    //Map to hold medication name with timing and dosage in an entry pair
+    private HashMap<String,Map.Entry<Frequency,Integer>> medications= new HashMap<>();
 
     //Initializes Medicine Schedule with one medication
     public MedicationSchedule(String medicationName, String timing, int dosage){
@@ -314,21 +623,37 @@ class MedicationSchedule{
      * @throws IllegalArgumentException if the medication name, timing, or dosage is invalid
      */
     public void addMedication(String medicationName, String timing, int dosage) {
-        if (medicationName == null || medicationName.isEmpty() || !medicationName.matches("[a-zA-Z\\s]+")) {
+        Frequency frequency = validate(medicationName, timing, dosage);
+        //Add medication using params
+        medications.put(medicationName, new AbstractMap.SimpleImmutableEntry<>(frequency, dosage));
+    }
+
+    //Checks a medication before it is added and parses its timing
+    static Frequency validate(String medicationName, String timing, int dosage) {
+        if (!FieldValidators.isValidMedicationName(medicationName)) {
             throw new IllegalArgumentException("Invalid medication name");
         }
         Frequency frequency = null;
         if (timing.equalsIgnoreCase("daily") || timing.equalsIgnoreCase("weekly")) {
             frequency = Frequency.valueOf(timing.toUpperCase());
         }
-        if (timing.isEmpty() || !timing.matches("[a-zA-Z]+")) {
+        if (!FieldValidators.isValidTiming(timing) || frequency == null) {
             throw new IllegalArgumentException("Invalid timing format or is empty");
         }
         if (dosage < 0) {
             throw new IllegalArgumentException("Invalid dosage");
         }
-        //Add medication using params
-        medications.put(medicationName, new Pair<>(frequency, dosage));
+        return frequency;
+    }
+
+    /**
+     * Gets how often a medication is to be taken
+     * @param medicationName the name of the medication
+     * @return the frequency, or null if the medication is not scheduled daily or weekly
+     */
+    public Frequency getFrequency(String medicationName) {
+        Map.Entry<Frequency, Integer> entry = medications.get(medicationName);
+        return entry == null ? null : entry.getKey();
     }
 
     // Add getter for medications
@@ -343,14 +668,3 @@ class MedicationSchedule{
         return result;
     }
 }
-enum Frequency{
-    DAILY,WEEKLY;
-    /**
-     * Returns the name of the frequency with the first letter capitalized.
-     * @return the capitalized name of the frequency
-     */
-    @Override
-    public String toString(){
-        return StringUtils.capitalize(this.name());
-    }
-}
\ No newline at end of file
@@ -0,0 +1,137 @@
+package com.medicationadherence.model;
+
+import java.util.Map;
+
+/**
+ * Point-in-time adherence statistics of one patient, as returned by the stats endpoint.
+ */
+public class PatientStats {
+    private final int taken;
+    private final int missed;
+    private final double adherencePercentage;
+    private final int currentMissStreak;
+    private final int longestMissStreak;
+    private final Window last7Days;
+    private final Window last30Days;
+    private final Map<String, MedicationStats> medications;
+
+    PatientStats(int taken, int missed, double adherencePercentage, int currentMissStreak, int longestMissStreak,
+                 Window last7Days, Window last30Days, Map<String, MedicationStats> medications) {
+        this.taken = taken;
+        this.missed = missed;
+        this.adherencePercentage = adherencePercentage;
+        this.currentMissStreak = currentMissStreak;
+        this.longestMissStreak = longestMissStreak;
+        this.last7Days = last7Days;
+        this.last30Days = last30Days;
+        this.medications = medications;
+    }
+
+    public int getTaken() {
+        return taken;
+    }
+
+    public int getMissed() {
+        return missed;
+    }
+
+    public double getAdherencePercentage() {
+        return adherencePercentage;
+    }
+
+    public int getCurrentMissStreak() {
+        return currentMissStreak;
+    }
+
+    public int getLongestMissStreak() {
+        return longestMissStreak;
+    }
+
+    public Window getLast7Days() {
+        return last7Days;
+    }
+
+    public Window getLast30Days() {
+        return last30Days;
+    }
+
+    /**
+     * Gets the statistics per medication (scheduled medications and any medication with recorded doses)
+     * @return map of medication name to its statistics
+     */
+    public Map<String, MedicationStats> getMedications() {
+        return medications;
+    }
+
+    /**
+     * Doses taken and missed over the last few days (today included).
+     */
+    public static class Window {
+        private final int days;
+        private final int taken;
+        private final int missed;
+        private final double adherencePercentage;
+
+        Window(int days, int taken, int missed, double adherencePercentage) {
+            this.days = days;
+            this.taken = taken;
+            this.missed = missed;
+            this.adherencePercentage = adherencePercentage;
+        }
+
+        public int getDays() {
+            return days;
+        }
+
+        public int getTaken() {
+            return taken;
+        }
+
+        public int getMissed() {
+            return missed;
+        }
+
+        public double getAdherencePercentage() {
+            return adherencePercentage;
+        }
+    }
+
+    /**
+     * Doses taken and missed for a single medication.
+     */
+    public static class MedicationStats {
+        private final int taken;
+        private final int missed;
+        private final double adherencePercentage;
+        private final int currentMissStreak;
+        private final int longestMissStreak;
+
+        MedicationStats(int taken, int missed, double adherencePercentage, int currentMissStreak, int longestMissStreak) {
+            this.taken = taken;
+            this.missed = missed;
+            this.adherencePercentage = adherencePercentage;
+            this.currentMissStreak = currentMissStreak;
+            this.longestMissStreak = longestMissStreak;
+        }
+
+        public int getTaken() {
+            return taken;
+        }
+
+        public int getMissed() {
+            return missed;
+        }
+
+        public double getAdherencePercentage() {
+            return adherencePercentage;
+        }
+
+        public int getCurrentMissStreak() {
+            return currentMissStreak;
+        }
+
+        public int getLongestMissStreak() {
+            return longestMissStreak;
+        }
+    }
+}
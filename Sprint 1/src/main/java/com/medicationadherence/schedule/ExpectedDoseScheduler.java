@@ -0,0 +1,319 @@
+package com.medicationadherence.schedule;
+
+import com.medicationadherence.alert.AlertEngine;
+import com.medicationadherence.model.AdherenceHistory;
+import com.medicationadherence.model.AdherenceRecord;
+import com.medicationadherence.model.Frequency;
+import com.medicationadherence.model.Patient;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.time.Clock;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Derives expected doses from patients' medication schedules and records a miss for every dose
+ * that is not reported in time.
+ * Each scheduled medication is divided into periods (a day or a week) starting when it was
+ * scheduled. Any adherence record of the medication (taken or not) that is dated in the current
+ * period, or within the grace period after it, accounts for that period. Otherwise, once the
+ * grace period has passed, a missed dose (dosage 0) dated at the end of the period is recorded
+ * and handed to the alert rules. Every scheduled medication has exactly one timer, for the
+ * deadline of its current period, kept in a TimerWheel with one tick per minute.
+ * Times are epoch minutes of local date-times, like the adherence records themselves.
+ */
+@Component
+public class ExpectedDoseScheduler implements MeterBinder {
+
+    private static final Logger log = LoggerFactory.getLogger(ExpectedDoseScheduler.class);
+
+    private final AlertEngine alerts;
+    private final Clock clock;
+    private final int graceMinutes;
+    private final long pollMillis;
+    private final Thread ticker;
+    private volatile boolean running = true;
+
+    //Guards the wheel and the expected doses; never held while calling into a patient
+    private final ReentrantLock lock = new ReentrantLock();
+    private final TimerWheel<ExpectedDose> wheel;
+    private final HashMap<Integer, List<ExpectedDose>> dosesByPatient = new HashMap<>();
+    private final AtomicLong recordedMisses = new AtomicLong();
+
+    public ExpectedDoseScheduler(AlertEngine alerts,
+                                 Clock clock,
+                                 @Value("${adherence.schedule.grace-minutes:120}") int graceMinutes,
+                                 @Value("${adherence.schedule.poll-seconds:15}") long pollSeconds) {
+        if (graceMinutes < 0 || pollSeconds <= 0) {
+            throw new IllegalArgumentException("Invalid schedule configuration");
+        }
+        this.alerts = alerts;
+        this.clock = clock;
+        this.graceMinutes = graceMinutes;
+        this.pollMillis = TimeUnit.SECONDS.toMillis(pollSeconds);
+        this.wheel = new TimerWheel<>(nowMinute());
+        this.ticker = new Thread(this::tickLoop, "expected-dose-scheduler");
+        this.ticker.setDaemon(true);
+        this.ticker.start();
+    }
+
+    /**
+     * Gets when the periods of a medication scheduled now start, to be stored with the schedule
+     * before it is tracked
+     * @return the start of the first period
+     */
+    public LocalDateTime newPeriodStart() {
+        lock.lock();
+        try {
+            return AdherenceHistory.fromEpochMinute((int) wheel.getCurrentTick());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Starts (or restarts) expecting doses of a scheduled medication, in periods starting at
+     * the given time. Medications not scheduled daily or weekly are not tracked.
+     * @param patient the patient the medication is scheduled for
+     * @param medicationName the name of the scheduled medication
+     * @param scheduledAt when the medication's periods start, as returned by newPeriodStart
+     */
+    public void track(Patient patient, String medicationName, LocalDateTime scheduledAt) {
+        Frequency frequency = patient.getScheduledFrequency(medicationName);
+        lock.lock();
+        try {
+            if (frequency == null) {
+                untrack(patient.getId(), medicationName);
+                return;
+            }
+            arm(patient, medicationName, frequency, AdherenceHistory.toEpochMinute(scheduledAt));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Resumes expecting doses of a medication scheduled before a restart, keeping the periods
+     * that started when it was scheduled. The first period expected is the oldest one whose
+     * deadline has not passed; periods that ended while the application was down are not
+     * recorded as missed. Restored adherence records are credited the way onRecord did before
+     * the restart, starting one period earlier: a record in the grace period of the previous
+     * period (a late dose, or the miss recorded for it) accounts for that period, not for the
+     * one expected. Call this once the patient's history is restored.
+     * @param patient the patient the medication is scheduled for
+     * @param medicationName the name of the scheduled medication
+     * @param scheduledAt when the medication's periods started, as passed to track
+     */
+    public void restore(Patient patient, String medicationName, LocalDateTime scheduledAt) {
+        Frequency frequency = patient.getScheduledFrequency(medicationName);
+        if (frequency == null) {
+            return;
+        }
+        int periodMinutes = (int) frequency.getPeriod().toMinutes();
+        int scheduledMinute = AdherenceHistory.toEpochMinute(scheduledAt);
+        int elapsedPeriods = Math.max(0, Math.floorDiv(nowMinute() - graceMinutes - scheduledMinute, periodMinutes));
+        int expectedStart = scheduledMinute + elapsedPeriods * periodMinutes;
+        int periodStart = elapsedPeriods > 0 ? expectedStart - periodMinutes : expectedStart;
+        //Read before taking the lock, which is never held while calling into a patient
+        AdherenceHistory.View records = patient.viewAdherenceRecordsFrom(periodStart);
+        int medicationId = records.medicationIdOf(medicationName);
+        for (int i = records.fromIndex(periodStart); medicationId >= 0 && i < records.size(); i++) {
+            int minute = records.epochMinute(i);
+            if (records.medicationId(i) != medicationId || minute < periodStart) {
+                continue;
+            }
+            //Past the deadline: the period was missed, whether or not a miss was recorded for it
+            while (minute >= periodStart + periodMinutes + graceMinutes) {
+                periodStart += periodMinutes;
+            }
+            if (minute >= periodStart) {
+                periodStart += periodMinutes;
+            }
+        }
+        //The previous period's deadline has passed, accounted for or not
+        periodStart = Math.max(periodStart, expectedStart);
+        lock.lock();
+        try {
+            arm(patient, medicationName, frequency, periodStart);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Accounts for the current period of the record's medication, if the record falls into it
+     * @param patientId the id of the patient the record belongs to
+     * @param record the recorded dose
+     */
+    public void onRecord(int patientId, AdherenceRecord record) {
+        int minute = AdherenceHistory.toEpochMinute(record.getTimeTaken());
+        lock.lock();
+        try {
+            ExpectedDose dose = find(patientId, record.getMedicationName());
+            if (dose != null && minute >= dose.periodStart && minute < dose.deadline(graceMinutes)) {
+                dose.periodStart += dose.periodMinutes;
+                wheel.arm(dose, dose.deadline(graceMinutes));
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Records a miss for every expected dose whose deadline has passed by the clock's current time
+     */
+    public void advance() {
+        List<ExpectedDose> due = new ArrayList<>();
+        List<AdherenceRecord> misses = new ArrayList<>();
+        lock.lock();
+        try {
+            wheel.advance(nowMinute(), dose -> {
+                due.add(dose);
+                misses.add(new AdherenceRecord(dose.medicationName, 0,
+                        AdherenceHistory.fromEpochMinute(dose.periodStart + dose.periodMinutes)));
+                //Expect the next period's dose right away, so its deadline is never skipped
+                dose.periodStart += dose.periodMinutes;
+                wheel.arm(dose, dose.deadline(graceMinutes));
+            });
+        } finally {
+            lock.unlock();
+        }
+        for (int i = 0; i < due.size(); i++) {
+            Patient patient = due.get(i).patient;
+            AdherenceRecord miss = misses.get(i);
+            try {
+                patient.addAdherenceRecord(miss);
+                recordedMisses.incrementAndGet();
+                alerts.publish(patient.getId(), miss);
+            } catch (RejectedExecutionException e) {
+                log.warn("Could not record expected dose of {} for patient {} as missed (store is full)",
+                        miss.getMedicationName(), patient.getId());
+            } catch (RuntimeException e) {
+                log.error("Could not record expected dose of {} for patient {} as missed",
+                        miss.getMedicationName(), patient.getId(), e);
+            }
+        }
+    }
+
+    /**
+     * Gets the number of scheduled medications whose doses are expected
+     * @return the number of tracked medications
+     */
+    public int getTrackedMedications() {
+        lock.lock();
+        try {
+            return wheel.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Gets the number of misses recorded because an expected dose was not reported
+     * @return the number of misses recorded since startup
+     */
+    public long getRecordedMisses() {
+        return recordedMisses.get();
+    }
+
+    @Override
+    public void bindTo(MeterRegistry meterRegistry) {
+        Gauge.builder("adherence.schedule.tracked", this, ExpectedDoseScheduler::getTrackedMedications)
+                .description("Scheduled medications whose next dose is expected")
+                .register(meterRegistry);
+        FunctionCounter.builder("adherence.schedule.recorded_misses", recordedMisses, AtomicLong::get)
+                .description("Doses recorded as missed because they were not reported in time")
+                .register(meterRegistry);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        running = false;
+        ticker.interrupt();
+    }
+
+    private void tickLoop() {
+        while (running) {
+            try {
+                Thread.sleep(pollMillis);
+            } catch (InterruptedException e) {
+                return;
+            }
+            try {
+                advance();
+            } catch (RuntimeException e) {
+                log.error("Expected dose scheduling failed", e);
+            }
+        }
+    }
+
+    private int nowMinute() {
+        return AdherenceHistory.toEpochMinute(LocalDateTime.now(clock));
+    }
+
+    //Callers hold the lock
+    private void arm(Patient patient, String medicationName, Frequency frequency, int periodStart) {
+        ExpectedDose dose = find(patient.getId(), medicationName);
+        if (dose == null) {
+            dose = new ExpectedDose(patient, medicationName);
+            dosesByPatient.computeIfAbsent(patient.getId(), id -> new ArrayList<>(2)).add(dose);
+        }
+        dose.periodMinutes = (int) frequency.getPeriod().toMinutes();
+        dose.periodStart = periodStart;
+        wheel.arm(dose, dose.deadline(graceMinutes));
+    }
+
+    //Callers hold the lock
+    private void untrack(int patientId, String medicationName) {
+        ExpectedDose dose = find(patientId, medicationName);
+        if (dose != null) {
+            wheel.cancel(dose);
+            dosesByPatient.get(patientId).remove(dose);
+        }
+    }
+
+    private ExpectedDose find(int patientId, String medicationName) {
+        List<ExpectedDose> doses = dosesByPatient.get(patientId);
+        if (doses == null) {
+            return null;
+        }
+        for (ExpectedDose dose : doses) {
+            if (dose.medicationName.equals(medicationName)) {
+                return dose;
+            }
+        }
+        return null;
+    }
+
+    //The dose of one scheduled medication expected in its current period
+    private static final class ExpectedDose extends TimerWheel.Timer {
+        private final Patient patient;
+        private final String medicationName;
+        private int periodMinutes;
+        //First minute of the current period
+        private int periodStart;
+
+        ExpectedDose(Patient patient, String medicationName) {
+            this.patient = patient;
+            this.medicationName = medicationName;
+        }
+
+        int deadline(int graceMinutes) {
+            return periodStart + periodMinutes + graceMinutes;
+        }
+    }
+}
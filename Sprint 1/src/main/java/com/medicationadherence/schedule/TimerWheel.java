@@ -0,0 +1,191 @@
+package com.medicationadherence.schedule;
+
+import java.util.function.Consumer;
+
+/**
+ * Hierarchical timer wheel: millions of pending timers with O(1) arm and cancel.
+ * Time is measured in whole ticks. Level 0 has one slot per tick for the next 64 ticks; each
+ * higher level has 64 slots that each cover 64 times the span of a slot one level down, so
+ * four levels reach 2^24 ticks ahead (about 32 years at one tick per minute). A timer sits in
+ * the coarsest slot that still separates it from the present, and moves down ("cascades")
+ * when the wheel below wraps around to it. Timers are intrusive doubly-linked list nodes, so
+ * arming, cancelling and cascading never allocate.
+ * Not thread-safe: the owner serializes all calls.
+ * @param <T> the type of timer kept in the wheel
+ */
+public class TimerWheel<T extends TimerWheel.Timer> {
+
+    private static final int BITS = 6;
+    private static final int SLOTS = 1 << BITS;
+    private static final int MASK = SLOTS - 1;
+    private static final int LEVELS = 4;
+    //Timers further ahead are kept in the top level and re-placed until they come into range
+    private static final long MAX_DELTA = (1L << (BITS * LEVELS)) - 1;
+
+    private final Timer[][] slots = new Timer[LEVELS][SLOTS];
+    private long currentTick;
+    private int size;
+
+    /**
+     * Creates an empty wheel
+     * @param currentTick the tick the wheel starts at
+     */
+    public TimerWheel(long currentTick) {
+        this.currentTick = currentTick;
+    }
+
+    /**
+     * Arms a timer, first cancelling it if it is already armed.
+     * A deadline that is not after the current tick expires on the next tick.
+     * @param timer the timer to arm
+     * @param deadlineTick the tick at which the timer expires
+     */
+    public void arm(T timer, long deadlineTick) {
+        Timer node = timer;
+        cancel(timer);
+        node.deadline = deadlineTick;
+        //The current tick has already been processed
+        place(node, currentTick + 1);
+        size++;
+    }
+
+    /**
+     * Cancels a timer. Does nothing if it is not armed.
+     * @param timer the timer to cancel
+     */
+    public void cancel(T timer) {
+        Timer node = timer;
+        if (node.level < 0) {
+            return;
+        }
+        unlink(node);
+        size--;
+    }
+
+    /**
+     * Advances the wheel to the given tick, handing every timer whose deadline has been reached
+     * to the consumer (in tick order). The consumer may arm and cancel timers, including the
+     * one it is handed.
+     * @param tick the tick to advance to; earlier ticks are ignored
+     * @param expired receives each expired timer, no longer armed
+     */
+    @SuppressWarnings("unchecked")
+    public void advance(long tick, Consumer<? super T> expired) {
+        while (currentTick < tick) {
+            currentTick++;
+            int index = (int) (currentTick & MASK);
+            //The levels above wrap into this tick: move their timers down, coarsest last
+            for (int level = 1; level < LEVELS && index == 0; level++) {
+                index = (int) ((currentTick >>> (BITS * level)) & MASK);
+                cascade(level, index);
+            }
+            Timer due = slots[0][(int) (currentTick & MASK)];
+            slots[0][(int) (currentTick & MASK)] = null;
+            while (due != null) {
+                Timer next = due.next;
+                due.level = -1;
+                due.prev = null;
+                due.next = null;
+                if (due.deadline <= currentTick) {
+                    size--;
+                    expired.accept((T) due);
+                } else {
+                    //Only timers beyond the wheel's range come around early
+                    place(due, currentTick + 1);
+                }
+                due = next;
+            }
+        }
+    }
+
+    /**
+     * Gets the tick the wheel has advanced to
+     * @return the current tick
+     */
+    public long getCurrentTick() {
+        return currentTick;
+    }
+
+    /**
+     * Gets the number of armed timers
+     * @return the number of timers
+     */
+    public int size() {
+        return size;
+    }
+
+    private void cascade(int level, int index) {
+        Timer timer = slots[level][index];
+        slots[level][index] = null;
+        while (timer != null) {
+            Timer next = timer.next;
+            timer.prev = null;
+            timer.next = null;
+            //Cascading happens before the current tick's level 0 slot is processed
+            place(timer, currentTick);
+            timer = next;
+        }
+    }
+
+    private void place(Timer timer, long earliestTick) {
+        long deadline = Math.max(timer.deadline, earliestTick);
+        long delta = Math.min(deadline - currentTick, MAX_DELTA);
+        int level = 0;
+        while (delta >= (1L << (BITS * (level + 1)))) {
+            level++;
+        }
+        long slotTick = level == LEVELS - 1 ? currentTick + delta : deadline;
+        int index = (int) ((slotTick >>> (BITS * level)) & MASK);
+        Timer head = slots[level][index];
+        timer.level = level;
+        timer.index = index;
+        timer.prev = null;
+        timer.next = head;
+        if (head != null) {
+            head.prev = timer;
+        }
+        slots[level][index] = timer;
+    }
+
+    private void unlink(Timer timer) {
+        if (timer.prev == null) {
+            slots[timer.level][timer.index] = timer.next;
+        } else {
+            timer.prev.next = timer.next;
+        }
+        if (timer.next != null) {
+            timer.next.prev = timer.prev;
+        }
+        timer.prev = null;
+        timer.next = null;
+        timer.level = -1;
+    }
+
+    /**
+     * A node that can be armed in a TimerWheel. Extend it to carry the timer's payload.
+     */
+    public abstract static class Timer {
+        private long deadline;
+        private Timer prev;
+        private Timer next;
+        //Slot the timer is linked into; level -1 when not armed
+        private int level = -1;
+        private int index;
+
+        /**
+         * Gets the tick at which the timer expires (or expired)
+         * @return the deadline tick
+         */
+        public long getDeadline() {
+            return deadline;
+        }
+
+        /**
+         * Whether the timer is armed
+         * @return true if the timer is waiting in a wheel
+         */
+        public boolean isArmed() {
+            return level >= 0;
+        }
+    }
+}
@@ -0,0 +1,233 @@
+package com.medicationadherence.service;
+
+import com.medicationadherence.model.AdherenceCountVisitor;
+import com.medicationadherence.model.Patient;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.TreeMap;
+
+/**
+ * Aggregates adherence over the whole in-memory registry in one parallel pass.
+ * Each fork-join worker folds its share of patients into its own Accumulator (counts per
+ * medication and age band, a histogram of per-patient adherence and a bounded heap of the
+ * worst-adhering patients); the accumulators are then merged pairwise. Nothing is shared
+ * between workers, so the pass scales with the number of cores.
+ */
+@Component
+public class CohortAnalytics {
+
+    static final int AGE_BAND_YEARS = 10;
+    //Ages from 100 on share the last band
+    static final int AGE_BANDS = 11;
+    //Per-patient adherence histogram in steps of 0.1 percentage points
+    private static final int HISTOGRAM_BINS = 1001;
+
+    private final PatientRegistry patients;
+
+    public CohortAnalytics(PatientRegistry patients) {
+        this.patients = patients;
+    }
+
+    /**
+     * Computes the cohort report
+     * @param top number of worst-adhering patients to return
+     * @param minDoses minimum number of recorded doses for a patient to be ranked and counted in the quantiles
+     * @param quantiles the quantiles of per-patient adherence to return, each between 0 and 1
+     * @return the report
+     */
+    public CohortReport analyze(int top, int minDoses, double[] quantiles) {
+        Accumulator result = patients.parallelStream().collect(
+                () -> new Accumulator(top, minDoses), Accumulator::add, Accumulator::merge);
+        return result.toReport(quantiles);
+    }
+
+    private static double percentage(long taken, long missed) {
+        long all = taken + missed;
+        if (all == 0) {
+            return 0;
+        }
+        return Math.round((double) taken / all * 100 * 100) / 100.0;
+    }
+
+    /**
+     * Mutable, mergeable partial result of one worker. Not thread-safe.
+     */
+    static final class Accumulator implements AdherenceCountVisitor {
+        //Worst first: lowest adherence, then most misses, then lowest id
+        private static final Comparator<Ranked> WORST_FIRST = Comparator
+                .comparingDouble((Ranked r) -> r.adherence)
+                .thenComparing(Comparator.comparingInt((Ranked r) -> r.missed).reversed())
+                .thenComparingInt(r -> r.patient.getId());
+
+        private final int top;
+        private final int minDoses;
+        private int patients;
+        private int patientsWithDoses;
+        private long taken;
+        private long missed;
+        private final HashMap<String, long[]> byMedication = new HashMap<>();
+        //{patients, taken, missed} per band
+        private final long[][] byAgeBand = new long[AGE_BANDS][3];
+        private final long[] histogram = new long[HISTOGRAM_BINS];
+        //Keeps the 'top' worst patients seen; its head is the best of them, the next to be evicted
+        private final PriorityQueue<Ranked> worst;
+
+        //Counts of the patient being added, filled in by the visitor
+        private int patientTaken;
+        private int patientMissed;
+
+        Accumulator(int top, int minDoses) {
+            this.top = top;
+            this.minDoses = minDoses;
+            this.worst = new PriorityQueue<>(Math.max(1, top + 1), WORST_FIRST.reversed());
+        }
+
+        void add(Patient patient) {
+            patientTaken = 0;
+            patientMissed = 0;
+            patient.visitAdherenceCounts(this);
+            patients++;
+            taken += patientTaken;
+            missed += patientMissed;
+            long[] band = byAgeBand[Math.min(patient.getAge() / AGE_BAND_YEARS, AGE_BANDS - 1)];
+            band[0]++;
+            band[1] += patientTaken;
+            band[2] += patientMissed;
+            if (patientTaken + patientMissed < Math.max(1, minDoses)) {
+                return;
+            }
+            patientsWithDoses++;
+            double adherence = (double) patientTaken / (patientTaken + patientMissed) * 100;
+            histogram[(int) Math.round(adherence * 10)]++;
+            //Most patients rank better than the current worst; don't allocate for them
+            if (top > 0 && (worst.size() < top || adherence <= worst.peek().adherence)) {
+                offer(new Ranked(patient, patientTaken, patientMissed, adherence));
+            }
+        }
+
+        @Override
+        public void visit(String medicationName, int taken, int missed) {
+            long[] counts = byMedication.get(medicationName);
+            if (counts == null) {
+                counts = new long[3];
+                byMedication.put(medicationName, counts);
+            }
+            counts[0]++;
+            counts[1] += taken;
+            counts[2] += missed;
+            patientTaken += taken;
+            patientMissed += missed;
+        }
+
+        void merge(Accumulator other) {
+            patients += other.patients;
+            patientsWithDoses += other.patientsWithDoses;
+            taken += other.taken;
+            missed += other.missed;
+            other.byMedication.forEach((name, counts) -> {
+                long[] mine = byMedication.get(name);
+                if (mine == null) {
+                    byMedication.put(name, counts);
+                } else {
+                    for (int i = 0; i < 3; i++) {
+                        mine[i] += counts[i];
+                    }
+                }
+            });
+            for (int band = 0; band < AGE_BANDS; band++) {
+                for (int i = 0; i < 3; i++) {
+                    byAgeBand[band][i] += other.byAgeBand[band][i];
+                }
+            }
+            for (int i = 0; i < HISTOGRAM_BINS; i++) {
+                histogram[i] += other.histogram[i];
+            }
+            for (Ranked ranked : other.worst) {
+                offer(ranked);
+            }
+        }
+
+        private void offer(Ranked ranked) {
+            if (top <= 0) {
+                return;
+            }
+            if (worst.size() < top) {
+                worst.add(ranked);
+            } else if (WORST_FIRST.compare(ranked, worst.peek()) < 0) {
+                worst.poll();
+                worst.add(ranked);
+            }
+        }
+
+        CohortReport toReport(double[] quantiles) {
+            Map<String, CohortReport.Group> medications = new TreeMap<>();
+            byMedication.forEach((name, counts) -> medications.put(name,
+                    new CohortReport.Group(name, (int) counts[0], counts[1], counts[2], percentage(counts[1], counts[2]))));
+            List<CohortReport.Group> ageBands = new ArrayList<>();
+            for (int band = 0; band < AGE_BANDS; band++) {
+                long[] counts = byAgeBand[band];
+                if (counts[0] == 0) {
+                    continue;
+                }
+                int from = band * AGE_BAND_YEARS;
+                String name = band == AGE_BANDS - 1 ? from + "+" : from + "-" + (from + AGE_BAND_YEARS - 1);
+                ageBands.add(new CohortReport.Group(name, (int) counts[0], counts[1], counts[2], percentage(counts[1], counts[2])));
+            }
+            List<Ranked> ranked = new ArrayList<>(worst);
+            ranked.sort(WORST_FIRST);
+            List<CohortReport.RankedPatient> worstPatients = new ArrayList<>(ranked.size());
+            for (Ranked r : ranked) {
+                worstPatients.add(new CohortReport.RankedPatient(r.patient.getId(), r.patient.getFirstName(),
+                        r.patient.getLastName(), r.taken, r.missed, percentage(r.taken, r.missed)));
+            }
+            return new CohortReport(patients, patientsWithDoses,
+                    new CohortReport.Group("all", patients, taken, missed, percentage(taken, missed)),
+                    medications, ageBands, quantiles(quantiles), worstPatients);
+        }
+
+        //Nearest-rank quantiles read off the histogram
+        private Map<String, Double> quantiles(double[] quantiles) {
+            Map<String, Double> values = new LinkedHashMap<>();
+            if (patientsWithDoses == 0) {
+                return values;
+            }
+            for (double q : quantiles) {
+                long rank = Math.max(1, (long) Math.ceil(q * patientsWithDoses));
+                long seen = 0;
+                int bin = 0;
+                while (bin < HISTOGRAM_BINS - 1 && (seen += histogram[bin]) < rank) {
+                    bin++;
+                }
+                values.put(quantileName(q), bin / 10.0);
+            }
+            return values;
+        }
+
+        private static String quantileName(double q) {
+            String digits = Double.toString(q * 100);
+            return "p" + (digits.endsWith(".0") ? digits.substring(0, digits.length() - 2) : digits);
+        }
+    }
+
+    //A patient with the counts it was ranked by
+    private static final class Ranked {
+        private final Patient patient;
+        private final int taken;
+        private final int missed;
+        private final double adherence;
+
+        Ranked(Patient patient, int taken, int missed, double adherence) {
+            this.patient = patient;
+            this.taken = taken;
+            this.missed = missed;
+            this.adherence = adherence;
+        }
+    }
+}
@@ -0,0 +1,142 @@
+package com.medicationadherence.service;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Population-level adherence over all registered patients, as returned by the cohort analytics endpoint.
+ */
+public class CohortReport {
+    private final int patients;
+    private final int patientsWithDoses;
+    private final Group total;
+    private final Map<String, Group> byMedication;
+    private final List<Group> byAgeBand;
+    private final Map<String, Double> adherenceQuantiles;
+    private final List<RankedPatient> worstPatients;
+
+    CohortReport(int patients, int patientsWithDoses, Group total, Map<String, Group> byMedication, List<Group> byAgeBand,
+                 Map<String, Double> adherenceQuantiles, List<RankedPatient> worstPatients) {
+        this.patients = patients;
+        this.patientsWithDoses = patientsWithDoses;
+        this.total = total;
+        this.byMedication = byMedication;
+        this.byAgeBand = byAgeBand;
+        this.adherenceQuantiles = adherenceQuantiles;
+        this.worstPatients = worstPatients;
+    }
+
+    public int getPatients() {
+        return patients;
+    }
+
+    //Patients with at least the minimum number of recorded doses; only they are ranked and in the quantiles
+    public int getPatientsWithDoses() {
+        return patientsWithDoses;
+    }
+
+    public Group getTotal() {
+        return total;
+    }
+
+    public Map<String, Group> getByMedication() {
+        return byMedication;
+    }
+
+    public List<Group> getByAgeBand() {
+        return byAgeBand;
+    }
+
+    //Per-patient adherence percentage at each requested quantile (e.g. "p50"), accurate to 0.1
+    public Map<String, Double> getAdherenceQuantiles() {
+        return adherenceQuantiles;
+    }
+
+    public List<RankedPatient> getWorstPatients() {
+        return worstPatients;
+    }
+
+    /**
+     * Dose counts of a group of patients
+     */
+    public static class Group {
+        private final String name;
+        private final int patients;
+        private final long taken;
+        private final long missed;
+        private final double adherencePercentage;
+
+        Group(String name, int patients, long taken, long missed, double adherencePercentage) {
+            this.name = name;
+            this.patients = patients;
+            this.taken = taken;
+            this.missed = missed;
+            this.adherencePercentage = adherencePercentage;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public int getPatients() {
+            return patients;
+        }
+
+        public long getTaken() {
+            return taken;
+        }
+
+        public long getMissed() {
+            return missed;
+        }
+
+        public double getAdherencePercentage() {
+            return adherencePercentage;
+        }
+    }
+
+    /**
+     * One patient in the worst-adhering ranking
+     */
+    public static class RankedPatient {
+        private final int id;
+        private final String firstName;
+        private final String lastName;
+        private final int taken;
+        private final int missed;
+        private final double adherencePercentage;
+
+        RankedPatient(int id, String firstName, String lastName, int taken, int missed, double adherencePercentage) {
+            this.id = id;
+            this.firstName = firstName;
+            this.lastName = lastName;
+            this.taken = taken;
+            this.missed = missed;
+            this.adherencePercentage = adherencePercentage;
+        }
+
+        public int getId() {
+            return id;
+        }
+
+        public String getFirstName() {
+            return firstName;
+        }
+
+        public String getLastName() {
+            return lastName;
+        }
+
+        public int getTaken() {
+            return taken;
+        }
+
+        public int getMissed() {
+            return missed;
+        }
+
+        public double getAdherencePercentage() {
+            return adherencePercentage;
+        }
+    }
+}
@@ -0,0 +1,193 @@
+package com.medicationadherence.service;
+
+import com.medicationadherence.model.Patient;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Stream;
+
+/**
+ * Thread-safe in-memory registry of patients, indexed by patient id.
+ * Lookups are O(1) and inserts are safe from concurrent request threads.
+ * A second, id-ordered index serves listings and keyset pagination, and a prefix index over
+ * names and emails serves searches.
+ * Mutation of a single patient is guarded by that patient's own lock.
+ */
+@Component
+public class PatientRegistry implements MeterBinder {
+
+    private final ConcurrentHashMap<Integer, Patient> patientsById = new ConcurrentHashMap<>();
+    //Same patients ordered by id, for listing and keyset pagination
+    private final ConcurrentSkipListMap<Integer, Patient> patientsInIdOrder = new ConcurrentSkipListMap<>();
+    //First names, last names and emails, for prefix search
+    private final PatientSearchIndex searchIndex = new PatientSearchIndex();
+    //(firstName, lastName, age) of every known or in-flight patient, mirroring the unique index in the database
+    private final Set<Identity> identities = ConcurrentHashMap.newKeySet();
+    //Patients added plus changes to any patient; only ever grows
+    private final LongAdder changes = new LongAdder();
+
+    /**
+     * Adds a patient to the registry
+     * @param patient the patient to add
+     * @throws IllegalStateException if a patient with the same id is already registered
+     */
+    public void add(Patient patient) {
+        if (patientsById.putIfAbsent(patient.getId(), patient) != null) {
+            throw new IllegalStateException("Patient " + patient.getId() + " is already registered");
+        }
+        patientsInIdOrder.put(patient.getId(), patient);
+        searchIndex.add(patient);
+        identities.add(new Identity(patient.getFirstName(), patient.getLastName(), patient.getAge()));
+        patient.setChangeListener(changes::increment);
+        changes.increment();
+    }
+
+    /**
+     * Claims a (firstName, lastName, age) identity before the patient is created, so
+     * duplicates are rejected without a database round trip. Concurrent claims of the
+     * same identity are decided atomically: only one caller gets true.
+     * @param firstName the first name
+     * @param lastName the last name
+     * @param age the age
+     * @return true if the identity was free and is now claimed, false if it is taken
+     */
+    public boolean reserveIdentity(String firstName, String lastName, int age) {
+        return identities.add(new Identity(firstName, lastName, age));
+    }
+
+    /**
+     * Releases an identity claimed with reserveIdentity when the patient was not created
+     * @param firstName the first name
+     * @param lastName the last name
+     * @param age the age
+     */
+    public void releaseIdentity(String firstName, String lastName, int age) {
+        identities.remove(new Identity(firstName, lastName, age));
+    }
+
+    /**
+     * Finds a patient by id
+     * @param id the patient's id
+     * @return the patient, or null if no patient has that id
+     */
+    public Patient find(int id) {
+        return patientsById.get(id);
+    }
+
+    /**
+     * Gets a snapshot of all registered patients, ordered by id
+     * @return list of all patients
+     */
+    public List<Patient> getAll() {
+        return new ArrayList<>(patientsInIdOrder.values());
+    }
+
+    /**
+     * Gets one page of patients in id order (keyset pagination): the first patients
+     * whose id is greater than the given cursor. Cost depends on the page size only.
+     * @param afterId the id of the last patient of the previous page (0 for the first page)
+     * @param limit the maximum number of patients to return
+     * @return the page of patients, ordered by id
+     */
+    public List<Patient> page(int afterId, int limit) {
+        List<Patient> page = new ArrayList<>(Math.min(limit, 1024));
+        for (Patient patient : patientsInIdOrder.tailMap(afterId, false).values()) {
+            if (page.size() == limit) {
+                break;
+            }
+            page.add(patient);
+        }
+        return page;
+    }
+
+    /**
+     * Searches patients by the start of their first name, last name or email, ignoring case.
+     * Every word of the query must match one of the fields. Cost depends on the number of index
+     * entries read until enough patients match, at most those of the most selective word, not on
+     * the number of patients.
+     * @param query the words to search for, e.g. "all dol"
+     * @param limit the maximum number of patients to return
+     * @return the matching patients; for a single word, ordered by the matched field, then by id
+     */
+    public List<Patient> search(String query, int limit) {
+        return searchIndex.search(query, limit);
+    }
+
+    /**
+     * Gets a parallel stream over all registered patients, in no particular order.
+     * Splits evenly across cores, for aggregations over the whole population.
+     * @return a parallel stream of the patients
+     */
+    public Stream<Patient> parallelStream() {
+        return patientsById.values().parallelStream();
+    }
+
+    /**
+     * Gets the registry's version, which increases whenever a patient is added or any patient changes.
+     * Read before building a response from the registry, it tags that response: a client holding
+     * the same version has seen every change since.
+     * @return the current version
+     */
+    public long version() {
+        return changes.sum();
+    }
+
+    /**
+     * Gets the number of registered patients
+     * @return the number of patients
+     */
+    public int size() {
+        return patientsById.size();
+    }
+
+    /**
+     * Publishes the number of patients and adherence records held in memory.
+     * The record gauge sums over all patients when it is scraped, not on every insert.
+     */
+    @Override
+    public void bindTo(MeterRegistry meterRegistry) {
+        Gauge.builder("adherence.patients", this, PatientRegistry::size)
+                .description("Patients held in memory")
+                .register(meterRegistry);
+        Gauge.builder("adherence.records", this, registry -> registry.parallelStream().mapToLong(Patient::countAdherenceRecords).sum())
+                .description("Adherence records held in memory")
+                .register(meterRegistry);
+    }
+
+    //Case-insensitive like the database's default collation
+    private static final class Identity {
+        private final String firstName;
+        private final String lastName;
+        private final int age;
+
+        Identity(String firstName, String lastName, int age) {
+            this.firstName = firstName == null ? "" : firstName.toLowerCase(Locale.ROOT);
+            this.lastName = lastName == null ? "" : lastName.toLowerCase(Locale.ROOT);
+            this.age = age;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Identity)) {
+                return false;
+            }
+            Identity other = (Identity) o;
+            return age == other.age && firstName.equals(other.firstName) && lastName.equals(other.lastName);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(firstName, lastName, age);
+        }
+    }
+}
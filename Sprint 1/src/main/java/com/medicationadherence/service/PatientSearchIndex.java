@@ -0,0 +1,109 @@
+package com.medicationadherence.service;
+
+import com.medicationadherence.model.Patient;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+/**
+ * Case-insensitive prefix index over patients' first names, last names and emails.
+ * Every field is one entry of a concurrent skip list, ordered case-insensitively, so the entries
+ * starting with a prefix are one contiguous range: a search seeks to the prefix in O(log n) and
+ * reads the range until it has enough matches. Entries reference the patient's own strings,
+ * nothing is copied or case-folded up front.
+ * Inserts never block searches; a search running concurrently with an insert may see that
+ * patient under some of its fields only.
+ */
+final class PatientSearchIndex {
+
+    private static final Comparator<Entry> ORDER = Comparator.<Entry, String>comparing(entry -> entry.term, String.CASE_INSENSITIVE_ORDER)
+            .thenComparingInt(entry -> entry.id);
+
+    private final ConcurrentSkipListSet<Entry> entries = new ConcurrentSkipListSet<>(ORDER);
+
+    /**
+     * Indexes a patient under its current names and email
+     * @param patient the patient to index
+     */
+    void add(Patient patient) {
+        add(patient.getFirstName(), patient);
+        add(patient.getLastName(), patient);
+        add(patient.getEmail(), patient);
+    }
+
+    /**
+     * Finds patients by prefix. Every whitespace-separated word of the query must be the start of
+     * one of the patient's fields, ignoring case ("all dol" finds Allison Dolores).
+     * A patient matching all words is in the range of every word, so the ranges are read in
+     * lockstep and the search ends with the shortest one: the cost follows the most selective word.
+     * Single-word results are ordered by the matched field, then by id; each patient appears once.
+     * @param query the words to search for
+     * @param limit the maximum number of patients to return
+     * @return the matching patients, empty if the query has no words
+     */
+    List<Patient> search(String query, int limit) {
+        String[] words = query.trim().split("\\s+");
+        List<Patient> found = new ArrayList<>(Math.min(limit, 64));
+        if (words[0].isEmpty() || limit <= 0) {
+            return found;
+        }
+        List<Iterator<Entry>> ranges = new ArrayList<>(words.length);
+        for (String word : words) {
+            ranges.add(entries.tailSet(new Entry(word, Integer.MIN_VALUE, null)).iterator());
+        }
+        Set<Integer> seen = new HashSet<>();
+        while (true) {
+            for (int i = 0; i < words.length; i++) {
+                Iterator<Entry> range = ranges.get(i);
+                Entry entry = range.hasNext() ? range.next() : null;
+                if (entry == null || !startsWith(entry.term, words[i])) {
+                    return found;
+                }
+                if (matchesAll(entry.patient, words) && seen.add(entry.id)) {
+                    found.add(entry.patient);
+                    if (found.size() == limit) {
+                        return found;
+                    }
+                }
+            }
+        }
+    }
+
+    private void add(String term, Patient patient) {
+        if (term != null && !term.isEmpty()) {
+            entries.add(new Entry(term, patient.getId(), patient));
+        }
+    }
+
+    private static boolean matchesAll(Patient patient, String[] words) {
+        for (String word : words) {
+            if (!startsWith(patient.getFirstName(), word) && !startsWith(patient.getLastName(), word)
+                    && !startsWith(patient.getEmail(), word)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    //Same case folding as String.CASE_INSENSITIVE_ORDER, so matches are exactly the range after the prefix
+    private static boolean startsWith(String term, String prefix) {
+        return term != null && term.regionMatches(true, 0, prefix, 0, prefix.length());
+    }
+
+    private static final class Entry {
+        private final String term;
+        private final int id;
+        private final Patient patient;
+
+        Entry(String term, int id, Patient patient) {
+            this.term = term;
+            this.id = id;
+            this.patient = patient;
+        }
+    }
+}
@@ -0,0 +1,300 @@
+package com.medicationadherence.service;
+
+import com.medicationadherence.archive.HistoryArchive;
+import com.medicationadherence.model.AdherenceRecord;
+import com.medicationadherence.model.Patient;
+import com.medicationadherence.schedule.ExpectedDoseScheduler;
+import com.medicationadherence.storage.AdherenceEventStore;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.boot.availability.AvailabilityChangeEvent;
+import org.springframework.boot.availability.ReadinessState;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Component;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Rebuilds the in-memory patient registry from the Patients, PatientMedications and AdherenceRecords
+ * tables at startup.
+ * The patient id space is split into ranges that are loaded in parallel; each range streams the
+ * tables with a forward-only cursor. Patients are restored without going through the
+ * insert-on-construct path, each with its archived history (see HistoryArchive) ahead of its
+ * database records. Once a patient is registered, the expected doses of its scheduled medications
+ * are re-armed with the ExpectedDoseScheduler, continuing the periods they had before.
+ * Runs before the application reports itself ready to accept traffic; until it has finished,
+ * API requests are answered with 503 by WarmStartFilter.
+ * Only used with mysql storage; the in-memory stores start empty.
+ */
+@Component
+@Profile("!in-memory")
+public class WarmStartLoader implements ApplicationRunner {
+
+    private static final Logger log = LoggerFactory.getLogger(WarmStartLoader.class);
+
+    private static final String SELECT_PATIENTS_SQL =
+            "SELECT id, firstName, lastName, age, email FROM Patients WHERE id BETWEEN ? AND ? ORDER BY id";
+    private static final String SELECT_RECORDS_SQL =
+            "SELECT patientId, medicationName, dosage, taken, timeTaken FROM AdherenceRecords "
+                    + "WHERE patientId BETWEEN ? AND ? ORDER BY patientId, timeTaken, id";
+    private static final String SELECT_MEDICATIONS_SQL =
+            "SELECT patientId, medicationName, frequency, dosage, scheduledAt FROM PatientMedications WHERE patientId BETWEEN ? AND ?";
+
+    private final DataSource dataSource;
+    private final PatientRegistry registry;
+    private final AdherenceEventStore adherenceEvents;
+    private final ApplicationEventPublisher events;
+    private final HistoryArchive archive;
+    private final ExpectedDoseScheduler expectedDoses;
+    private final boolean enabled;
+    private final int fetchSize;
+    private final int threads;
+    private final int rangesPerThread;
+    private final long timeoutSeconds;
+    private volatile boolean loading;
+
+    public WarmStartLoader(DataSource dataSource,
+                           PatientRegistry registry,
+                           AdherenceEventStore adherenceEvents,
+                           ApplicationEventPublisher events,
+                           HistoryArchive archive,
+                           ExpectedDoseScheduler expectedDoses,
+                           @Value("${adherence.warm-start.enabled:true}") boolean enabled,
+                           @Value("${adherence.warm-start.fetch-size:10000}") int fetchSize,
+                           @Value("${adherence.warm-start.threads:0}") int threads,
+                           @Value("${adherence.warm-start.ranges-per-thread:4}") int rangesPerThread,
+                           @Value("${adherence.warm-start.timeout-seconds:600}") long timeoutSeconds) {
+        this.dataSource = dataSource;
+        this.registry = registry;
+        this.adherenceEvents = adherenceEvents;
+        this.events = events;
+        this.archive = archive;
+        this.expectedDoses = expectedDoses;
+        this.enabled = enabled;
+        this.fetchSize = fetchSize;
+        //Each loader holds one pooled connection, so the default stays well below the pool size
+        this.threads = threads > 0 ? threads : Math.min(4, Runtime.getRuntime().availableProcessors());
+        this.rangesPerThread = Math.max(1, rangesPerThread);
+        this.timeoutSeconds = timeoutSeconds;
+        this.loading = enabled;
+    }
+
+    /**
+     * Loads all stored patients and their adherence records into the registry.
+     * @throws IllegalStateException if loading fails or does not finish within the timeout
+     */
+    @Override
+    public void run(ApplicationArguments args) throws Exception {
+        if (!enabled) {
+            return;
+        }
+        AvailabilityChangeEvent.publish(events, this, ReadinessState.REFUSING_TRAFFIC);
+        load();
+        //Stays set if loading fails; startup fails then, and no request may see the partial registry
+        loading = false;
+    }
+
+    /**
+     * Whether the registry is still being loaded. Runners only start once the web server accepts
+     * connections, so requests can arrive before the registry is complete; WarmStartFilter turns
+     * them away until this is false.
+     * @return true from construction until loading has finished, if the warm start is enabled
+     */
+    public boolean isLoading() {
+        return loading;
+    }
+
+    private void load() throws SQLException, InterruptedException {
+        long start = System.nanoTime();
+        long[] bounds = idBounds();
+        if (bounds == null) {
+            log.info("Warm start: no stored patients");
+            return;
+        }
+        List<long[]> ranges = split(bounds[0], bounds[1], threads * rangesPerThread);
+        AtomicInteger patientCount = new AtomicInteger();
+        AtomicLong recordCount = new AtomicLong();
+        ExecutorService pool = Executors.newFixedThreadPool(Math.min(threads, ranges.size()), runnable -> {
+            Thread thread = new Thread(runnable, "warm-start-loader");
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            List<Future<?>> loads = new ArrayList<>();
+            for (long[] range : ranges) {
+                loads.add(pool.submit(() -> {
+                    loadRange((int) range[0], (int) range[1], patientCount, recordCount);
+                    return null;
+                }));
+            }
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(timeoutSeconds);
+            for (Future<?> load : loads) {
+                load.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+            }
+        } catch (TimeoutException e) {
+            throw new IllegalStateException("Warm start did not finish within " + timeoutSeconds + " seconds", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Warm start failed", e.getCause());
+        } finally {
+            pool.shutdownNow();
+        }
+        long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        log.info("Warm start: loaded {} patients and {} adherence records in {} ms ({} ranges, {} threads, {} records/s)",
+                patientCount.get(), recordCount.get(), elapsedMillis, ranges.size(), threads,
+                elapsedMillis == 0 ? recordCount.get() : recordCount.get() * 1000 / elapsedMillis);
+    }
+
+    //Returns {minId, maxId} of the stored patients, or null if there are none
+    private long[] idBounds() throws SQLException {
+        try (Connection connection = dataSource.getConnection();
+             Statement statement = connection.createStatement();
+             ResultSet rs = statement.executeQuery("SELECT MIN(id), MAX(id) FROM Patients")) {
+            if (!rs.next() || rs.getObject(1) == null) {
+                return null;
+            }
+            return new long[]{rs.getLong(1), rs.getLong(2)};
+        }
+    }
+
+    //Splits [min, max] into at most the given number of contiguous id ranges
+    static List<long[]> split(long min, long max, int count) {
+        List<long[]> ranges = new ArrayList<>();
+        long width = Math.max(1, (max - min + count) / count);
+        for (long low = min; low <= max; low += width) {
+            ranges.add(new long[]{low, Math.min(max, low + width - 1)});
+        }
+        return ranges;
+    }
+
+    private void loadRange(int fromId, int toId, AtomicInteger patientCount, AtomicLong recordCount) throws SQLException {
+        try (Connection connection = dataSource.getConnection()) {
+            //Loader never writes; lets the driver skip write bookkeeping
+            connection.setReadOnly(true);
+            Map<Integer, Patient> loaded = loadPatients(connection, fromId, toId);
+            Map<Patient, Map<String, LocalDateTime>> schedules = loadMedications(connection, fromId, toId, loaded);
+            recordCount.addAndGet(loadRecords(connection, fromId, toId, loaded));
+            //Patients only become visible once their history is complete
+            for (Patient patient : loaded.values()) {
+                registry.add(patient);
+            }
+            //Restored records may already account for the expected periods, so doses are re-armed last
+            schedules.forEach((patient, medications) ->
+                    medications.forEach((medicationName, scheduledAt) -> expectedDoses.restore(patient, medicationName, scheduledAt)));
+            patientCount.addAndGet(loaded.size());
+        }
+    }
+
+    private Map<Integer, Patient> loadPatients(Connection connection, int fromId, int toId) throws SQLException {
+        Map<Integer, Patient> loaded = new LinkedHashMap<>();
+        try (PreparedStatement pstmt = streamingStatement(connection, SELECT_PATIENTS_SQL)) {
+            pstmt.setInt(1, fromId);
+            pstmt.setInt(2, toId);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    int id = rs.getInt(1);
+                    try {
+                        Patient patient = Patient.restore(adherenceEvents, id, rs.getString(2), rs.getString(3), rs.getInt(4), rs.getString(5));
+                        //Archived history is older than any record left in the database, so it goes first
+                        archive.restore(patient);
+                        loaded.put(id, patient);
+                    } catch (IllegalArgumentException e) {
+                        log.warn("Warm start: skipping patient {} with invalid stored data ({})", id, e.getMessage());
+                    }
+                }
+            }
+        }
+        return loaded;
+    }
+
+    //Puts the stored medications into the patients' schedules; returns when each medication's periods start
+    private Map<Patient, Map<String, LocalDateTime>> loadMedications(Connection connection, int fromId, int toId,
+                                                                     Map<Integer, Patient> loaded) throws SQLException {
+        Map<Patient, Map<String, LocalDateTime>> schedules = new LinkedHashMap<>();
+        try (PreparedStatement pstmt = streamingStatement(connection, SELECT_MEDICATIONS_SQL)) {
+            pstmt.setInt(1, fromId);
+            pstmt.setInt(2, toId);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    Patient patient = loaded.get(rs.getInt(1));
+                    if (patient == null) {
+                        continue;
+                    }
+                    String medicationName = rs.getString(2);
+                    try {
+                        patient.addMedication(medicationName, rs.getString(3), rs.getInt(4));
+                        schedules.computeIfAbsent(patient, p -> new LinkedHashMap<>()).put(medicationName, rs.getTimestamp(5).toLocalDateTime());
+                    } catch (IllegalArgumentException e) {
+                        log.warn("Warm start: skipping invalid medication schedule of patient {} ({})", patient.getId(), e.getMessage());
+                    }
+                }
+            }
+        }
+        return schedules;
+    }
+
+    private long loadRecords(Connection connection, int fromId, int toId, Map<Integer, Patient> loaded) throws SQLException {
+        long count = 0;
+        try (PreparedStatement pstmt = streamingStatement(connection, SELECT_RECORDS_SQL)) {
+            pstmt.setInt(1, fromId);
+            pstmt.setInt(2, toId);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                //Rows arrive grouped by patient; hand each patient's history over in one call
+                int currentId = -1;
+                List<AdherenceRecord> history = new ArrayList<>();
+                while (rs.next()) {
+                    int patientId = rs.getInt(1);
+                    if (patientId != currentId) {
+                        restore(loaded.get(currentId), history);
+                        currentId = patientId;
+                    }
+                    try {
+                        AdherenceRecord record = new AdherenceRecord(rs.getString(2), rs.getInt(3),
+                                rs.getTimestamp(5).toLocalDateTime());
+                        record.setTaken(rs.getBoolean(4));
+                        history.add(record);
+                        count++;
+                    } catch (IllegalArgumentException e) {
+                        log.warn("Warm start: skipping invalid adherence record of patient {} ({})", patientId, e.getMessage());
+                    }
+                }
+                restore(loaded.get(currentId), history);
+            }
+        }
+        return count;
+    }
+
+    private static void restore(Patient patient, List<AdherenceRecord> history) {
+        if (patient != null) {
+            patient.restoreAdherenceRecords(history);
+        }
+        history.clear();
+    }
+
+    private PreparedStatement streamingStatement(Connection connection, String sql) throws SQLException {
+        PreparedStatement pstmt = connection.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+        pstmt.setFetchSize(fetchSize);
+        return pstmt;
+    }
+}
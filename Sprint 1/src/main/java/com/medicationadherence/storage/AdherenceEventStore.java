@@ -0,0 +1,41 @@
+package com.medicationadherence.storage;
+
+import com.medicationadherence.model.AdherenceRecord;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Append-only, persistent store of adherence records. The implementation is chosen by Spring
+ * profile: mysql (through the write-behind stage) by default, in memory with the "in-memory" profile.
+ * Records of one patient are appended by one thread at a time (under the patient's lock) and
+ * must be stored in that order.
+ */
+public interface AdherenceEventStore {
+
+    /**
+     * Waits until the store has room for a record, for a store whose append would otherwise
+     * refuse it right away. Called before the patient's lock is taken, so a full store delays
+     * only the caller and not everyone reading the patient; append may still refuse the record
+     * if other callers took the room first. Does nothing by default.
+     * @throws RejectedExecutionException if the store stayed full (backpressure)
+     */
+    default void awaitCapacity() {
+    }
+
+    /**
+     * Appends a record to a patient's stored history. Must not block, since it is called under the
+     * patient's lock.
+     * @param patientId the id of the patient the record belongs to
+     * @param record the record to store
+     * @return a future completed when the record is durably stored
+     * @throws RejectedExecutionException if the store can't accept the record right now (backpressure)
+     */
+    CompletableFuture<Void> append(int patientId, AdherenceRecord record);
+
+    /**
+     * Gets when callers should acknowledge a record to the client
+     * @return whether callers should wait for the future returned by append
+     */
+    DurabilityMode getDurability();
+}
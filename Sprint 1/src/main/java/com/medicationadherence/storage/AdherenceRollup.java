@@ -0,0 +1,50 @@
+package com.medicationadherence.storage;
+
+import java.time.LocalDate;
+
+/**
+ * Doses of one medication taken and missed by a patient within one day or week.
+ */
+public class AdherenceRollup {
+    private final LocalDate periodStart;
+    private final String medicationName;
+    private final int taken;
+    private final int missed;
+    private final long takenDosage;
+    private final long missedDosage;
+
+    public AdherenceRollup(LocalDate periodStart, String medicationName, int taken, int missed, long takenDosage, long missedDosage) {
+        this.periodStart = periodStart;
+        this.medicationName = medicationName;
+        this.taken = taken;
+        this.missed = missed;
+        this.takenDosage = takenDosage;
+        this.missedDosage = missedDosage;
+    }
+
+    public LocalDate getPeriodStart() {
+        return periodStart;
+    }
+
+    public String getMedicationName() {
+        return medicationName;
+    }
+
+    public int getTaken() {
+        return taken;
+    }
+
+    public int getMissed() {
+        return missed;
+    }
+
+    //Sum of the dosages of the taken doses
+    public long getTakenDosage() {
+        return takenDosage;
+    }
+
+    //Sum of the dosages of the missed doses
+    public long getMissedDosage() {
+        return missedDosage;
+    }
+}
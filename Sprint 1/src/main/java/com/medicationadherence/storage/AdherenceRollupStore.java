@@ -0,0 +1,22 @@
+package com.medicationadherence.storage;
+
+import java.time.LocalDate;
+import java.util.List;
+
+/**
+ * Read side of the per-patient daily and weekly adherence rollups, for reports and charts that
+ * would otherwise scan every stored record. Like AdherenceEventStore the implementation is chosen
+ * by Spring profile.
+ */
+public interface AdherenceRollupStore {
+
+    /**
+     * Gets a patient's rollups of the periods starting within a date range
+     * @param patientId the patient's id
+     * @param period daily or weekly rollups
+     * @param from first period start to include, or null for no lower bound
+     * @param to last period start to include, or null for no upper bound
+     * @return the rollups ordered by period start, then medication name
+     */
+    List<AdherenceRollup> rollups(int patientId, RollupPeriod period, LocalDate from, LocalDate to);
+}
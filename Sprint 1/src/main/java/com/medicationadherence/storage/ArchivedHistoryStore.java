@@ -0,0 +1,30 @@
+package com.medicationadherence.storage;
+
+import java.time.LocalDateTime;
+import java.util.Map;
+
+/**
+ * Commit point of history archival: once a patient's records before a cutoff are safely in
+ * archive segments, they are removed from the primary store and the cutoff is recorded, in one
+ * step. Segments beyond a patient's recorded cutoff were never committed and are discarded at
+ * startup. Like AdherenceEventStore the implementation is chosen by Spring profile.
+ */
+public interface ArchivedHistoryStore {
+
+    /**
+     * Gets the committed cutoff of every patient that has archived records
+     * @return the cutoff per patient id; the primary store holds none of the patient's records before it
+     */
+    Map<Integer, LocalDateTime> archivedBefore();
+
+    /**
+     * Removes a patient's stored records before the cutoff and records the cutoff, atomically
+     * @param patientId the patient's id
+     * @param before the cutoff; every record before it has been archived
+     * @param archivedRecords the number of records archived; records still being written may
+     *                        not be stored yet, but no more than these may be removed
+     * @return false if records can't be removed yet (nothing changed), true once committed
+     * @throws IllegalStateException if more records before the cutoff are stored than were archived (nothing changed)
+     */
+    boolean commitArchive(int patientId, LocalDateTime before, int archivedRecords);
+}
@@ -0,0 +1,11 @@
+package com.medicationadherence.storage;
+
+/**
+ * When a dose report is acknowledged to the client, relative to the database write.
+ */
+public enum DurabilityMode {
+    /** Acknowledge as soon as the record is queued for the next group commit */
+    ENQUEUE,
+    /** Acknowledge only after the group commit holding the record succeeded */
+    COMMIT
+}
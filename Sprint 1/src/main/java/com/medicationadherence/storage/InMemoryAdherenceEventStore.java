@@ -0,0 +1,78 @@
+package com.medicationadherence.storage;
+
+import com.medicationadherence.model.AdherenceHistory;
+import com.medicationadherence.model.AdherenceRecord;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * In-process stand-in for the AdherenceRecords table, for tests, benchmarks and load runs without mysql.
+ * Each patient's records are kept in a columnar AdherenceHistory (about 12 bytes per record), so
+ * appending costs no I/O and little allocation. A record is stored once append returns, so every
+ * append is acknowledged as committed. Nothing survives a restart.
+ */
+@Component
+@Profile("in-memory")
+public class InMemoryAdherenceEventStore implements AdherenceEventStore {
+
+    private static final CompletableFuture<Void> STORED = CompletableFuture.completedFuture(null);
+
+    private final ConcurrentHashMap<Integer, LockedHistory> histories = new ConcurrentHashMap<>();
+    private final AtomicLong count = new AtomicLong();
+
+    @Override
+    public CompletableFuture<Void> append(int patientId, AdherenceRecord record) {
+        LockedHistory history = histories.computeIfAbsent(patientId, id -> new LockedHistory());
+        //Uncontended: appends of one patient already come one at a time
+        history.lock.lock();
+        try {
+            history.history.append(record);
+        } finally {
+            history.lock.unlock();
+        }
+        count.incrementAndGet();
+        return STORED;
+    }
+
+    @Override
+    public DurabilityMode getDurability() {
+        return DurabilityMode.COMMIT;
+    }
+
+    /**
+     * Gets the records stored for a patient so far
+     * @param patientId the patient's id
+     * @return the patient's stored records, oldest first (empty if there are none)
+     */
+    public AdherenceHistory.View history(int patientId) {
+        LockedHistory history = histories.get(patientId);
+        if (history == null) {
+            return new AdherenceHistory().view();
+        }
+        history.lock.lock();
+        try {
+            return history.history.view();
+        } finally {
+            history.lock.unlock();
+        }
+    }
+
+    /**
+     * Gets the number of records stored for all patients
+     * @return the number of records
+     */
+    public long size() {
+        return count.get();
+    }
+
+    //A lock rather than synchronized, so a virtual thread holding it never pins its carrier
+    private static final class LockedHistory {
+        private final ReentrantLock lock = new ReentrantLock();
+        private final AdherenceHistory history = new AdherenceHistory();
+    }
+}
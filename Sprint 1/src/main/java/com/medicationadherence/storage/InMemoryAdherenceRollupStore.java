@@ -0,0 +1,52 @@
+package com.medicationadherence.storage;
+
+import com.medicationadherence.model.AdherenceHistory;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Component;
+
+import java.time.LocalDate;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Rollups for the in-memory profile, aggregated on request from the patient's stored history.
+ * Nothing is kept between requests; the columnar history is cheap enough to scan.
+ */
+@Component
+@Profile("in-memory")
+public class InMemoryAdherenceRollupStore implements AdherenceRollupStore {
+
+    private static final Comparator<Map.Entry<LocalDate, String>> BY_PERIOD_THEN_NAME =
+            Comparator.comparing((Map.Entry<LocalDate, String> key) -> key.getKey()).thenComparing(Map.Entry::getValue);
+
+    private final InMemoryAdherenceEventStore adherenceEvents;
+
+    public InMemoryAdherenceRollupStore(InMemoryAdherenceEventStore adherenceEvents) {
+        this.adherenceEvents = adherenceEvents;
+    }
+
+    @Override
+    public List<AdherenceRollup> rollups(int patientId, RollupPeriod period, LocalDate from, LocalDate to) {
+        AdherenceHistory.View history = adherenceEvents.history(patientId);
+        //{taken, missed, takenDosage, missedDosage} per (period start, medication)
+        TreeMap<Map.Entry<LocalDate, String>, long[]> sums = new TreeMap<>(BY_PERIOD_THEN_NAME);
+        for (int i = 0; i < history.size(); i++) {
+            LocalDate start = period.start(history.timeTaken(i).toLocalDate());
+            if ((from != null && start.isBefore(from)) || (to != null && start.isAfter(to))) {
+                continue;
+            }
+            long[] sum = sums.computeIfAbsent(new AbstractMap.SimpleImmutableEntry<>(start, history.medicationName(i)), key -> new long[4]);
+            int column = history.isTaken(i) ? 0 : 1;
+            sum[column]++;
+            sum[column + 2] += history.dosage(i);
+        }
+        List<AdherenceRollup> rollups = new ArrayList<>(sums.size());
+        sums.forEach((key, sum) -> rollups.add(
+                new AdherenceRollup(key.getKey(), key.getValue(), (int) sum[0], (int) sum[1], sum[2], sum[3])));
+        return rollups;
+    }
+}
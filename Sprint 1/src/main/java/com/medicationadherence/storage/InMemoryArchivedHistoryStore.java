@@ -0,0 +1,32 @@
+package com.medicationadherence.storage;
+
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Component;
+
+import java.time.LocalDateTime;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Archival cutoffs for the in-memory profile. They are lost on restart like the patients are,
+ * so segments left over from an earlier run are discarded. The in-memory event store keeps
+ * every record, as the database of the profile.
+ */
+@Component
+@Profile("in-memory")
+public class InMemoryArchivedHistoryStore implements ArchivedHistoryStore {
+
+    private final ConcurrentHashMap<Integer, LocalDateTime> cutoffs = new ConcurrentHashMap<>();
+
+    @Override
+    public Map<Integer, LocalDateTime> archivedBefore() {
+        return new HashMap<>(cutoffs);
+    }
+
+    @Override
+    public boolean commitArchive(int patientId, LocalDateTime before, int archivedRecords) {
+        cutoffs.put(patientId, before);
+        return true;
+    }
+}
@@ -0,0 +1,48 @@
+package com.medicationadherence.storage;
+
+import com.medicationadherence.model.DuplicatePatientException;
+import com.medicationadherence.model.Frequency;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Component;
+
+import java.time.LocalDateTime;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * In-process stand-in for the Patients table, for tests, benchmarks and load runs without mysql.
+ * Ids come from a counter like AUTO_INCREMENT, and uniqueness of (firstName, lastName, age) is
+ * checked case-insensitively like the unique index. Nothing survives a restart.
+ */
+@Component
+@Profile("in-memory")
+public class InMemoryPatientStore implements PatientStore {
+
+    private final AtomicInteger lastId = new AtomicInteger();
+    private final Set<String> identities = ConcurrentHashMap.newKeySet();
+
+    @Override
+    public int insert(String firstName, String lastName, int age, String email) {
+        //Validated names never contain a newline, so it can't make two identities collide
+        String identity = firstName.toLowerCase(Locale.ROOT) + '\n' + lastName.toLowerCase(Locale.ROOT) + '\n' + age;
+        if (!identities.add(identity)) {
+            throw new DuplicatePatientException("Patient already exists in database");
+        }
+        return lastId.incrementAndGet();
+    }
+
+    //Schedules live in the patients themselves, and nothing is restored at startup
+    @Override
+    public void saveMedication(int patientId, String medicationName, Frequency frequency, int dosage, LocalDateTime scheduledAt) {
+    }
+
+    /**
+     * Gets the number of stored patients
+     * @return the number of patients
+     */
+    public int size() {
+        return identities.size();
+    }
+}
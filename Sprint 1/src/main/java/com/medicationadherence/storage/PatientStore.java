@@ -0,0 +1,37 @@
+package com.medicationadherence.storage;
+
+import com.medicationadherence.model.DuplicatePatientException;
+import com.medicationadherence.model.Frequency;
+
+import java.time.LocalDateTime;
+
+/**
+ * Persistent store of patients. The implementation is chosen by Spring profile:
+ * mysql by default, in memory with the "in-memory" profile.
+ */
+public interface PatientStore {
+
+    /**
+     * Stores a new patient and assigns its id. (firstName, lastName, age) is unique, ignoring case.
+     * @param firstName the first name
+     * @param lastName the last name
+     * @param age the age
+     * @param email the email
+     * @return the id assigned to the patient
+     * @throws DuplicatePatientException if a patient with the same name and age is already stored
+     * @throws RuntimeException if the patient could not be stored
+     */
+    int insert(String firstName, String lastName, int age, String email);
+
+    /**
+     * Stores a medication in a patient's schedule, replacing an earlier schedule of the same
+     * medication, so it can be restored after a restart.
+     * @param patientId the id of the patient
+     * @param medicationName the name of the medication
+     * @param frequency how often the medication is to be taken
+     * @param dosage the scheduled dosage
+     * @param scheduledAt when the medication's periods start
+     * @throws RuntimeException if the schedule could not be stored
+     */
+    void saveMedication(int patientId, String medicationName, Frequency frequency, int dosage, LocalDateTime scheduledAt);
+}
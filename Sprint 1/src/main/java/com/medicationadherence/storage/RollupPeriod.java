@@ -0,0 +1,23 @@
+package com.medicationadherence.storage;
+
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.time.temporal.TemporalAdjusters;
+
+/**
+ * Length of the periods adherence is pre-aggregated over.
+ */
+public enum RollupPeriod {
+    DAY,
+    //Weeks start on Monday
+    WEEK;
+
+    /**
+     * Gets the first day of the period a day falls into
+     * @param day the day
+     * @return the day itself for DAY, the Monday on or before it for WEEK
+     */
+    public LocalDate start(LocalDate day) {
+        return this == DAY ? day : day.with(TemporalAdjusters.previousOrSame(DayOfWeek.MONDAY));
+    }
+}
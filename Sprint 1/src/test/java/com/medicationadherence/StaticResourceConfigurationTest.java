@@ -0,0 +1,77 @@
+package com.medicationadherence;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.util.DigestUtils;
+import org.springframework.util.StreamUtils;
+import org.springframework.web.servlet.resource.PathResourceResolver;
+import org.springframework.web.servlet.resource.ResourceHttpRequestHandler;
+import org.springframework.web.servlet.resource.ResourceUrlProvider;
+import org.springframework.web.servlet.resource.VersionResourceResolver;
+
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Caching headers of the stylesheet under its content-hashed and its plain name.
+ */
+class StaticResourceConfigurationTest {
+
+    private StaticResourceConfiguration.AssetCacheInterceptor interceptor;
+    private String hash;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        ResourceHttpRequestHandler handler = new ResourceHttpRequestHandler();
+        handler.setLocations(Collections.singletonList(new ClassPathResource("static/")));
+        handler.setResourceResolvers(Arrays.asList(new VersionResourceResolver().addContentVersionStrategy("/**"),
+                new PathResourceResolver()));
+        handler.afterPropertiesSet();
+        ResourceUrlProvider resourceUrls = new ResourceUrlProvider();
+        resourceUrls.setHandlerMap(Collections.singletonMap("/*.css", handler));
+        interceptor = new StaticResourceConfiguration.AssetCacheInterceptor(() -> resourceUrls);
+        try (InputStream in = new ClassPathResource("static/styles.css").getInputStream()) {
+            hash = DigestUtils.md5DigestAsHex(StreamUtils.copyToByteArray(in));
+        }
+    }
+
+    @Test
+    void hashedNameIsImmutable() {
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        assertTrue(interceptor.preHandle(get("/styles-" + hash + ".css"), response, null));
+        assertEquals("max-age=31536000, public, immutable", response.getHeader("Cache-Control"));
+    }
+
+    @Test
+    void plainNameIsRevalidatedByContentHash() {
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        assertTrue(interceptor.preHandle(get("/styles.css"), response, null));
+        assertEquals("no-cache", response.getHeader("Cache-Control"));
+        assertEquals("W/\"" + hash + "\"", response.getHeader("ETag"));
+
+        MockHttpServletRequest revalidation = get("/styles.css");
+        revalidation.addHeader("If-None-Match", "W/\"" + hash + "\"");
+        response = new MockHttpServletResponse();
+        assertFalse(interceptor.preHandle(revalidation, response, null));
+        assertEquals(304, response.getStatus());
+    }
+
+    @Test
+    void changedContentIsServedAgain() {
+        MockHttpServletRequest request = get("/styles.css");
+        request.addHeader("If-None-Match", "W/\"0123456789abcdef0123456789abcdef\"");
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        assertTrue(interceptor.preHandle(request, response, null));
+        assertEquals(200, response.getStatus());
+    }
+
+    private static MockHttpServletRequest get(String path) {
+        return new MockHttpServletRequest("GET", path);
+    }
+}
@@ -0,0 +1,121 @@
+package com.medicationadherence.alert;
+
+import com.medicationadherence.model.AdherenceRecord;
+import com.medicationadherence.model.Patient;
+import com.medicationadherence.service.PatientRegistry;
+import com.medicationadherence.storage.InMemoryAdherenceEventStore;
+import com.medicationadherence.storage.InMemoryPatientStore;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Clock;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Rules, deduplication and throttling of the alert engine, with a sink that keeps what it gets.
+ */
+class AlertEngineTest {
+
+    private static final LocalDateTime START = LocalDateTime.of(2024, 3, 1, 8, 0);
+    private static final Clock CLOCK = Clock.fixed(START.plusDays(3).toInstant(ZoneOffset.UTC), ZoneOffset.UTC);
+
+    private final PatientRegistry registry = new PatientRegistry();
+    private final List<Alert> delivered = new CopyOnWriteArrayList<>();
+    private AlertEngine engine;
+    private Patient patient;
+
+    private void start(long throttleMinutes) {
+        patient = new Patient(new InMemoryPatientStore(), new InMemoryAdherenceEventStore(),
+                "Allison", "Dolores", 25, "doallison25@gmail.com");
+        registry.add(patient);
+        AlertSink sink = new AlertSink() {
+            @Override
+            public String getName() {
+                return "test";
+            }
+
+            @Override
+            public void deliver(Alert alert) {
+                delivered.add(alert);
+            }
+        };
+        engine = new AlertEngine(Collections.singletonList(sink), registry, CLOCK, 3, 72, throttleMinutes, 100, 100);
+    }
+
+    @AfterEach
+    void stop() {
+        engine.shutdown();
+    }
+
+    @Test
+    void threeMissesOfOneMedicationWithinWindowRaiseOneAlert() {
+        start(0);
+        miss("Tylenol", 0);
+        miss("Tylenol", 24);
+        miss("Ibuprofen", 30);
+        miss("Tylenol", 48);
+        engine.shutdown();
+        assertEquals(1, delivered.size());
+        Alert alert = delivered.get(0);
+        assertEquals(patient.getId(), alert.getPatientId());
+        assertEquals("Tylenol", alert.getMedicationName());
+        assertEquals(START, alert.getFirstMissedAt());
+        assertEquals(START.plusHours(48), alert.getLastMissedAt());
+        assertEquals(START.plusDays(3), alert.getRaisedAt());
+        assertEquals(1, patient.getMissedDoseNotis());
+    }
+
+    @Test
+    void missesSpreadBeyondWindowDoNotAlert() {
+        start(0);
+        miss("Tylenol", 0);
+        miss("Tylenol", 48);
+        miss("Tylenol", 96);
+        //Taken doses are not published to the rules at all
+        engine.publish(patient.getId(), record("Tylenol", 100, true));
+        engine.shutdown();
+        assertTrue(delivered.isEmpty());
+        assertEquals(3, engine.getMetrics().getPublished());
+    }
+
+    @Test
+    void missesAreConsumedByTheirAlert() {
+        start(0);
+        for (int i = 0; i < 5; i++) {
+            miss("Tylenol", i);
+        }
+        engine.shutdown();
+        //The fourth and fifth miss are not enough for a second alert
+        assertEquals(1, delivered.size());
+    }
+
+    @Test
+    void alertsAreThrottledPerPatient() {
+        start(60);
+        for (int i = 0; i < 9; i++) {
+            miss("Tylenol", i);
+        }
+        engine.shutdown();
+        AlertMetrics metrics = engine.getMetrics();
+        assertEquals(1, delivered.size());
+        assertEquals(1, metrics.getRaised());
+        assertEquals(2, metrics.getSuppressed());
+        assertEquals(1, metrics.getSinks().get(0).getDelivered());
+    }
+
+    private void miss(String medicationName, int hours) {
+        engine.publish(patient.getId(), record(medicationName, hours, false));
+    }
+
+    private static AdherenceRecord record(String medicationName, int hours, boolean taken) {
+        AdherenceRecord record = new AdherenceRecord(medicationName, 1, START.plusHours(hours));
+        record.setTaken(taken);
+        return record;
+    }
+}
@@ -0,0 +1,200 @@
+package com.medicationadherence.archive;
+
+import com.medicationadherence.model.AdherenceHistory;
+import com.medicationadherence.model.AdherenceRecord;
+import com.medicationadherence.model.Patient;
+import com.medicationadherence.service.PatientRegistry;
+import com.medicationadherence.storage.InMemoryAdherenceEventStore;
+import com.medicationadherence.storage.InMemoryArchivedHistoryStore;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Clock;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Segment files and patients' archived history in a temporary directory, reopened as after a restart.
+ */
+class HistoryArchiveTest {
+
+    private static final LocalDateTime START = LocalDateTime.of(2024, 3, 1, 8, 0);
+    //One record every three hours for 125 days
+    private static final int RECORDS = 1000;
+
+    private final InMemoryAdherenceEventStore adherenceEvents = new InMemoryAdherenceEventStore();
+    private final InMemoryArchivedHistoryStore store = new InMemoryArchivedHistoryStore();
+    private final Clock clock = Clock.fixed(START.plusDays(130).toInstant(ZoneOffset.UTC), ZoneOffset.UTC);
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void segmentsRoundTripFromAnyTime() throws IOException {
+        AdherenceHistory history = new AdherenceHistory();
+        records().forEach(history::append);
+        HistorySegment segment = HistorySegment.write(directory, 7, history.view(), 700, 0);
+
+        HistorySegment reopened = HistorySegment.open(segment.getPath());
+        assertEquals(7, reopened.getPatientId());
+        assertEquals(700, reopened.size());
+        assertEquals(history.view().epochMinute(0), reopened.getFirstEpochMinute());
+        assertEquals(history.view().epochMinute(699), reopened.lastEpochMinute());
+
+        AdherenceHistory all = new AdherenceHistory();
+        reopened.appendTo(all, Integer.MIN_VALUE);
+        assertEquals(700, all.size());
+        for (int i = 0; i < 700; i++) {
+            assertRecordEquals(history.view().get(i), all.view().get(i));
+        }
+        //Starts in the middle of a block of the sparse index
+        AdherenceHistory recent = new AdherenceHistory();
+        reopened.appendTo(recent, history.view().epochMinute(500));
+        assertEquals(200, recent.size());
+        assertRecordEquals(history.view().get(500), recent.view().get(0));
+    }
+
+    @Test
+    void corruptSegmentIsRejected() throws IOException {
+        AdherenceHistory history = new AdherenceHistory();
+        records().forEach(history::append);
+        HistorySegment segment = HistorySegment.write(directory, 7, history.view(), RECORDS, 0);
+        try (RandomAccessFile file = new RandomAccessFile(segment.getPath().toFile(), "rw")) {
+            file.seek(file.length() - 100);
+            file.write(file.read() ^ 0x40);
+        }
+        assertThrows(UncheckedIOException.class, () -> segment.appendTo(new AdherenceHistory(), Integer.MIN_VALUE));
+    }
+
+    @Test
+    void archivedHistoryStaysReadableAcrossRestarts() {
+        PatientRegistry registry = new PatientRegistry();
+        Patient patient = restorePatient();
+        patient.restoreAdherenceRecords(records());
+        registry.add(patient);
+        double percentage = patient.getAdherencePercentage();
+
+        HistoryArchive archive = new HistoryArchive(registry, store, clock, directory.toString(), false, 90, 100, 60);
+        archive.start();
+        //Everything before day 40 moves to a segment
+        assertEquals(320, archive.archiveAll());
+        assertEquals(RECORDS - 320, patient.countAdherenceRecords());
+        assertEquals(percentage, patient.getAdherencePercentage());
+        assertHistoryEquals(records(), patient.getAdherenceRecords());
+        //Too few old records left for another segment
+        assertEquals(0, archive.archiveAll());
+        //Recent ranges don't read the segment
+        assertEquals(RECORDS - 320, patient.viewAdherenceRecordsFrom(AdherenceHistory.toEpochMinute(START.plusDays(50))).size());
+
+        //Restart: the segment comes back ahead of the records still in the database
+        HistoryArchive reopened = new HistoryArchive(new PatientRegistry(), store, clock, directory.toString(), false, 90, 100, 60);
+        reopened.start();
+        Patient restored = restorePatient();
+        reopened.restore(restored);
+        restored.restoreAdherenceRecords(records().subList(320, RECORDS));
+        assertEquals(RECORDS - 320, restored.countAdherenceRecords());
+        assertEquals(percentage, restored.getAdherencePercentage());
+        assertHistoryEquals(records(), restored.getAdherenceRecords());
+    }
+
+    @Test
+    void backdatedRecordDuringArchivalIsRefused() {
+        PatientRegistry registry = new PatientRegistry();
+        Patient patient = restorePatient();
+        patient.restoreAdherenceRecords(records());
+        registry.add(patient);
+        AdherenceRecord late = new AdherenceRecord("Metformin a", 1, START.plusDays(10).plusMinutes(1));
+        List<Integer> archivedCounts = new ArrayList<>();
+        //Arrives after the segment is written, before the database commits
+        InMemoryArchivedHistoryStore racingStore = new InMemoryArchivedHistoryStore() {
+            @Override
+            public boolean commitArchive(int patientId, LocalDateTime before, int archivedRecords) {
+                assertThrows(IllegalArgumentException.class, () -> patient.addAdherenceRecord(late));
+                archivedCounts.add(archivedRecords);
+                return super.commitArchive(patientId, before, archivedRecords);
+            }
+        };
+        HistoryArchive archive = new HistoryArchive(registry, racingStore, clock, directory.toString(), false, 90, 100, 60);
+        archive.start();
+        assertEquals(320, archive.archiveAll());
+        assertEquals(List.of(320), archivedCounts);
+        assertHistoryEquals(records(), patient.getAdherenceRecords());
+        //Still refused once committed; recent records are not
+        assertThrows(IllegalArgumentException.class, () -> patient.addAdherenceRecord(late));
+        patient.addAdherenceRecord(new AdherenceRecord("Metformin a", 1, START.plusDays(100)));
+        assertEquals(RECORDS - 320 + 1, patient.countAdherenceRecords());
+    }
+
+    @Test
+    void rowsWrittenAfterTheCommitAreNotRestoredTwice() {
+        PatientRegistry registry = new PatientRegistry();
+        Patient patient = restorePatient();
+        patient.restoreAdherenceRecords(records());
+        registry.add(patient);
+        HistoryArchive archive = new HistoryArchive(registry, store, clock, directory.toString(), false, 90, 100, 60);
+        archive.start();
+        assertEquals(320, archive.archiveAll());
+
+        HistoryArchive reopened = new HistoryArchive(new PatientRegistry(), store, clock, directory.toString(), false, 90, 100, 60);
+        reopened.start();
+        Patient restored = restorePatient();
+        reopened.restore(restored);
+        //The last archived rows reached the database after it deleted the others
+        restored.restoreAdherenceRecords(records().subList(300, RECORDS));
+        assertEquals(RECORDS - 320, restored.countAdherenceRecords());
+        assertHistoryEquals(records(), restored.getAdherenceRecords());
+    }
+
+    @Test
+    void uncommittedSegmentsAreDiscarded() throws IOException {
+        AdherenceHistory history = new AdherenceHistory();
+        records().forEach(history::append);
+        HistorySegment segment = HistorySegment.write(directory.resolve("0"), 1, history.view(), 300, 0);
+        Files.writeString(directory.resolve("0").resolve("1-5.hseg.tmp"), "partial");
+
+        HistoryArchive archive = new HistoryArchive(new PatientRegistry(), store, clock, directory.toString(), false, 90, 100, 60);
+        archive.start();
+        assertFalse(Files.exists(segment.getPath()));
+        assertFalse(Files.exists(directory.resolve("0").resolve("1-5.hseg.tmp")));
+        Patient restored = restorePatient();
+        archive.restore(restored);
+        assertEquals(0, restored.getAdherenceRecords().size());
+    }
+
+    private Patient restorePatient() {
+        return Patient.restore(adherenceEvents, 1, "Allison", "Dolores", 25, "doallison25@gmail.com");
+    }
+
+    private static List<AdherenceRecord> records() {
+        List<AdherenceRecord> records = new ArrayList<>();
+        for (int i = 0; i < RECORDS; i++) {
+            AdherenceRecord record = new AdherenceRecord("Metformin " + (char) ('a' + i % 3), i % 5, START.plusHours(3L * i));
+            record.setTaken(i % 4 != 0);
+            records.add(record);
+        }
+        return records;
+    }
+
+    private static void assertHistoryEquals(List<AdherenceRecord> expected, AdherenceHistory.View actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertRecordEquals(expected.get(i), actual.get(i));
+        }
+    }
+
+    private static void assertRecordEquals(AdherenceRecord expected, AdherenceRecord actual) {
+        assertEquals(expected.getMedicationName(), actual.getMedicationName());
+        assertEquals(expected.getDosage(), actual.getDosage());
+        assertEquals(expected.isTaken(), actual.isTaken());
+        assertEquals(expected.getTimeTaken(), actual.getTimeTaken());
+    }
+}
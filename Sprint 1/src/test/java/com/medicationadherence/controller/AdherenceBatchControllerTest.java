@@ -0,0 +1,136 @@
+package com.medicationadherence.controller;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.medicationadherence.alert.AlertEngine;
+import com.medicationadherence.model.Patient;
+import com.medicationadherence.schedule.ExpectedDoseScheduler;
+import com.medicationadherence.service.PatientRegistry;
+import com.medicationadherence.storage.InMemoryAdherenceEventStore;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Clock;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Batch bodies with items the parser has to step over, checked through the streamed per-item statuses.
+ */
+class AdherenceBatchControllerTest {
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final InMemoryAdherenceEventStore adherenceEvents = new InMemoryAdherenceEventStore();
+    private AdherenceBatchController controller;
+    private Patient patient;
+
+    @BeforeEach
+    void setUp() {
+        PatientRegistry registry = new PatientRegistry();
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        AlertEngine alerts = new AlertEngine(Collections.emptyList(), registry, Clock.systemDefaultZone(), 3, 72, 60, 100, 100);
+        ExpectedDoseScheduler expectedDoses = new ExpectedDoseScheduler(alerts, Clock.systemDefaultZone(), 120, 3600);
+        patient = Patient.restore(adherenceEvents, 1, "Allison", "Dolores", 25, "doallison25@gmail.com");
+        registry.add(patient);
+        controller = new AdherenceBatchController(registry, adherenceEvents, alerts, expectedDoses, Clock.systemDefaultZone(),
+                objectMapper, meterRegistry);
+    }
+
+    @Test
+    void nestedValuesAreSkippedWithoutLosingTheNextItems() throws IOException {
+        List<Map<String, String>> lines = post("["
+                + "{\"patientId\":{\"id\":1},\"medicationName\":\"Tylenol\",\"dosage\":1},"
+                + "{\"patientId\":1,\"medicationName\":[\"Tylenol\",{\"x\":1}],\"dosage\":1},"
+                + "{\"patientId\":1,\"medicationName\":\"Tylenol\",\"dosage\":[1,2]},"
+                + "{\"patientId\":1,\"medicationName\":\"Tylenol\",\"dosage\":1,\"timeTaken\":{\"at\":\"2024-03-01T08:00\"}},"
+                + "{\"patientId\":1,\"medicationName\":\"Tylenol\",\"dosage\":2,\"timeTaken\":\"2024-03-01T08:00\"}"
+                + "]");
+        assertEquals(6, lines.size());
+        for (int i = 0; i < 4; i++) {
+            assertEquals(String.valueOf(i), lines.get(i).get("index"));
+            assertEquals("error", lines.get(i).get("status"));
+        }
+        assertEquals("patientId must be an integer", lines.get(0).get("error"));
+        assertEquals("medicationName must be a string", lines.get(1).get("error"));
+        assertEquals("dosage must be an integer", lines.get(2).get("error"));
+        assertEquals("4", lines.get(4).get("index"));
+        assertEquals("ok", lines.get(4).get("status"));
+        assertEquals("1", lines.get(5).get("accepted"));
+        assertEquals("4", lines.get(5).get("rejected"));
+        assertEquals(1, patient.getAdherenceRecords().size());
+    }
+
+    @Test
+    void outOfRangeNumbersAreItemErrors() throws IOException {
+        List<Map<String, String>> lines = post("{\"patientId\":99999999999,\"medicationName\":\"Tylenol\",\"dosage\":1}\n"
+                + "{\"patientId\":1,\"medicationName\":\"Tylenol\",\"dosage\":1e400}\n"
+                + "{\"patientId\":1,\"medicationName\":\"Tylenol\",\"dosage\":99999999999999999999999}\n"
+                + "{\"patientId\":1,\"medicationName\":\"Tylenol\",\"dosage\":3}\n");
+        assertEquals(5, lines.size());
+        assertEquals("patientId must be an integer", lines.get(0).get("error"));
+        assertEquals("dosage must be an integer", lines.get(1).get("error"));
+        assertEquals("dosage must be an integer", lines.get(2).get("error"));
+        assertEquals("ok", lines.get(3).get("status"));
+        assertEquals("1", lines.get(4).get("accepted"));
+        assertEquals("3", lines.get(4).get("rejected"));
+    }
+
+    @Test
+    void timesWithoutAnEpochMinuteOrInTheFutureAreItemErrors() throws IOException {
+        List<Map<String, String>> lines = post("{\"patientId\":1,\"medicationName\":\"Tylenol\",\"dosage\":1,\"timeTaken\":\"9000-01-01T08:00\"}\n"
+                + "{\"patientId\":1,\"medicationName\":\"Tylenol\",\"dosage\":1,\"timeTaken\":\"-5000-01-01T08:00\"}\n"
+                + "{\"patientId\":1,\"medicationName\":\"Tylenol\",\"dosage\":1,\"timeTaken\":\"" + LocalDateTime.now().plusDays(1) + "\"}\n"
+                + "{\"patientId\":1,\"medicationName\":\"Tylenol\",\"dosage\":1,\"timeTaken\":\"2024-03-01T08:00\"}\n");
+        assertEquals(5, lines.size());
+        assertEquals("timeTaken is out of range", lines.get(0).get("error"));
+        assertEquals("timeTaken is out of range", lines.get(1).get("error"));
+        assertEquals("timeTaken must not be in the future", lines.get(2).get("error"));
+        assertEquals("ok", lines.get(3).get("status"));
+        assertEquals("3", lines.get(4).get("rejected"));
+        assertEquals(1, patient.getAdherenceRecords().size());
+    }
+
+    @Test
+    void malformedBodyEndsWithAnErrorAndTheSummary() throws IOException {
+        List<Map<String, String>> lines = post("{\"patientId\":1,\"medicationName\":\"Tylenol\",\"dosage\":1}\n{\"patientId\":");
+        assertEquals(3, lines.size());
+        assertEquals("ok", lines.get(0).get("status"));
+        assertEquals("error", lines.get(1).get("status"));
+        assertTrue(lines.get(1).get("error").startsWith("Malformed JSON"));
+        assertEquals("1", lines.get(2).get("accepted"));
+    }
+
+    private List<Map<String, String>> post(String body) throws IOException {
+        MockHttpServletRequest request = new MockHttpServletRequest("POST", "/api/adherence/batch");
+        request.setContent(body.getBytes(StandardCharsets.UTF_8));
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        controller.addAdherenceRecords(request, response);
+        //Status lines are flat objects; read with the streaming parser the controller itself uses
+        List<Map<String, String>> lines = new ArrayList<>();
+        for (String line : response.getContentAsString().split("\n")) {
+            Map<String, String> fields = new HashMap<>();
+            try (JsonParser parser = objectMapper.getFactory().createParser(line)) {
+                parser.nextToken();
+                while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                    String field = parser.getCurrentName();
+                    parser.nextToken();
+                    fields.put(field, parser.getText());
+                }
+            }
+            lines.add(fields);
+        }
+        return lines;
+    }
+}
@@ -0,0 +1,88 @@
+package com.medicationadherence.controller;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.medicationadherence.alert.AlertEngine;
+import com.medicationadherence.model.AdherenceRecord;
+import com.medicationadherence.model.Frequency;
+import com.medicationadherence.model.Patient;
+import com.medicationadherence.model.PatientStats;
+import com.medicationadherence.schedule.ExpectedDoseScheduler;
+import com.medicationadherence.service.PatientRegistry;
+import com.medicationadherence.storage.InMemoryAdherenceEventStore;
+import com.medicationadherence.storage.InMemoryPatientStore;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Clock;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.Collections;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Scheduling against a patient store that fails to save, and statistics as of a fixed clock.
+ */
+class PatientControllerTest {
+
+    private static final LocalDateTime NOW = LocalDateTime.of(2024, 3, 31, 8, 0);
+
+    private final InMemoryAdherenceEventStore adherenceEvents = new InMemoryAdherenceEventStore();
+    private final Clock clock = Clock.fixed(NOW.toInstant(ZoneOffset.UTC), ZoneOffset.UTC);
+    private AlertEngine alerts;
+    private ExpectedDoseScheduler expectedDoses;
+    private PatientController controller;
+    private Patient patient;
+
+    @BeforeEach
+    void setUp() {
+        PatientRegistry registry = new PatientRegistry();
+        alerts = new AlertEngine(Collections.emptyList(), registry, clock, 3, 72, 60, 100, 100);
+        expectedDoses = new ExpectedDoseScheduler(alerts, clock, 120, 3600);
+        patient = Patient.restore(adherenceEvents, 1, "Allison", "Dolores", 25, "doallison25@gmail.com");
+        registry.add(patient);
+        controller = new PatientController(registry, new FailingPatientStore(), adherenceEvents, alerts, expectedDoses,
+                clock, new ObjectMapper(), new SimpleMeterRegistry());
+    }
+
+    @AfterEach
+    void tearDown() {
+        expectedDoses.shutdown();
+        alerts.shutdown();
+    }
+
+    @Test
+    void medicationIsNotScheduledWhenItCannotBeStored() {
+        MedicationRequest request = new MedicationRequest();
+        request.setMedicationName("Tylenol");
+        request.setTiming("daily");
+        request.setDosage(1);
+        assertThrows(RuntimeException.class, () -> controller.addMedication(1, request));
+        assertTrue(patient.getScheduleMedications().isEmpty());
+        assertEquals(0, expectedDoses.getTrackedMedications());
+    }
+
+    @Test
+    void statsWindowsEndOnTheClocksDay() {
+        AdherenceRecord taken = new AdherenceRecord("Tylenol", 1, NOW.minusDays(10));
+        patient.addAdherenceRecord(taken);
+        AdherenceRecord missed = new AdherenceRecord("Tylenol", 0, NOW.minusDays(40));
+        missed.setTaken(false);
+        patient.addAdherenceRecord(missed);
+        PatientStats stats = controller.getPatientStats(1).getBody();
+        assertNotNull(stats);
+        assertEquals(0, stats.getLast7Days().getTaken());
+        assertEquals(1, stats.getLast30Days().getTaken());
+        assertEquals(0, stats.getLast30Days().getMissed());
+    }
+
+    private static final class FailingPatientStore extends InMemoryPatientStore {
+        @Override
+        public void saveMedication(int patientId, String medicationName, Frequency frequency, int dosage,
+                                   LocalDateTime scheduledAt) {
+            throw new RuntimeException("Issue with saving medication schedule to database");
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package com.medicationadherence.controller;
+
+import com.medicationadherence.service.WarmStartLoader;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockFilterChain;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import javax.servlet.ServletException;
+import java.io.IOException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Requests arriving before the warm start has run.
+ */
+class WarmStartFilterTest {
+
+    @Test
+    void apiRequestsAreRefusedWhileLoading() throws ServletException, IOException {
+        WarmStartFilter filter = new WarmStartFilter(loader(true));
+        MockHttpServletResponse response = get(filter, "/api/patients");
+        assertEquals(503, response.getStatus());
+        assertEquals("5", response.getHeader("Retry-After"));
+    }
+
+    @Test
+    void probesAndPagesStayReachableWhileLoading() throws ServletException, IOException {
+        WarmStartFilter filter = new WarmStartFilter(loader(true));
+        assertEquals(200, get(filter, "/actuator/health/readiness").getStatus());
+        assertEquals(200, get(filter, "/index.html").getStatus());
+    }
+
+    @Test
+    void apiRequestsPassWithoutWarmStart() throws ServletException, IOException {
+        WarmStartFilter filter = new WarmStartFilter(loader(false));
+        assertEquals(200, get(filter, "/api/patients").getStatus());
+    }
+
+    //Nothing is loaded: the loader is never run, so it stays loading as long as it is enabled
+    private static WarmStartLoader loader(boolean enabled) {
+        return new WarmStartLoader(null, null, null, null, null, null, enabled, 10000, 1, 1, 600);
+    }
+
+    private static MockHttpServletResponse get(WarmStartFilter filter, String uri) throws ServletException, IOException {
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        filter.doFilter(new MockHttpServletRequest("GET", uri), response, new MockFilterChain());
+        return response;
+    }
+}
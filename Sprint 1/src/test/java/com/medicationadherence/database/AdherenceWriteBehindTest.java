@@ -0,0 +1,124 @@
+package com.medicationadherence.database;
+
+import com.medicationadherence.model.AdherenceRecord;
+import com.medicationadherence.storage.DurabilityMode;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.sql.SQLDataException;
+import java.sql.SQLTransientConnectionException;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * The write-behind stage against batch writers that fail the way the database does.
+ */
+class AdherenceWriteBehindTest {
+
+    private static final LocalDateTime START = LocalDateTime.of(2024, 3, 1, 8, 0);
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final List<PendingAdherenceRecord> written = Collections.synchronizedList(new ArrayList<>());
+    private AdherenceWriteBehind writeBehind;
+
+    @AfterEach
+    void tearDown() {
+        writeBehind.shutdown();
+    }
+
+    @Test
+    void batchIsRetriedUntilTheDatabaseIsBack() throws Exception {
+        AtomicInteger failures = new AtomicInteger(3);
+        start(batch -> {
+            if (failures.getAndDecrement() > 0) {
+                throw new SQLTransientConnectionException("Communications link failure", "08S01");
+            }
+            written.addAll(batch);
+        }, 100, 1000);
+        CompletableFuture<Void> committed = append(1, "Tylenol");
+        committed.get(10, TimeUnit.SECONDS);
+        assertEquals(1, written.size());
+        assertEquals(3, counter("adherence.write_behind.failed_attempts"));
+        assertEquals(0, counter("adherence.write_behind.failed"));
+    }
+
+    @Test
+    void recordRefusedForGoodIsSkippedAndTheOthersWritten() throws Exception {
+        CountDownLatch queued = new CountDownLatch(1);
+        start(batch -> {
+            awaitQuietly(queued);
+            for (PendingAdherenceRecord pending : batch) {
+                if (pending.getPatientId() == 2) {
+                    throw new SQLDataException("Data too long", "22001", 1406);
+                }
+            }
+            written.addAll(batch);
+        }, 100, 1000);
+        CompletableFuture<Void> first = append(1, "Tylenol");
+        CompletableFuture<Void> poison = append(2, "Tylenol");
+        CompletableFuture<Void> last = append(3, "Tylenol");
+        queued.countDown();
+        first.get(10, TimeUnit.SECONDS);
+        last.get(10, TimeUnit.SECONDS);
+        ExecutionException refused = assertThrows(ExecutionException.class, () -> poison.get(10, TimeUnit.SECONDS));
+        assertInstanceOf(SQLDataException.class, refused.getCause());
+        assertEquals(2, written.size());
+        assertEquals(1, counter("adherence.write_behind.failed"));
+    }
+
+    @Test
+    void fullQueueRefusesRecordsWithoutBlockingAppend() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        start(batch -> {
+            awaitQuietly(release);
+            written.addAll(batch);
+        }, 1, 0);
+        //Held by the flusher until released, so the queue has no room left
+        CompletableFuture<Void> first = append(1, "Tylenol");
+        assertThrows(RejectedExecutionException.class, writeBehind::awaitCapacity);
+        assertThrows(RejectedExecutionException.class, () -> writeBehind.append(2, record("Tylenol")));
+        assertEquals(2, counter("adherence.write_behind.rejected"));
+        release.countDown();
+        first.get(10, TimeUnit.SECONDS);
+        //Room again once the batch is written
+        append(2, "Tylenol").get(10, TimeUnit.SECONDS);
+        assertEquals(2, written.size());
+    }
+
+    private void start(AdherenceBatchWriter writer, int queueCapacity, long enqueueTimeoutMillis) {
+        writeBehind = new AdherenceWriteBehind(writer, queueCapacity, 100, 5, enqueueTimeoutMillis, DurabilityMode.COMMIT);
+        writeBehind.bindTo(meterRegistry);
+    }
+
+    private CompletableFuture<Void> append(int patientId, String medicationName) {
+        writeBehind.awaitCapacity();
+        return writeBehind.append(patientId, record(medicationName));
+    }
+
+    private double counter(String name) {
+        return meterRegistry.get(name).functionCounter().count();
+    }
+
+    private static AdherenceRecord record(String medicationName) {
+        return new AdherenceRecord(medicationName, 1, START);
+    }
+
+    private static void awaitQuietly(CountDownLatch latch) {
+        try {
+            latch.await(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
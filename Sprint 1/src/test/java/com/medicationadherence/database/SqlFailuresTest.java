@@ -0,0 +1,47 @@
+package com.medicationadherence.database;
+
+import org.junit.jupiter.api.Test;
+
+import java.sql.BatchUpdateException;
+import java.sql.SQLDataException;
+import java.sql.SQLException;
+import java.sql.SQLIntegrityConstraintViolationException;
+import java.sql.SQLTransientConnectionException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Failures shaped like the ones the mysql driver throws from single statements and batches.
+ */
+class SqlFailuresTest {
+
+    @Test
+    void dataAndConstraintFailuresArePermanent() {
+        assertTrue(SqlFailures.isPermanent(new SQLIntegrityConstraintViolationException("Duplicate entry", "23000", 1062)));
+        assertTrue(SqlFailures.isPermanent(new SQLDataException("Data too long", "22001", 1406)));
+        //Driver-specific subclasses report the state only
+        assertTrue(SqlFailures.isPermanent(new SQLException("Incorrect datetime value", "22007", 1292)));
+    }
+
+    @Test
+    void batchFailuresAreClassifiedByTheirCause() {
+        BatchUpdateException wrapped = new BatchUpdateException("Duplicate entry", null, 0, new int[0],
+                new SQLIntegrityConstraintViolationException("Duplicate entry", "23000", 1062));
+        assertTrue(SqlFailures.isPermanent(wrapped));
+
+        BatchUpdateException chained = new BatchUpdateException(new int[0]);
+        chained.setNextException(new SQLDataException("Data too long", "22001", 1406));
+        assertTrue(SqlFailures.isPermanent(chained));
+
+        BatchUpdateException lostConnection = new BatchUpdateException("Communications link failure", "08S01", 0, new int[0],
+                new SQLTransientConnectionException("Communications link failure", "08S01"));
+        assertFalse(SqlFailures.isPermanent(lostConnection));
+    }
+
+    @Test
+    void transientFailuresAreNotPermanent() {
+        assertFalse(SqlFailures.isPermanent(new SQLException("Deadlock found", "40001", 1213)));
+        assertFalse(SqlFailures.isPermanent(new SQLException("Lock wait timeout exceeded", "HY000", 1205)));
+        assertFalse(SqlFailures.isPermanent(new SQLException("No state")));
+    }
+}
@@ -0,0 +1,162 @@
+package com.medicationadherence.journal;
+
+import com.medicationadherence.model.AdherenceRecord;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Journal files written to a temporary directory, reopened as after a crash.
+ */
+class AdherenceJournalTest {
+
+    //Room for about twenty records per segment
+    private static final int SEGMENT_BYTES = 1024;
+    private static final LocalDateTime START = LocalDateTime.of(2024, 3, 1, 8, 0);
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void recordsRoundTripAcrossSegments() throws IOException {
+        AdherenceJournal journal = new AdherenceJournal(directory, SEGMENT_BYTES, 64, 0);
+        for (int i = 1; i <= 100; i++) {
+            assertEquals(i, journal.append(i % 7, record(i)));
+        }
+        assertTrue(journal.getSegmentCount() > 1);
+        List<JournalEntry> entries = readAll(journal, 0);
+        assertEquals(100, entries.size());
+        for (int i = 1; i <= 100; i++) {
+            JournalEntry entry = entries.get(i - 1);
+            assertEquals(i, entry.getSequence());
+            assertEquals(i % 7, entry.getPatientId());
+            assertEquals("Metformin " + (char) ('a' + i % 26), entry.getRecord().getMedicationName());
+            assertEquals(i, entry.getRecord().getDosage());
+            assertEquals(i % 3 != 0, entry.getRecord().isTaken());
+            assertEquals(START.plusMinutes(i), entry.getRecord().getTimeTaken());
+        }
+        //Reads from the middle too
+        assertEquals(51, journal.cursor(50).next().getSequence());
+    }
+
+    @Test
+    void reopenContinuesTheSequence() throws IOException {
+        AdherenceJournal journal = new AdherenceJournal(directory, SEGMENT_BYTES, 64, 0);
+        for (int i = 1; i <= 50; i++) {
+            journal.append(1, record(i));
+        }
+        journal.close();
+        AdherenceJournal reopened = new AdherenceJournal(directory, SEGMENT_BYTES, 64, 20);
+        assertEquals(50, reopened.getLastSequence());
+        assertEquals(51, reopened.append(1, record(51)));
+        List<JournalEntry> tail = readAll(reopened, 20);
+        assertEquals(31, tail.size());
+        assertEquals(21, tail.get(0).getSequence());
+    }
+
+    @Test
+    void tornTailIsTruncated() throws IOException {
+        AdherenceJournal journal = new AdherenceJournal(directory, SEGMENT_BYTES, 64, 0);
+        for (int i = 1; i <= 5; i++) {
+            journal.append(1, record(i));
+        }
+        journal.close();
+        Path segment = segmentFiles().get(0);
+        //Flip a byte in the last record's payload, as if the crash hit while it was written
+        try (RandomAccessFile file = new RandomAccessFile(segment.toFile(), "rw")) {
+            long lastFrame = AdherenceJournal.SEGMENT_HEADER_BYTES;
+            for (int i = 1; i < 5; i++) {
+                file.seek(lastFrame);
+                lastFrame += 8 + file.readInt();
+            }
+            file.seek(lastFrame + 20);
+            int b = file.read();
+            file.seek(lastFrame + 20);
+            file.write(b ^ 0xFF);
+        }
+        AdherenceJournal reopened = new AdherenceJournal(directory, SEGMENT_BYTES, 64, 0);
+        assertEquals(4, reopened.getLastSequence());
+        assertEquals(5, reopened.append(2, record(5)));
+        List<JournalEntry> entries = readAll(reopened, 0);
+        assertEquals(5, entries.size());
+        assertEquals(2, entries.get(4).getPatientId());
+    }
+
+    @Test
+    void floorBeyondTheJournalStartsAfterIt() throws IOException {
+        AdherenceJournal journal = new AdherenceJournal(directory, SEGMENT_BYTES, 64, 0);
+        for (int i = 1; i <= 10; i++) {
+            journal.append(1, record(i));
+        }
+        journal.close();
+        //The database already holds more than the journal, e.g. the directory was restored from an old copy
+        AdherenceJournal reopened = new AdherenceJournal(directory, SEGMENT_BYTES, 64, 1000);
+        assertEquals(1000, reopened.getLastSequence());
+        assertEquals(1001, reopened.append(1, record(1)));
+        assertEquals(1, reopened.getSegmentCount());
+        assertEquals(1, readAll(reopened, 1000).size());
+    }
+
+    @Test
+    void replayedSegmentsAreDeleted() throws IOException {
+        AdherenceJournal journal = new AdherenceJournal(directory, SEGMENT_BYTES, 64, 0);
+        for (int i = 1; i <= 100; i++) {
+            journal.append(1, record(i));
+        }
+        int segments = journal.getSegmentCount();
+        journal.deleteUpTo(60);
+        assertTrue(journal.getSegmentCount() < segments);
+        assertEquals(journal.getSegmentCount(), segmentFiles().size());
+        assertEquals(40, readAll(journal, 60).size());
+        journal.deleteUpTo(100);
+        //The segment being appended to stays
+        assertEquals(1, journal.getSegmentCount());
+    }
+
+    @Test
+    void fullJournalRejectsAppends() throws IOException {
+        AdherenceJournal journal = new AdherenceJournal(directory, SEGMENT_BYTES, 2, 0);
+        assertThrows(RejectedExecutionException.class, () -> {
+            for (int i = 1; i <= 1000; i++) {
+                journal.append(1, record(i));
+            }
+        });
+        long last = journal.getLastSequence();
+        journal.deleteUpTo(last);
+        assertEquals(last + 1, journal.append(1, record(1)));
+    }
+
+    private static AdherenceRecord record(int i) {
+        AdherenceRecord record = new AdherenceRecord("Metformin " + (char) ('a' + i % 26), i, START.plusMinutes(i));
+        record.setTaken(i % 3 != 0);
+        return record;
+    }
+
+    private static List<JournalEntry> readAll(AdherenceJournal journal, long afterSequence) {
+        List<JournalEntry> entries = new ArrayList<>();
+        AdherenceJournal.Cursor cursor = journal.cursor(afterSequence);
+        JournalEntry entry;
+        while ((entry = cursor.next()) != null) {
+            entries.add(entry);
+        }
+        return entries;
+    }
+
+    private List<Path> segmentFiles() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.sorted().collect(Collectors.toList());
+        }
+    }
+}
@@ -0,0 +1,212 @@
+package com.medicationadherence.model;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Columns of the history: the taken bitset, the medication dictionary, the time lookups and
+ * trimming, filled through appends at the end and late (backdated) doses.
+ */
+class AdherenceHistoryTest {
+
+    @Test
+    void backdatedAppendStillUsesIndexedLookups() {
+        AdherenceHistory history = new AdherenceHistory();
+        history.append(10, 1, "Tylenol", true);
+        history.append(20, 2, "Tylenol", false);
+        history.append(30, 3, "Aspirin", true);
+        history.append(15, 4, "Aspirin", false);
+        //Same minute as an earlier dose: goes after it
+        history.append(20, 5, "Tylenol", true);
+        AdherenceHistory.View view = history.view();
+        assertEquals(5, view.size());
+        int[] minutes = {10, 15, 20, 20, 30};
+        int[] dosages = {1, 4, 2, 5, 3};
+        boolean[] taken = {true, false, false, true, true};
+        String[] medications = {"Tylenol", "Aspirin", "Tylenol", "Tylenol", "Aspirin"};
+        for (int i = 0; i < minutes.length; i++) {
+            assertEquals(minutes[i], view.epochMinute(i));
+            assertEquals(dosages[i], view.dosage(i));
+            assertEquals(taken[i], view.isTaken(i));
+            assertEquals(medications[i], view.medicationName(i));
+        }
+        assertEquals(1, view.fromIndex(11));
+        assertEquals(4, view.toIndex(20));
+        assertEquals(2, view.fromIndex(20));
+    }
+
+    @Test
+    void viewTakenBeforeABackdatedAppendDoesNotChange() {
+        AdherenceHistory history = new AdherenceHistory();
+        history.append(10, 1, "Tylenol", true);
+        history.append(30, 3, "Tylenol", false);
+        AdherenceHistory.View before = history.view();
+        history.append(20, 2, "Tylenol", true);
+        assertEquals(2, before.size());
+        assertEquals(30, before.epochMinute(1));
+        assertFalse(before.isTaken(1));
+        AdherenceHistory.View after = history.view();
+        assertEquals(20, after.epochMinute(1));
+        assertTrue(after.isTaken(1));
+        assertEquals(30, after.epochMinute(2));
+        assertFalse(after.isTaken(2));
+    }
+
+    @Test
+    void backdatedAppendShiftsTakenBitsAcrossWords() {
+        AdherenceHistory history = new AdherenceHistory();
+        for (int i = 0; i < 200; i++) {
+            history.append(10 * (i + 1), i, "Tylenol", i % 3 == 0);
+        }
+        history.append(5, -1, "Tylenol", false);
+        AdherenceHistory.View view = history.view();
+        assertEquals(201, view.size());
+        assertFalse(view.isTaken(0));
+        for (int i = 0; i < 200; i++) {
+            assertEquals(i, view.dosage(i + 1));
+            assertEquals(i % 3 == 0, view.isTaken(i + 1), "dose " + i);
+        }
+    }
+
+    @Test
+    void takenBitsSurviveGrowingAcrossWords() {
+        AdherenceHistory history = new AdherenceHistory();
+        for (int i = 0; i < 1000; i++) {
+            history.append(i, i, "Tylenol", i % 7 == 0 || i == 63 || i == 64);
+        }
+        AdherenceHistory.View view = history.view();
+        assertEquals(1000, view.size());
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(i % 7 == 0 || i == 63 || i == 64, view.isTaken(i), "dose " + i);
+        }
+    }
+
+    @Test
+    void recordsRoundTripThroughTheColumns() {
+        AdherenceHistory history = new AdherenceHistory();
+        LocalDateTime time = LocalDateTime.of(2024, 3, 1, 8, 30);
+        AdherenceRecord missed = new AdherenceRecord("Tylenol", 0, time);
+        missed.setTaken(false);
+        history.append(missed);
+        AdherenceRecord read = history.view().get(0);
+        assertEquals("Tylenol", read.getMedicationName());
+        assertEquals(0, read.getDosage());
+        assertFalse(read.isTaken());
+        assertEquals(time, read.getTimeTaken());
+        assertEquals(time, AdherenceHistory.fromEpochMinute(AdherenceHistory.toEpochMinute(time)));
+    }
+
+    @Test
+    void medicationNamesShareOneDictionaryEntry() {
+        AdherenceHistory history = new AdherenceHistory();
+        String[] names = {"Tylenol", "Aspirin", "Tylenol", "Ibuprofen", "Vitamin D", "Aspirin", "Zinc"};
+        for (int i = 0; i < names.length; i++) {
+            history.append(i, 1, names[i], true);
+        }
+        AdherenceHistory.View view = history.view();
+        assertEquals(view.medicationId(0), view.medicationId(2));
+        assertEquals(view.medicationId(1), view.medicationId(5));
+        assertNotEquals(view.medicationId(0), view.medicationId(1));
+        //More names than the dictionary's initial capacity
+        assertEquals(view.medicationId(6), view.medicationIdOf("Zinc"));
+        for (int i = 0; i < names.length; i++) {
+            assertEquals(names[i], view.medicationName(i));
+        }
+        assertEquals(-1, view.medicationIdOf("Unknown"));
+    }
+
+    @Test
+    void viewDoesNotKnowMedicationsAddedAfterIt() {
+        AdherenceHistory history = new AdherenceHistory();
+        history.append(1, 1, "Tylenol", true);
+        AdherenceHistory.View before = history.view();
+        history.append(2, 1, "Aspirin", true);
+        assertEquals(-1, before.medicationIdOf("Aspirin"));
+        assertEquals(1, history.view().medicationIdOf("Aspirin"));
+    }
+
+    @Test
+    void fromIndexAndToIndexAtTheBoundaries() {
+        AdherenceHistory empty = new AdherenceHistory();
+        assertEquals(0, empty.view().fromIndex(5));
+        assertEquals(0, empty.view().toIndex(5));
+
+        AdherenceHistory history = new AdherenceHistory();
+        for (int minute : new int[]{10, 20, 20, 20, 30}) {
+            history.append(minute, 1, "Tylenol", true);
+        }
+        AdherenceHistory.View view = history.view();
+        assertEquals(0, view.fromIndex(Integer.MIN_VALUE));
+        assertEquals(0, view.fromIndex(10));
+        assertEquals(1, view.fromIndex(11));
+        assertEquals(1, view.fromIndex(20));
+        assertEquals(4, view.fromIndex(21));
+        assertEquals(4, view.fromIndex(30));
+        assertEquals(5, view.fromIndex(31));
+        assertEquals(0, view.toIndex(9));
+        assertEquals(1, view.toIndex(10));
+        assertEquals(4, view.toIndex(20));
+        assertEquals(5, view.toIndex(30));
+        assertEquals(5, view.toIndex(Integer.MAX_VALUE));
+    }
+
+    @Test
+    void removeFirstKeepsTheNewestDoses() {
+        AdherenceHistory history = new AdherenceHistory();
+        for (int i = 0; i < 130; i++) {
+            history.append(i, i, i % 2 == 0 ? "Tylenol" : "Aspirin", i % 3 == 0);
+        }
+        AdherenceHistory.View before = history.view();
+        //Not a multiple of 64, so every taken bit moves to another position in its word
+        history.removeFirst(65);
+        AdherenceHistory.View view = history.view();
+        assertEquals(65, view.size());
+        for (int i = 0; i < 65; i++) {
+            int original = i + 65;
+            assertEquals(original, view.epochMinute(i));
+            assertEquals(original, view.dosage(i));
+            assertEquals(original % 3 == 0, view.isTaken(i), "dose " + original);
+            assertEquals(original % 2 == 0 ? "Tylenol" : "Aspirin", view.medicationName(i));
+        }
+        assertEquals(130, before.size());
+        assertEquals(0, before.epochMinute(0));
+        //Appends after trimming go to the end, and a backdated one still finds its place
+        history.append(200, 1, "Tylenol", true);
+        history.append(100, 1, "Tylenol", false);
+        view = history.view();
+        assertEquals(67, view.size());
+        assertEquals(100, view.epochMinute(35));
+        assertFalse(view.isTaken(35));
+        assertEquals(200, view.epochMinute(66));
+    }
+
+    @Test
+    void removeFirstOfNothingOrEverything() {
+        AdherenceHistory history = new AdherenceHistory();
+        for (int i = 0; i < 10; i++) {
+            history.append(i, 1, "Tylenol", true);
+        }
+        history.removeFirst(0);
+        assertEquals(10, history.size());
+        assertThrows(IndexOutOfBoundsException.class, () -> history.removeFirst(11));
+        assertThrows(IndexOutOfBoundsException.class, () -> history.removeFirst(-1));
+        history.removeFirst(10);
+        assertEquals(0, history.size());
+        history.append(3, 1, "Tylenol", false);
+        assertEquals(1, history.size());
+        assertFalse(history.view().isTaken(0));
+    }
+
+    @Test
+    void viewRejectsIndexesOutsideItsSize() {
+        AdherenceHistory history = new AdherenceHistory();
+        history.append(1, 1, "Tylenol", true);
+        AdherenceHistory.View view = history.view();
+        history.append(2, 1, "Tylenol", true);
+        assertThrows(IndexOutOfBoundsException.class, () -> view.epochMinute(1));
+        assertThrows(IndexOutOfBoundsException.class, () -> view.isTaken(-1));
+    }
+}
@@ -0,0 +1,132 @@
+package com.medicationadherence.model;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Counters, miss streaks and rolling windows, fed dose by dose like the owning Patient does.
+ */
+class AdherenceStatsTest {
+
+    private static final LocalDateTime START = LocalDateTime.of(2024, 3, 1, 8, 0);
+
+    private final AdherenceStats stats = new AdherenceStats();
+
+    @Test
+    void countsAndStreaksPerMedication() {
+        record("Tylenol", true, START);
+        record("Tylenol", false, START.plusDays(1));
+        record("Tylenol", false, START.plusDays(2));
+        record("Tylenol", true, START.plusDays(3));
+        record("Tylenol", false, START.plusDays(4));
+        record("Aspirin", false, START.plusDays(4));
+        PatientStats snapshot = stats.snapshot(START.toLocalDate().plusDays(4));
+        assertEquals(2, snapshot.getTaken());
+        assertEquals(4, snapshot.getMissed());
+        assertEquals(33.33, snapshot.getAdherencePercentage());
+        //Over all medications, the last two doses were missed
+        assertEquals(2, snapshot.getCurrentMissStreak());
+        assertEquals(2, snapshot.getLongestMissStreak());
+
+        PatientStats.MedicationStats tylenol = snapshot.getMedications().get("Tylenol");
+        assertEquals(2, tylenol.getTaken());
+        assertEquals(3, tylenol.getMissed());
+        assertEquals(40.0, tylenol.getAdherencePercentage());
+        assertEquals(1, tylenol.getCurrentMissStreak());
+        assertEquals(2, tylenol.getLongestMissStreak());
+
+        PatientStats.MedicationStats aspirin = snapshot.getMedications().get("Aspirin");
+        assertEquals(0, aspirin.getTaken());
+        assertEquals(1, aspirin.getCurrentMissStreak());
+    }
+
+    @Test
+    void takenDoseEndsTheCurrentStreakOnly() {
+        for (int i = 0; i < 3; i++) {
+            record("Tylenol", false, START.plusDays(i));
+        }
+        record("Tylenol", true, START.plusDays(3));
+        record("Tylenol", false, START.plusDays(4));
+        PatientStats snapshot = stats.snapshot(START.toLocalDate().plusDays(4));
+        assertEquals(1, snapshot.getCurrentMissStreak());
+        assertEquals(3, snapshot.getLongestMissStreak());
+    }
+
+    @Test
+    void registeredMedicationIsReportedBeforeItsFirstDose() {
+        stats.registerMedication("Vitamin D");
+        PatientStats.MedicationStats vitaminD = stats.snapshot(START.toLocalDate()).getMedications().get("Vitamin D");
+        assertNotNull(vitaminD);
+        assertEquals(0, vitaminD.getTaken());
+        assertEquals(0, vitaminD.getMissed());
+        assertEquals(0.0, vitaminD.getAdherencePercentage());
+    }
+
+    @Test
+    void percentageIsRoundedToTwoDecimals() {
+        assertEquals(0.0, AdherenceStats.percentage(0, 0));
+        assertEquals(100.0, AdherenceStats.percentage(1, 0));
+        assertEquals(0.0, AdherenceStats.percentage(0, 3));
+        assertEquals(66.67, AdherenceStats.percentage(2, 1));
+        assertEquals(33.33, AdherenceStats.percentage(1, 2));
+        assertEquals(16.67, AdherenceStats.percentage(1, 5));
+        assertEquals(62.5, AdherenceStats.percentage(5, 3));
+        assertEquals(99.99, AdherenceStats.percentage(9999, 1));
+    }
+
+    @Test
+    void windowsCoverTheLastDaysToday() {
+        LocalDate today = START.toLocalDate().plusDays(29);
+        //Just outside the 7 day window, inside the 30 day one
+        record("Tylenol", false, START.plusDays(22));
+        record("Tylenol", true, START.plusDays(23));
+        record("Tylenol", true, START.plusDays(29));
+        PatientStats snapshot = stats.snapshot(today);
+        assertEquals(7, snapshot.getLast7Days().getDays());
+        assertEquals(2, snapshot.getLast7Days().getTaken());
+        assertEquals(0, snapshot.getLast7Days().getMissed());
+        assertEquals(100.0, snapshot.getLast7Days().getAdherencePercentage());
+        assertEquals(30, snapshot.getLast30Days().getDays());
+        assertEquals(2, snapshot.getLast30Days().getTaken());
+        assertEquals(1, snapshot.getLast30Days().getMissed());
+        assertEquals(66.67, snapshot.getLast30Days().getAdherencePercentage());
+        //Nothing recorded in the window that ends before the first dose
+        assertEquals(0, stats.snapshot(START.toLocalDate().minusDays(1)).getLast30Days().getTaken());
+    }
+
+    @Test
+    void ringBufferBucketIsReusedThirtyDaysLater() {
+        record("Tylenol", true, START);
+        record("Tylenol", false, START.plusDays(1));
+        //Same bucket as START: the older day is dropped from the windows
+        record("Tylenol", false, START.plusDays(AdherenceStats.WINDOW_DAYS));
+        PatientStats snapshot = stats.snapshot(START.toLocalDate().plusDays(AdherenceStats.WINDOW_DAYS));
+        assertEquals(0, snapshot.getLast30Days().getTaken());
+        assertEquals(2, snapshot.getLast30Days().getMissed());
+        //Totals keep every dose
+        assertEquals(1, snapshot.getTaken());
+        assertEquals(2, snapshot.getMissed());
+    }
+
+    @Test
+    void doseOlderThanTheRingBufferOnlyCountsInTotals() {
+        record("Tylenol", false, START.plusDays(AdherenceStats.WINDOW_DAYS));
+        //Reported late, for a day whose bucket already holds a newer one
+        record("Tylenol", true, START);
+        PatientStats snapshot = stats.snapshot(START.toLocalDate().plusDays(AdherenceStats.WINDOW_DAYS));
+        assertEquals(0, snapshot.getLast30Days().getTaken());
+        assertEquals(1, snapshot.getLast30Days().getMissed());
+        assertEquals(1, snapshot.getTaken());
+        assertEquals(0, snapshot.getCurrentMissStreak());
+    }
+
+    private void record(String medicationName, boolean taken, LocalDateTime time) {
+        AdherenceRecord record = new AdherenceRecord(medicationName, taken ? 1 : 0, time);
+        record.setTaken(taken);
+        stats.record(record);
+    }
+}
@@ -0,0 +1,96 @@
+package com.medicationadherence.model;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+import java.util.function.Predicate;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Differential test: every validator must accept exactly what the regular expression it replaced accepts.
+ */
+class FieldValidatorsTest {
+
+    private static final String NAME_REGEX = "^[a-zA-Z'-]{1,50}$";
+    private static final String EMAIL_REGEX = "^[^@]+@[^@]+\\.[^@]+$";
+    private static final String MEDICATION_REGEX = "[a-zA-Z\\s]{1,50}";
+    private static final String TIMING_REGEX = "[a-zA-Z]+";
+
+    //Characters that sit on either side of each validator's rules
+    private static final char[] ALPHABET = {
+            'a', 'z', 'A', 'Z', 'm', 'Q', '0', '9', '@', '.', '\'', '-', '_', ' ',
+            '\t', '\n', '\u000B', '\f', '\r', ' ', 'é', 'Α', '`', '{', '[', '/'
+    };
+
+    @Test
+    void nameMatchesRegex() {
+        assertSameAsRegex(FieldValidators::isValidName, NAME_REGEX);
+        assertTrue(FieldValidators.isValidName(repeat('a', 50)));
+        assertFalse(FieldValidators.isValidName(repeat('a', 51)));
+        assertFalse(FieldValidators.isValidName(""));
+        assertFalse(FieldValidators.isValidName("Ann\n"));
+    }
+
+    @Test
+    void emailMatchesRegex() {
+        assertSameAsRegex(FieldValidators::isValidEmail, EMAIL_REGEX);
+        assertTrue(FieldValidators.isValidEmail("doallison25@gmail.com"));
+        assertFalse(FieldValidators.isValidEmail("a@.com"));
+        assertFalse(FieldValidators.isValidEmail("a@b."));
+        assertFalse(FieldValidators.isValidEmail("@b.c"));
+        assertFalse(FieldValidators.isValidEmail("a@b@c.d"));
+        assertTrue(FieldValidators.isValidEmail("a@b.c\n"));
+    }
+
+    @Test
+    void medicationNameMatchesRegex() {
+        assertSameAsRegex(FieldValidators::isValidMedicationName, MEDICATION_REGEX);
+        assertTrue(FieldValidators.isValidMedicationName("Vitamin D"));
+        assertFalse(FieldValidators.isValidMedicationName("Naloxone3"));
+        //Medication name columns are 50 characters wide
+        assertTrue(FieldValidators.isValidMedicationName(repeat('a', 50)));
+        assertFalse(FieldValidators.isValidMedicationName(repeat('a', 51)));
+    }
+
+    @Test
+    void timingMatchesRegex() {
+        assertSameAsRegex(FieldValidators::isValidTiming, TIMING_REGEX);
+        assertTrue(FieldValidators.isValidTiming("weekly"));
+        assertFalse(FieldValidators.isValidTiming("twice daily"));
+    }
+
+    @Test
+    void nullIsRejected() {
+        assertFalse(FieldValidators.isValidName(null));
+        assertFalse(FieldValidators.isValidEmail(null));
+        assertFalse(FieldValidators.isValidMedicationName(null));
+        assertFalse(FieldValidators.isValidTiming(null));
+    }
+
+    private static void assertSameAsRegex(Predicate<String> validator, String regex) {
+        Random random = new Random(42);
+        for (int i = 0; i < 200_000; i++) {
+            String input = randomString(random);
+            assertEquals(input.matches(regex), validator.test(input), () -> "Disagrees with " + regex + " on '" + input + "'");
+        }
+    }
+
+    private static String randomString(Random random) {
+        //Mostly short strings, with some around the 50 character name limits
+        int length = random.nextInt(10) == 0 ? 45 + random.nextInt(10) : random.nextInt(12);
+        StringBuilder sb = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            sb.append(ALPHABET[random.nextInt(ALPHABET.length)]);
+        }
+        return sb.toString();
+    }
+
+    private static String repeat(char c, int times) {
+        StringBuilder sb = new StringBuilder(times);
+        for (int i = 0; i < times; i++) {
+            sb.append(c);
+        }
+        return sb.toString();
+    }
+}
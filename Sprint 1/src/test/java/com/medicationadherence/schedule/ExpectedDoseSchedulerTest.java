@@ -0,0 +1,232 @@
+package com.medicationadherence.schedule;
+
+import com.medicationadherence.alert.AlertEngine;
+import com.medicationadherence.model.AdherenceHistory;
+import com.medicationadherence.model.AdherenceRecord;
+import com.medicationadherence.model.Patient;
+import com.medicationadherence.service.PatientRegistry;
+import com.medicationadherence.storage.InMemoryAdherenceEventStore;
+import com.medicationadherence.storage.InMemoryPatientStore;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.Collections;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Expected doses against a clock the test moves by hand.
+ */
+class ExpectedDoseSchedulerTest {
+
+    private static final LocalDateTime START = LocalDateTime.of(2024, 3, 1, 8, 0);
+
+    private final MutableClock clock = new MutableClock(START.toInstant(ZoneOffset.UTC));
+    private final PatientRegistry registry = new PatientRegistry();
+    private AlertEngine alerts;
+    private ExpectedDoseScheduler scheduler;
+    private Patient patient;
+
+    @BeforeEach
+    void setUp() {
+        alerts = new AlertEngine(Collections.emptyList(), registry, clock, 3, 72, 60, 100, 100);
+        //The ticker never fires on its own during a test
+        scheduler = new ExpectedDoseScheduler(alerts, clock, 120, 3600);
+        patient = new Patient(new InMemoryPatientStore(), new InMemoryAdherenceEventStore(),
+                "Allison", "Dolores", 25, "doallison25@gmail.com");
+        registry.add(patient);
+    }
+
+    @AfterEach
+    void tearDown() {
+        scheduler.shutdown();
+        alerts.shutdown();
+    }
+
+    @Test
+    void unreportedDailyDoseIsRecordedAsMissedAfterGracePeriod() {
+        schedule("Tylenol", "daily");
+        advance(Duration.ofHours(24 + 1));
+        assertEquals(0, patient.getAdherenceRecords().size());
+        advance(Duration.ofHours(1));
+        AdherenceHistory.View records = patient.getAdherenceRecords();
+        assertEquals(1, records.size());
+        assertFalse(records.isTaken(0));
+        assertEquals("Tylenol", records.medicationName(0));
+        assertEquals(START.plusDays(1), records.timeTaken(0));
+        assertEquals(1, scheduler.getRecordedMisses());
+    }
+
+    @Test
+    void reportedDoseAccountsForItsPeriod() {
+        schedule("Tylenol", "daily");
+        schedule("Vitamin D", "weekly");
+        advance(Duration.ofHours(10));
+        record("Tylenol", 2);
+        //Late, but within the grace period
+        advance(Duration.ofHours(15));
+        record("Vitamin D", 1);
+        advance(Duration.ofHours(2));
+        //Only what the patient reported
+        assertEquals(2, patient.getAdherenceRecords().size());
+        assertEquals(2, scheduler.getTrackedMedications());
+    }
+
+    @Test
+    void everyUnreportedPeriodIsMissed() {
+        schedule("Tylenol", "daily");
+        advance(Duration.ofDays(5));
+        AdherenceHistory.View records = patient.getAdherenceRecords();
+        assertEquals(4, records.size());
+        for (int i = 0; i < 4; i++) {
+            assertEquals(START.plusDays(i + 1), records.timeTaken(i));
+        }
+        assertEquals(4, patient.getMissedDoses());
+    }
+
+    @Test
+    void reschedulingRestartsThePeriod() {
+        schedule("Tylenol", "daily");
+        advance(Duration.ofHours(20));
+        schedule("Tylenol", "weekly");
+        advance(Duration.ofDays(6));
+        assertEquals(0, patient.getAdherenceRecords().size());
+        assertEquals(1, scheduler.getTrackedMedications());
+    }
+
+    @Test
+    void restoredScheduleKeepsItsPeriods() {
+        LocalDateTime scheduledAt = schedule("Tylenol", "daily");
+        assertEquals(START, scheduledAt);
+        advance(Duration.ofHours(10));
+        record("Tylenol", 1);
+        clock.now = clock.now.plus(Duration.ofHours(17));
+        restart("Tylenol", scheduledAt);
+        //Due at the end of the second day, not one day after the restart
+        advance(Duration.ofHours(22));
+        assertEquals(1, patient.getAdherenceRecords().size());
+        advance(Duration.ofHours(1));
+        AdherenceHistory.View records = patient.getAdherenceRecords();
+        assertEquals(2, records.size());
+        assertFalse(records.isTaken(1));
+        assertEquals(START.plusDays(2), records.timeTaken(1));
+    }
+
+    @Test
+    void restoredRecordsAccountForTheirPeriods() {
+        LocalDateTime scheduledAt = schedule("Tylenol", "daily");
+        advance(Duration.ofHours(10));
+        record("Tylenol", 1);
+        advance(Duration.ofHours(15));
+        record("Tylenol", 1);
+        //Restarted within the first period's grace period, both periods already reported
+        restart("Tylenol", scheduledAt);
+        advance(Duration.ofHours(48));
+        assertEquals(2, patient.getAdherenceRecords().size());
+        advance(Duration.ofHours(1));
+        AdherenceHistory.View records = patient.getAdherenceRecords();
+        assertEquals(3, records.size());
+        assertEquals(START.plusDays(3), records.timeTaken(2));
+        assertEquals(1, scheduler.getRecordedMisses());
+    }
+
+    @Test
+    void periodUnreportedBeforeRestartIsStillExpected() {
+        LocalDateTime scheduledAt = schedule("Tylenol", "daily");
+        clock.now = clock.now.plus(Duration.ofHours(25));
+        restart("Tylenol", scheduledAt);
+        advance(Duration.ofHours(1));
+        AdherenceHistory.View records = patient.getAdherenceRecords();
+        assertEquals(1, records.size());
+        assertEquals(START.plusDays(1), records.timeTaken(0));
+    }
+
+    @Test
+    void missRecordedBeforeRestartDoesNotAccountForTheNextPeriod() {
+        LocalDateTime scheduledAt = schedule("Tylenol", "daily");
+        //The first period is missed; its miss is dated at the start of the second one
+        advance(Duration.ofHours(26));
+        assertEquals(1, patient.getAdherenceRecords().size());
+        clock.now = clock.now.plus(Duration.ofHours(4));
+        restart("Tylenol", scheduledAt);
+        advance(Duration.ofHours(20));
+        AdherenceHistory.View records = patient.getAdherenceRecords();
+        assertEquals(2, records.size());
+        assertEquals(START.plusDays(2), records.timeTaken(1));
+    }
+
+    @Test
+    void lateDoseBeforeRestartAccountsForThePeriodItWasLateFor() {
+        LocalDateTime scheduledAt = schedule("Tylenol", "daily");
+        //Within the first period's grace period
+        advance(Duration.ofHours(25));
+        record("Tylenol", 1);
+        clock.now = clock.now.plus(Duration.ofHours(5));
+        restart("Tylenol", scheduledAt);
+        advance(Duration.ofHours(20));
+        AdherenceHistory.View records = patient.getAdherenceRecords();
+        assertEquals(2, records.size());
+        assertFalse(records.isTaken(1));
+        assertEquals(START.plusDays(2), records.timeTaken(1));
+    }
+
+    private LocalDateTime schedule(String medicationName, String timing) {
+        LocalDateTime scheduledAt = scheduler.newPeriodStart();
+        patient.addMedication(medicationName, timing, 1);
+        scheduler.track(patient, medicationName, scheduledAt);
+        return scheduledAt;
+    }
+
+    //What the warm start does: a new scheduler, and the patient restored with its records and schedule
+    private void restart(String medicationName, LocalDateTime scheduledAt) {
+        scheduler.shutdown();
+        scheduler = new ExpectedDoseScheduler(alerts, clock, 120, 3600);
+        Patient restored = Patient.restore(new InMemoryAdherenceEventStore(), patient.getId(), patient.getFirstName(),
+                patient.getLastName(), patient.getAge(), patient.getEmail());
+        restored.restoreAdherenceRecords(patient.getAdherenceRecords());
+        restored.addMedication(medicationName, patient.getScheduledFrequency(medicationName).name(), 1);
+        patient = restored;
+        scheduler.restore(patient, medicationName, scheduledAt);
+    }
+
+    private void record(String medicationName, int dosage) {
+        AdherenceRecord record = new AdherenceRecord(medicationName, dosage, LocalDateTime.now(clock));
+        patient.addAdherenceRecord(record);
+        scheduler.onRecord(patient.getId(), record);
+    }
+
+    private void advance(Duration duration) {
+        clock.now = clock.now.plus(duration);
+        scheduler.advance();
+    }
+
+    private static final class MutableClock extends Clock {
+        private Instant now;
+
+        MutableClock(Instant now) {
+            this.now = now;
+        }
+
+        @Override
+        public ZoneId getZone() {
+            return ZoneOffset.UTC;
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Instant instant() {
+            return now;
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package com.medicationadherence.schedule;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Timers must expire exactly at their deadline, at every level of the wheel.
+ */
+class TimerWheelTest {
+
+    private static final class TestTimer extends TimerWheel.Timer {
+        private long expiredAt = -1;
+    }
+
+    @Test
+    void timersExpireAtTheirDeadline() {
+        long start = 28_000_000L;
+        TimerWheel<TestTimer> wheel = new TimerWheel<>(start);
+        Random random = new Random(42);
+        List<TestTimer> timers = new ArrayList<>();
+        //Deadlines up to 4 weeks ahead, across the first three levels
+        for (int i = 0; i < 20_000; i++) {
+            TestTimer timer = new TestTimer();
+            wheel.arm(timer, start + 1 + random.nextInt(40_320));
+            timers.add(timer);
+        }
+        //Uneven steps, as the scheduler wakes up irregularly
+        long tick = start;
+        while (tick < start + 40_400) {
+            tick += 1 + random.nextInt(30);
+            long now = tick;
+            wheel.advance(now, timer -> timer.expiredAt = now);
+        }
+        for (TestTimer timer : timers) {
+            assertTrue(timer.expiredAt >= timer.getDeadline(), "Expired early");
+            assertTrue(timer.expiredAt - timer.getDeadline() < 30, "Expired late");
+            assertFalse(timer.isArmed());
+        }
+        assertEquals(0, wheel.size());
+    }
+
+    @Test
+    void everyTickIsVisitedInOrder() {
+        TimerWheel<TestTimer> wheel = new TimerWheel<>(0);
+        List<TestTimer> timers = new ArrayList<>();
+        for (int deadline = 1; deadline <= 300_000; deadline += 7) {
+            TestTimer timer = new TestTimer();
+            wheel.arm(timer, deadline);
+            timers.add(timer);
+        }
+        List<Long> order = new ArrayList<>();
+        wheel.advance(300_000, timer -> {
+            timer.expiredAt = wheel.getCurrentTick();
+            order.add(timer.getDeadline());
+        });
+        assertEquals(timers.size(), order.size());
+        for (TestTimer timer : timers) {
+            assertEquals(timer.getDeadline(), timer.expiredAt);
+        }
+        for (int i = 1; i < order.size(); i++) {
+            assertTrue(order.get(i - 1) < order.get(i));
+        }
+    }
+
+    @Test
+    void cancelledAndRearmedTimers() {
+        TimerWheel<TestTimer> wheel = new TimerWheel<>(0);
+        TestTimer cancelled = new TestTimer();
+        TestTimer rearmed = new TestTimer();
+        TestTimer overdue = new TestTimer();
+        wheel.arm(cancelled, 100);
+        wheel.arm(rearmed, 5_000);
+        wheel.arm(rearmed, 50);
+        wheel.cancel(cancelled);
+        wheel.cancel(cancelled);
+        wheel.advance(10, timer -> timer.expiredAt = wheel.getCurrentTick());
+        //A deadline in the past expires on the next tick
+        wheel.arm(overdue, 3);
+        assertEquals(2, wheel.size());
+        wheel.advance(10_000, timer -> timer.expiredAt = wheel.getCurrentTick());
+        assertEquals(-1, cancelled.expiredAt);
+        assertEquals(50, rearmed.expiredAt);
+        assertEquals(11, overdue.expiredAt);
+        assertEquals(0, wheel.size());
+    }
+
+    @Test
+    void timerBeyondTheWheelsRange() {
+        TimerWheel<TestTimer> wheel = new TimerWheel<>(5);
+        TestTimer timer = new TestTimer();
+        long deadline = 5 + (1L << 24) + 1_000;
+        wheel.arm(timer, deadline);
+        wheel.advance(deadline - 1, t -> fail("Expired early"));
+        assertTrue(timer.isArmed());
+        wheel.advance(deadline, t -> timer.expiredAt = wheel.getCurrentTick());
+        assertEquals(deadline, timer.expiredAt);
+    }
+}
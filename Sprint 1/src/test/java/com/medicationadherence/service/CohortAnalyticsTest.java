@@ -0,0 +1,106 @@
+package com.medicationadherence.service;
+
+import com.medicationadherence.model.AdherenceRecord;
+import com.medicationadherence.model.Patient;
+import com.medicationadherence.storage.InMemoryAdherenceEventStore;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * The parallel reduction must agree with a straightforward sequential computation over the same patients.
+ */
+class CohortAnalyticsTest {
+
+    private static final String[] MEDICATIONS = {"Tylenol", "Ibuprofen", "Naloxone"};
+    private static final LocalDateTime START = LocalDateTime.of(2024, 3, 1, 8, 0);
+
+    private final PatientRegistry registry = new PatientRegistry();
+    private final CohortAnalytics analytics = new CohortAnalytics(registry);
+
+    @Test
+    void matchesSequentialComputation() {
+        Random random = new Random(42);
+        InMemoryAdherenceEventStore events = new InMemoryAdherenceEventStore();
+        for (int id = 1; id <= 5000; id++) {
+            Patient patient = Patient.restore(events, id, "Allison", "Dolores", random.nextInt(110), "doallison25@gmail.com");
+            List<AdherenceRecord> records = new ArrayList<>();
+            int doses = random.nextInt(20);
+            for (int i = 0; i < doses; i++) {
+                AdherenceRecord record = new AdherenceRecord(MEDICATIONS[random.nextInt(MEDICATIONS.length)], 1, START.plusHours(i));
+                record.setTaken(random.nextInt(4) != 0);
+                records.add(record);
+            }
+            patient.restoreAdherenceRecords(records);
+            registry.add(patient);
+        }
+
+        CohortReport report = analytics.analyze(25, 5, new double[]{0.5, 0.9});
+
+        long taken = 0;
+        long missed = 0;
+        long tylenolTaken = 0;
+        long seventiesMissed = 0;
+        List<long[]> ranked = new ArrayList<>();
+        for (Patient patient : registry.getAll()) {
+            int patientTaken = 0;
+            int patientMissed = 0;
+            for (AdherenceRecord record : patient.getAdherenceRecords()) {
+                if (record.isTaken()) {
+                    patientTaken++;
+                    if (record.getMedicationName().equals("Tylenol")) {
+                        tylenolTaken++;
+                    }
+                } else {
+                    patientMissed++;
+                    if (patient.getAge() >= 70 && patient.getAge() < 80) {
+                        seventiesMissed++;
+                    }
+                }
+            }
+            taken += patientTaken;
+            missed += patientMissed;
+            if (patientTaken + patientMissed >= 5) {
+                ranked.add(new long[]{patient.getId(), patientTaken, patientMissed});
+            }
+        }
+        ranked.sort(Comparator.comparingDouble((long[] p) -> (double) p[1] / (p[1] + p[2]))
+                .thenComparing(Comparator.comparingLong((long[] p) -> p[2]).reversed())
+                .thenComparingLong(p -> p[0]));
+
+        assertEquals(5000, report.getPatients());
+        assertEquals(ranked.size(), report.getPatientsWithDoses());
+        assertEquals(taken, report.getTotal().getTaken());
+        assertEquals(missed, report.getTotal().getMissed());
+        assertEquals(tylenolTaken, report.getByMedication().get("Tylenol").getTaken());
+        CohortReport.Group seventies = report.getByAgeBand().stream()
+                .filter(band -> band.getName().equals("70-79")).findFirst().orElseThrow(AssertionError::new);
+        assertEquals(seventiesMissed, seventies.getMissed());
+        assertEquals("100+", report.getByAgeBand().get(report.getByAgeBand().size() - 1).getName());
+
+        assertEquals(25, report.getWorstPatients().size());
+        for (int i = 0; i < 25; i++) {
+            assertEquals(ranked.get(i)[0], report.getWorstPatients().get(i).getId());
+        }
+
+        long[] median = ranked.get((int) Math.ceil(0.5 * ranked.size()) - 1);
+        double medianAdherence = (double) median[1] / (median[1] + median[2]) * 100;
+        assertEquals(medianAdherence, report.getAdherenceQuantiles().get("p50"), 0.051);
+        assertTrue(report.getAdherenceQuantiles().containsKey("p90"));
+    }
+
+    @Test
+    void emptyRegistryGivesEmptyReport() {
+        CohortReport report = analytics.analyze(10, 1, new double[]{0.5});
+        assertEquals(0, report.getPatients());
+        assertEquals(0, report.getTotal().getAdherencePercentage());
+        assertTrue(report.getWorstPatients().isEmpty());
+        assertTrue(report.getAdherenceQuantiles().isEmpty());
+    }
+}
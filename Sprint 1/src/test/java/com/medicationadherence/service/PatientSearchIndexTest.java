@@ -0,0 +1,101 @@
+package com.medicationadherence.service;
+
+import com.medicationadherence.model.Patient;
+import com.medicationadherence.storage.InMemoryAdherenceEventStore;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Prefix searches through the PatientRegistry.
+ */
+class PatientSearchIndexTest {
+
+    private final InMemoryAdherenceEventStore adherenceEvents = new InMemoryAdherenceEventStore();
+    private final PatientRegistry registry = new PatientRegistry();
+
+    @Test
+    void findsPatientsByAnyFieldPrefixIgnoringCase() {
+        add(1, "Allison", "Dolores", "doallison25@gmail.com");
+        add(2, "Jacob", "Turner", "jturner@gmail.com");
+        add(3, "Dolly", "Allen", "dolly@example.com");
+
+        assertEquals(List.of(3, 1), ids(registry.search("all", 10)));
+        assertEquals(List.of(3, 1), ids(registry.search("DOL", 10)));
+        assertEquals(List.of(2), ids(registry.search("jturner@", 10)));
+        //Every word has to match, each in any field
+        assertEquals(List.of(1), ids(registry.search(" dol  allison ", 10)));
+        assertEquals(List.of(), ids(registry.search("jacob allen", 10)));
+        assertEquals(List.of(), ids(registry.search("urner", 10)));
+        assertEquals(List.of(), ids(registry.search("   ", 10)));
+    }
+
+    @Test
+    void returnsEachPatientOnceUpToTheLimit() {
+        //Matches by first name and email
+        add(1, "Sam", "Smith", "sam@example.com");
+        for (int id = 2; id <= 50; id++) {
+            add(id, "Sara", "Lopez", "slopez" + id + "@example.com");
+        }
+        assertEquals(List.of(1), ids(registry.search("sam", 10)));
+        List<Integer> found = ids(registry.search("sa", 20));
+        assertEquals(20, found.size());
+        assertEquals(20, found.stream().distinct().count());
+        assertEquals(49, registry.search("sara", 100).size());
+    }
+
+    @Test
+    void searchesStayConsistentWithConcurrentInserts() throws Exception {
+        int writers = 4;
+        int perWriter = 2000;
+        ExecutorService executor = Executors.newFixedThreadPool(writers + 1);
+        CountDownLatch start = new CountDownLatch(1);
+        try {
+            Future<?>[] inserts = new Future<?>[writers];
+            for (int w = 0; w < writers; w++) {
+                int first = w * perWriter + 1;
+                inserts[w] = executor.submit(() -> {
+                    start.await();
+                    for (int id = first; id < first + perWriter; id++) {
+                        add(id, "Ann", "Lee", "ann" + id + "@example.com");
+                    }
+                    return null;
+                });
+            }
+            Future<?> searches = executor.submit(() -> {
+                start.await();
+                while (registry.size() < writers * perWriter) {
+                    List<Patient> found = registry.search("ann lee", 100);
+                    assertTrue(found.size() <= 100);
+                    assertEquals(found.size(), found.stream().map(Patient::getId).distinct().count());
+                }
+                return null;
+            });
+            start.countDown();
+            for (Future<?> insert : inserts) {
+                insert.get(30, TimeUnit.SECONDS);
+            }
+            searches.get(30, TimeUnit.SECONDS);
+        } finally {
+            executor.shutdownNow();
+        }
+        assertEquals(writers * perWriter, registry.search("ann", Integer.MAX_VALUE).size());
+        assertEquals(List.of(4321), ids(registry.search("ann4321@", 10)));
+    }
+
+    private void add(int id, String firstName, String lastName, String email) {
+        registry.add(Patient.restore(adherenceEvents, id, firstName, lastName, 30, email));
+    }
+
+    private static List<Integer> ids(List<Patient> patients) {
+        return patients.stream().map(Patient::getId).collect(Collectors.toList());
+    }
+}
@@ -0,0 +1,122 @@
+package com.medicationadherence.storage;
+
+import com.medicationadherence.model.AdherenceHistory;
+import com.medicationadherence.model.AdherenceRecord;
+import com.medicationadherence.model.DuplicatePatientException;
+import com.medicationadherence.model.Patient;
+import com.medicationadherence.service.PatientRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Patients backed by the in-memory stores, which need no mysql.
+ */
+class InMemoryStorageTest {
+
+    private final InMemoryPatientStore patientStore = new InMemoryPatientStore();
+    private final InMemoryAdherenceEventStore adherenceEvents = new InMemoryAdherenceEventStore();
+
+    @Test
+    void patientsGetSequentialIds() {
+        Patient first = new Patient(patientStore, adherenceEvents, "Allison", "Dolores", 25, "doallison25@gmail.com");
+        Patient second = new Patient(patientStore, adherenceEvents, "Jacob", "Turner", 40, "jturner@gmail.com");
+        assertEquals(1, first.getId());
+        assertEquals(2, second.getId());
+        assertEquals(2, patientStore.size());
+    }
+
+    @Test
+    void duplicateIdentityIsRejectedIgnoringCase() {
+        new Patient(patientStore, adherenceEvents, "Allison", "Dolores", 25, "doallison25@gmail.com");
+        assertThrows(DuplicatePatientException.class,
+                () -> new Patient(patientStore, adherenceEvents, "allison", "DOLORES", 25, "other@gmail.com"));
+        //A different age is a different patient
+        new Patient(patientStore, adherenceEvents, "Allison", "Dolores", 26, "doallison25@gmail.com");
+        assertEquals(2, patientStore.size());
+    }
+
+    @Test
+    void invalidPatientIsNotStored() {
+        assertThrows(IllegalArgumentException.class,
+                () -> new Patient(patientStore, adherenceEvents, "Allison1", "Dolores", 25, "doallison25@gmail.com"));
+        assertEquals(0, patientStore.size());
+    }
+
+    @Test
+    void adherenceRecordsAreAppendedInOrder() {
+        Patient patient = new Patient(patientStore, adherenceEvents, "Allison", "Dolores", 25, "doallison25@gmail.com");
+        LocalDateTime start = LocalDateTime.of(2024, 3, 1, 8, 0);
+        for (int i = 0; i < 10; i++) {
+            AdherenceRecord record = new AdherenceRecord(i % 2 == 0 ? "Tylenol" : "Vitamin D", 1, start.plusHours(i));
+            record.setTaken(i != 3);
+            patient.addAdherenceRecord(record);
+        }
+        assertEquals(10, adherenceEvents.size());
+        assertEquals(1, patient.getMissedDoses());
+        AdherenceHistory.View stored = adherenceEvents.history(patient.getId());
+        assertEquals(10, stored.size());
+        for (int i = 0; i < 10; i++) {
+            assertEquals(start.plusHours(i), stored.timeTaken(i));
+            assertEquals(i % 2 == 0 ? "Tylenol" : "Vitamin D", stored.medicationName(i));
+            assertEquals(i != 3, stored.isTaken(i));
+        }
+        assertEquals(0, adherenceEvents.history(patient.getId() + 1).size());
+    }
+
+    @Test
+    void rollupsSumDosesPerMedicationAndPeriod() {
+        Patient patient = new Patient(patientStore, adherenceEvents, "Allison", "Dolores", 25, "doallison25@gmail.com");
+        //Friday 2024-03-01 to Monday 2024-03-04, two Tylenol doses a day, the Saturday evening one missed
+        LocalDateTime start = LocalDateTime.of(2024, 3, 1, 8, 0);
+        for (int i = 0; i < 8; i++) {
+            AdherenceRecord record = new AdherenceRecord("Tylenol", 2, start.plusHours(12L * i));
+            record.setTaken(i != 3);
+            patient.addAdherenceRecord(record);
+        }
+        InMemoryAdherenceRollupStore rollups = new InMemoryAdherenceRollupStore(adherenceEvents);
+
+        List<AdherenceRollup> daily = rollups.rollups(patient.getId(), RollupPeriod.DAY, LocalDate.of(2024, 3, 2), null);
+        assertEquals(3, daily.size());
+        assertEquals(LocalDate.of(2024, 3, 2), daily.get(0).getPeriodStart());
+        assertEquals(1, daily.get(0).getTaken());
+        assertEquals(1, daily.get(0).getMissed());
+        assertEquals(2, daily.get(0).getMissedDosage());
+
+        List<AdherenceRollup> weekly = rollups.rollups(patient.getId(), RollupPeriod.WEEK, null, null);
+        assertEquals(2, weekly.size());
+        assertEquals(LocalDate.of(2024, 2, 26), weekly.get(0).getPeriodStart());
+        assertEquals(5, weekly.get(0).getTaken());
+        assertEquals(1, weekly.get(0).getMissed());
+        assertEquals(10, weekly.get(0).getTakenDosage());
+        assertEquals(LocalDate.of(2024, 3, 4), weekly.get(1).getPeriodStart());
+        assertEquals(2, weekly.get(1).getTaken());
+    }
+
+    @Test
+    void versionsGrowWithEveryChange() {
+        PatientRegistry registry = new PatientRegistry();
+        Patient patient = new Patient(patientStore, adherenceEvents, "Allison", "Dolores", 25, "doallison25@gmail.com");
+        long empty = registry.version();
+        registry.add(patient);
+        long added = registry.version();
+        assertTrue(added > empty);
+        assertEquals(0, patient.currentVersion());
+
+        patient.addAdherenceRecord(new AdherenceRecord("Tylenol", 2));
+        patient.addMedication("Tylenol", "daily", 2);
+        assertEquals(2, patient.currentVersion());
+        assertTrue(registry.version() > added);
+
+        //Reads change nothing
+        long version = registry.version();
+        patient.getAdherenceRecords();
+        patient.computeStats(LocalDate.now());
+        assertEquals(version, registry.version());
+        assertEquals(2, patient.currentVersion());
+    }
+}